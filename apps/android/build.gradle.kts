@@ -189,6 +189,10 @@ android {
         viewBinding = true
         buildConfig = true
     }
+    testOptions {
+        // 单元测试里 android.util.Log 等桩方法返回默认值，不抛异常
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -0,0 +1,54 @@
+package com.example.sonicwavev4
+
+/**
+ * 已缓存字节区间的集合，区间为左闭右开 [start, end)，始终保持有序且互不相邻。
+ * 非线程安全，由调用方加锁。
+ */
+class ByteRangeSet(ranges: List<List<Long>> = emptyList()) {
+
+    private val starts = ArrayList<Long>()
+    private val ends = ArrayList<Long>()
+
+    init {
+        ranges.forEach { if (it.size == 2) add(it[0], it[1]) }
+    }
+
+    val coveredBytes: Long get() = starts.indices.sumOf { ends[it] - starts[it] }
+
+    fun add(start: Long, end: Long) {
+        if (end <= start) return
+        var newStart = start
+        var newEnd = end
+        var i = 0
+        while (i < starts.size && ends[i] < newStart) i++
+        // 合并所有重叠或相邻的区间
+        while (i < starts.size && starts[i] <= newEnd) {
+            newStart = minOf(newStart, starts[i])
+            newEnd = maxOf(newEnd, ends[i])
+            starts.removeAt(i)
+            ends.removeAt(i)
+        }
+        starts.add(i, newStart)
+        ends.add(i, newEnd)
+    }
+
+    /**
+     * 从 [position] 开始连续缓存的字节数，未缓存时为 0。
+     */
+    fun coveredFrom(position: Long): Long {
+        for (i in starts.indices) {
+            if (starts[i] > position) return 0L
+            if (position < ends[i]) return ends[i] - position
+        }
+        return 0L
+    }
+
+    /**
+     * [position] 之后第一个已缓存区间的起点；之后没有缓存时返回 null。
+     */
+    fun nextCoveredStart(position: Long): Long? = starts.firstOrNull { it > position }
+
+    fun covers(start: Long, end: Long): Boolean = end <= start || coveredFrom(start) >= end - start
+
+    fun toList(): List<List<Long>> = starts.indices.map { listOf(starts[it], ends[it]) }
+}
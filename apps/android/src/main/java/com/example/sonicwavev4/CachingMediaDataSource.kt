@@ -0,0 +1,162 @@
+package com.example.sonicwavev4
+
+import android.media.MediaDataSource
+import android.util.Log
+import okhttp3.Request
+import okhttp3.Response
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+
+/**
+ * [CloudTrackCache] 的数据源：MediaPlayer 在自己的线程上调用 [readAt]。
+ *
+ * 已缓存的字节从磁盘读取；未缓存时打开一个从该位置开始的 Range 流，
+ * 顺序播放期间复用同一个流，拖动进度到未缓存位置时才重新请求。
+ */
+internal class CachingMediaDataSource(
+    private val entry: CloudTrackCache.Entry,
+    dataFile: File,
+    private val onClose: () -> Unit
+) : MediaDataSource() {
+
+    companion object {
+        private const val TAG = "CachingMediaDataSource"
+    }
+
+    private val file = RandomAccessFile(dataFile, "rw")
+    private var response: Response? = null
+    private var stream: InputStream? = null
+    private var streamPosition = -1L
+    private var closed = false
+
+    override fun getSize(): Long = ensureSize()
+
+    @Synchronized
+    override fun readAt(position: Long, buffer: ByteArray, offset: Int, size: Int): Int {
+        if (closed) return -1
+        val total = ensureSize()
+        if (total >= 0L && position >= total) return -1
+        val wanted = if (total >= 0L) minOf(size.toLong(), total - position).toInt() else size
+        if (wanted <= 0) return 0
+
+        val cached = synchronized(CloudTrackCache.lock) { entry.ranges.coveredFrom(position) }
+        if (cached > 0L) {
+            val count = minOf(cached, wanted.toLong()).toInt()
+            file.seek(position)
+            file.readFully(buffer, offset, count)
+            return count
+        }
+        return try {
+            readFromNetwork(position, buffer, offset, wanted)
+        } catch (e: IOException) {
+            // 连接中断时从当前位置重连一次；仍失败则抛给 MediaPlayer 报错，不能返回 -1 被当成播放结束
+            Log.w(TAG, "Failed to stream track ${entry.trackId} at $position, retrying", e)
+            closeStream()
+            try {
+                readFromNetwork(position, buffer, offset, wanted)
+            } catch (retryError: IOException) {
+                closeStream()
+                throw retryError
+            }
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        if (closed) return
+        closed = true
+        closeStream()
+        try {
+            file.close()
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to close cache file", e)
+        }
+        onClose()
+    }
+
+    private fun readFromNetwork(position: Long, buffer: ByteArray, offset: Int, wanted: Int): Int {
+        if (stream == null || streamPosition != position) openStream(position)
+        var read = stream!!.read(buffer, offset, wanted)
+        if (read == -1) {
+            // 流读到了区间末尾（后面是已缓存的区间或连接提前结束），从当前位置重新打开一次
+            openStream(position)
+            read = stream!!.read(buffer, offset, wanted)
+            if (read == -1) {
+                // 已知总长度时说明还没到文件末尾，按读取失败处理
+                if (entry.totalBytes >= 0L) throw IOException("Stream ended early at $position")
+                return -1
+            }
+        }
+        file.seek(position)
+        file.write(buffer, offset, read)
+        synchronized(CloudTrackCache.lock) { entry.ranges.add(position, position + read) }
+        streamPosition = position + read
+        return read
+    }
+
+    private fun openStream(position: Long) {
+        closeStream()
+        val total = entry.totalBytes
+        // 只请求到下一段已缓存数据之前，避免重复下载
+        val end = synchronized(CloudTrackCache.lock) { entry.ranges.nextCoveredStart(position) }
+            ?.minus(1)
+            ?: if (total > 0L) total - 1 else null
+        val range = if (end != null) "bytes=$position-$end" else "bytes=$position-"
+        val request = Request.Builder()
+            .url(entry.url)
+            .header("Range", range)
+            .header("Accept-Encoding", "identity")
+            .build()
+        val newResponse = CloudTrackCache.client.newCall(request).execute()
+        val body = newResponse.body
+        if (!newResponse.isSuccessful || body == null) {
+            newResponse.close()
+            throw IOException("HTTP ${newResponse.code} for ${entry.url}")
+        }
+        val input = body.byteStream()
+        if (newResponse.code != 206 && position > 0L) {
+            // 服务端不支持 Range，返回了完整文件：跳到需要的位置
+            var skipped = 0L
+            while (skipped < position) {
+                val n = input.skip(position - skipped)
+                if (n <= 0L) {
+                    newResponse.close()
+                    throw IOException("Unable to skip to $position")
+                }
+                skipped += n
+            }
+        }
+        response = newResponse
+        stream = input
+        streamPosition = position
+    }
+
+    private fun closeStream() {
+        response?.close()
+        response = null
+        stream = null
+        streamPosition = -1L
+    }
+
+    private fun ensureSize(): Long {
+        if (entry.totalBytes >= 0L) return entry.totalBytes
+        val total = try {
+            val request = Request.Builder()
+                .url(entry.url)
+                .head()
+                .header("Accept-Encoding", "identity")
+                .build()
+            CloudTrackCache.client.newCall(request).execute().use { response ->
+                if (response.isSuccessful) response.header("Content-Length")?.toLongOrNull() else null
+            }
+        } catch (e: IOException) {
+            null
+        } ?: return -1L
+        synchronized(CloudTrackCache.lock) {
+            if (entry.totalBytes < 0L) entry.totalBytes = total
+        }
+        return entry.totalBytes
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.sonicwavev4
+
+import android.content.Context
+import android.media.MediaDataSource
+import android.util.Log
+import com.example.sonicwavev4.network.NetworkCore
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import okhttp3.OkHttpClient
+import java.io.File
+import kotlin.coroutines.coroutineContext
+
+/**
+ * 云端音乐的边播边存缓存，按云端曲目 ID 存放在 `cacheDir/cloud_tracks`。
+ *
+ * - 播放时通过 [openDataSource] 得到 [MediaDataSource]，已缓存的部分直接读磁盘，
+ *   缺失的部分用 Range 请求补齐并写入缓存，重播和拖动进度不再重复下载；
+ * - 总大小超过 [MAX_CACHE_BYTES] 时按最近访问时间淘汰未在播放的曲目；
+ * - [prefetch] 预取下一首的开头部分；
+ * - 完整缓存的曲目在播放结束后转存到 filesDir，登记到 [DownloadedMusicRepository]。
+ */
+object CloudTrackCache {
+
+    private const val TAG = "CloudTrackCache"
+    private const val DIR_NAME = "cloud_tracks"
+    private const val INDEX_FILE = "index.json"
+    private const val MAX_CACHE_BYTES = 256L * 1024 * 1024
+
+    internal class Entry(
+        val trackId: Long,
+        val url: String,
+        var totalBytes: Long,
+        val ranges: ByteRangeSet,
+        var lastAccessAt: Long
+    ) {
+        var openCount = 0
+
+        val isComplete: Boolean get() = totalBytes > 0L && ranges.covers(0L, totalBytes)
+    }
+
+    private data class EntryState(
+        val trackId: Long,
+        val url: String,
+        val totalBytes: Long,
+        val ranges: List<List<Long>>,
+        val lastAccessAt: Long
+    )
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val gson = Gson()
+    private val listType = object : TypeToken<List<EntryState>>() {}.type
+
+    internal val lock = Any()
+    private val entries = HashMap<Long, Entry>()
+
+    internal val client: OkHttpClient by lazy { NetworkCore.newBuilder().build() }
+
+    @Volatile
+    private var dir: File? = null
+    private lateinit var appContext: Context
+
+    fun initialize(context: Context) {
+        if (dir != null) return
+        appContext = context.applicationContext
+        val target = File(appContext.cacheDir, DIR_NAME).apply { mkdirs() }
+        synchronized(lock) {
+            loadIndex(target).forEach { state ->
+                entries[state.trackId] = Entry(
+                    state.trackId,
+                    state.url,
+                    state.totalBytes,
+                    ByteRangeSet(state.ranges),
+                    state.lastAccessAt
+                )
+            }
+            // 没有索引记录的数据文件无法判断哪些字节有效，直接清掉
+            target.listFiles()?.forEach { file ->
+                val id = file.name.removeSuffix(".data").toLongOrNull()
+                if (file.name.endsWith(".data") && (id == null || id !in entries)) file.delete()
+            }
+        }
+        dir = target
+    }
+
+    /**
+     * 为云端曲目返回带缓存的数据源；不是云端曲目或缓存未初始化时返回 null，调用方按原方式播放。
+     */
+    fun openDataSource(track: MusicItem): MediaDataSource? {
+        val trackId = track.cloudTrackId?.takeIf { it > 0L } ?: return null
+        val scheme = track.uri.scheme.orEmpty().lowercase()
+        if (scheme != "http" && scheme != "https") return null
+        val cacheDir = dir ?: return null
+        val url = track.uri.toString()
+
+        val entry = synchronized(lock) {
+            val existing = entries[trackId]
+            val entry = if (existing != null && existing.url == url) {
+                existing
+            } else {
+                // 地址变了说明文件可能已更新，旧缓存作废；旧缓存仍在播放时这次不走缓存
+                if (existing != null && existing.openCount > 0) return null
+                dataFile(cacheDir, trackId).delete()
+                Entry(trackId, url, -1L, ByteRangeSet(), 0L).also { entries[trackId] = it }
+            }
+            entry.openCount++
+            entry.lastAccessAt = System.currentTimeMillis()
+            entry
+        }
+        return try {
+            CachingMediaDataSource(entry, dataFile(cacheDir, trackId)) { onClosed(entry, track) }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to open cache for track $trackId", e)
+            synchronized(lock) { entry.openCount-- }
+            null
+        }
+    }
+
+    /**
+     * 预先把曲目开头的 [maxBytes] 字节读进缓存，切歌时不必等网络；本地曲目直接返回。
+     */
+    suspend fun prefetch(track: MusicItem, maxBytes: Long) {
+        val source = openDataSource(track) ?: return
+        try {
+            val size = source.size
+            val limit = if (size > 0L) minOf(size, maxBytes) else maxBytes
+            val buffer = ByteArray(64 * 1024)
+            var position = 0L
+            while (position < limit) {
+                coroutineContext.ensureActive()
+                val read = source.readAt(position, buffer, 0, minOf(buffer.size.toLong(), limit - position).toInt())
+                if (read <= 0) break
+                position += read
+            }
+        } finally {
+            source.close()
+        }
+    }
+
+    private fun onClosed(entry: Entry, track: MusicItem) {
+        val promote = synchronized(lock) {
+            entry.openCount--
+            entry.lastAccessAt = System.currentTimeMillis()
+            entry.openCount == 0 && entry.isComplete
+        }
+        scope.launch {
+            if (promote) promote(entry, track)
+            evictIfNeeded()
+            persistIndex()
+        }
+    }
+
+    private fun promote(entry: Entry, track: MusicItem) {
+        val cacheDir = dir ?: return
+        val repository = DownloadedMusicRepository(appContext)
+        val source = dataFile(cacheDir, entry.trackId)
+        if (repository.findByCloudTrackId(entry.trackId) == null) {
+            val fileName = track.uri.lastPathSegment ?: "cloud_${entry.trackId}.mp3"
+            val target = File(appContext.filesDir, fileName)
+            val tmp = File(appContext.filesDir, "$fileName.promote")
+            try {
+                source.copyTo(tmp, overwrite = true)
+                if (tmp.length() != entry.totalBytes || !tmp.renameTo(target)) {
+                    tmp.delete()
+                    return
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to promote track ${entry.trackId}", e)
+                tmp.delete()
+                return
+            }
+            repository.addDownloadedMusic(
+                DownloadedMusicItem(
+                    fileName = target.name,
+                    title = track.title.ifBlank { target.nameWithoutExtension },
+                    artist = track.artist.ifBlank { "Downloaded" },
+                    internalPath = target.absolutePath,
+                    cloudTrackId = entry.trackId
+                )
+            )
+            MusicDownloadEventBus.emit(MusicDownloadEvent.Success(entry.url))
+        }
+        synchronized(lock) {
+            if (entry.openCount == 0 && entries[entry.trackId] === entry) {
+                entries.remove(entry.trackId)
+                source.delete()
+            }
+        }
+    }
+
+    private fun evictIfNeeded() {
+        val cacheDir = dir ?: return
+        synchronized(lock) {
+            var total = entries.values.sumOf { it.ranges.coveredBytes }
+            if (total <= MAX_CACHE_BYTES) return
+            val candidates = entries.values.filter { it.openCount == 0 }.sortedBy { it.lastAccessAt }
+            for (entry in candidates) {
+                if (total <= MAX_CACHE_BYTES) break
+                total -= entry.ranges.coveredBytes
+                entries.remove(entry.trackId)
+                dataFile(cacheDir, entry.trackId).delete()
+            }
+        }
+    }
+
+    private fun persistIndex() {
+        val cacheDir = dir ?: return
+        val states = synchronized(lock) {
+            entries.values.map { EntryState(it.trackId, it.url, it.totalBytes, it.ranges.toList(), it.lastAccessAt) }
+        }
+        synchronized(this) {
+            try {
+                val tmp = File(cacheDir, "$INDEX_FILE.tmp")
+                tmp.writeText(gson.toJson(states))
+                if (!tmp.renameTo(File(cacheDir, INDEX_FILE))) tmp.delete()
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to persist cache index", e)
+            }
+        }
+    }
+
+    private fun loadIndex(cacheDir: File): List<EntryState> {
+        val file = File(cacheDir, INDEX_FILE)
+        if (!file.exists()) return emptyList()
+        return try {
+            gson.fromJson<List<EntryState>>(file.readText(), listType).orEmpty()
+                .filter { dataFile(cacheDir, it.trackId).exists() }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to read cache index, discarding", e)
+            emptyList()
+        }
+    }
+
+    private fun dataFile(cacheDir: File, trackId: Long): File = File(cacheDir, "$trackId.data")
+}
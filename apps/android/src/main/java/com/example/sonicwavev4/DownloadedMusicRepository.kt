@@ -1,72 +1,153 @@
 package com.example.sonicwavev4
 
 import android.content.Context
+import android.util.Log
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
 import java.io.File
+import java.io.FileOutputStream
 import java.io.FileReader
-import java.io.FileWriter
+import java.util.concurrent.Executors
 
+/**
+ * 已下载音乐的登记表。
+ *
+ * 进程内只在第一次访问时读取 `downloaded_music.json`，之后所有查询都走内存中按
+ * 文件路径和云端曲目 ID 建立的索引；修改先更新内存，再由后台线程合并写回磁盘
+ * （写临时文件、fsync 后重命名，崩溃时不会留下写了一半的文件）。
+ */
 class DownloadedMusicRepository(private val context: Context) {
 
-    private val gson = Gson()
-    private val downloadedMusicFile = File(context.filesDir, "downloaded_music.json")
-    private val type = object : TypeToken<MutableList<DownloadedMusicItem>>() {}.type
+    private companion object Store {
+        private const val TAG = "DownloadedMusicRepo"
+        private const val FILE_NAME = "downloaded_music.json"
 
-    fun loadDownloadedMusic(): MutableList<DownloadedMusicItem> {
-        if (!downloadedMusicFile.exists()) {
-            return mutableListOf()
-        }
-        return try {
-            FileReader(downloadedMusicFile).use { reader ->
-                gson.fromJson(reader, type)
-            } ?: mutableListOf()
-        } catch (e: Exception) {
-            e.printStackTrace()
-            mutableListOf() // Return empty list on error
+        private val gson = Gson()
+        private val type = object : TypeToken<MutableList<DownloadedMusicItem?>>() {}.type
+
+        private val lock = Any()
+        private var loaded = false
+        // 保持插入顺序，列表展示顺序与之前一致
+        private val byPath = LinkedHashMap<String, DownloadedMusicItem>()
+        private val byCloudTrackId = HashMap<Long, DownloadedMusicItem>()
+        private var version = 0L
+        private var writtenVersion = 0L
+
+        // 单线程：写入按顺序执行，排队中的多次修改只落盘最新的一次
+        private val writer = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "downloaded-music-writer").apply { isDaemon = true }
         }
     }
 
+    private val downloadedMusicFile = File(context.filesDir, FILE_NAME)
+
+    fun loadDownloadedMusic(): MutableList<DownloadedMusicItem> = synchronized(lock) {
+        ensureLoaded()
+        byPath.values.toMutableList()
+    }
+
     fun saveDownloadedMusic(musicList: List<DownloadedMusicItem>) {
-        try {
-            FileWriter(downloadedMusicFile).use { writer ->
-                gson.toJson(musicList, writer)
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
+        synchronized(lock) {
+            ensureLoaded()
+            byPath.clear()
+            byCloudTrackId.clear()
+            musicList.forEach { index(it) }
+            version++
         }
+        scheduleWrite()
     }
 
     fun addDownloadedMusic(item: DownloadedMusicItem) {
-        val currentList = loadDownloadedMusic()
-        // Check if item already exists to prevent duplicates
-        if (currentList.none { it.internalPath == item.internalPath }) {
-            currentList.add(item)
-            saveDownloadedMusic(currentList)
+        val added = synchronized(lock) {
+            ensureLoaded()
+            // Check if item already exists to prevent duplicates
+            if (byPath.containsKey(item.internalPath)) {
+                false
+            } else {
+                index(item)
+                version++
+                true
+            }
         }
+        if (added) scheduleWrite()
     }
 
     fun removeDownloadedMusicByPath(path: String) {
-        val currentList = loadDownloadedMusic()
-        val newList = currentList.filterNot { it.internalPath == path }
-        if (newList.size != currentList.size) {
-            saveDownloadedMusic(newList)
+        val removed = synchronized(lock) {
+            ensureLoaded()
+            val item = byPath.remove(path) ?: return@synchronized false
+            val trackId = item.cloudTrackId
+            if (trackId != null && byCloudTrackId[trackId] === item) {
+                byCloudTrackId.remove(trackId)
+                // 极少数情况下同一云端曲目登记了多个文件，保留剩下的那个
+                byPath.values.lastOrNull { it.cloudTrackId == trackId }?.let { byCloudTrackId[trackId] = it }
+            }
+            version++
+            true
         }
+        if (removed) scheduleWrite()
     }
 
     fun findByCloudTrackId(trackId: Long): DownloadedMusicItem? {
         if (trackId <= 0L) return null
-        return loadDownloadedMusic().firstOrNull { it.cloudTrackId == trackId }
+        return synchronized(lock) {
+            ensureLoaded()
+            byCloudTrackId[trackId]
+        }
     }
 
     fun findByCloudTrackIds(trackIds: Collection<Long>): Map<Long, DownloadedMusicItem> {
         if (trackIds.isEmpty()) return emptyMap()
-        val set = trackIds.toSet()
-        return loadDownloadedMusic()
-            .mapNotNull { item ->
-                val id = item.cloudTrackId
-                if (id != null && id in set) id to item else null
+        return synchronized(lock) {
+            ensureLoaded()
+            val result = HashMap<Long, DownloadedMusicItem>()
+            trackIds.forEach { id -> byCloudTrackId[id]?.let { result[id] = it } }
+            result
+        }
+    }
+
+    // 调用时已持有 lock
+    private fun index(item: DownloadedMusicItem) {
+        byPath[item.internalPath] = item
+        item.cloudTrackId?.let { byCloudTrackId[it] = item }
+    }
+
+    // 调用时已持有 lock
+    private fun ensureLoaded() {
+        if (loaded) return
+        loaded = true
+        if (!downloadedMusicFile.exists()) return
+        try {
+            val items: List<DownloadedMusicItem?> = FileReader(downloadedMusicFile).use { reader ->
+                gson.fromJson(reader, type)
+            } ?: emptyList()
+            items.filterNotNull().forEach { index(it) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to read $FILE_NAME", e)
+        }
+    }
+
+    private fun scheduleWrite() {
+        val target = downloadedMusicFile
+        writer.execute {
+            val (items, snapshotVersion) = synchronized(lock) {
+                if (version == writtenVersion) return@execute
+                byPath.values.toList() to version
+            }
+            try {
+                val tmp = File(target.parentFile, "${target.name}.tmp")
+                FileOutputStream(tmp).use { output ->
+                    output.write(gson.toJson(items).toByteArray(Charsets.UTF_8))
+                    output.fd.sync()
+                }
+                if (!tmp.renameTo(target)) {
+                    Log.e(TAG, "Failed to replace $FILE_NAME")
+                    return@execute
+                }
+                synchronized(lock) { writtenVersion = snapshotVersion }
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to write $FILE_NAME", e)
             }
-            .toMap()
+        }
     }
 }
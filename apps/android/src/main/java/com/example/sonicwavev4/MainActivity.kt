@@ -9,10 +9,8 @@ import android.graphics.Rect
 import android.content.pm.PackageManager
 import android.content.res.ColorStateList
 import android.content.res.Resources
-import android.net.Uri
 import android.os.Build
 import android.os.Bundle
-import android.provider.MediaStore
 import android.util.Log
 import android.util.TypedValue
 import android.view.LayoutInflater
@@ -39,7 +37,6 @@ import androidx.appcompat.app.AppCompatActivity
 import androidx.appcompat.widget.PopupMenu
 import androidx.constraintlayout.widget.ConstraintLayout
 import androidx.core.content.ContextCompat
-import androidx.core.net.toUri
 import androidx.core.splashscreen.SplashScreen.Companion.installSplashScreen
 import androidx.core.view.forEach
 import androidx.core.widget.ImageViewCompat
@@ -63,6 +60,7 @@ import com.example.sonicwavev4.network.AppUsageRequest
 import com.example.sonicwavev4.network.RetrofitClient
 import com.example.sonicwavev4.ui.customer.CustomerViewModel
 import com.example.sonicwavev4.ui.notifications.NotificationDialogFragment
+import com.example.sonicwavev4.repository.MediaLibraryIndex
 import com.example.sonicwavev4.ui.music.MusicDialogFragment
 import com.example.sonicwavev4.ui.music.MusicPlayerViewModel
 import com.example.sonicwavev4.utils.DeviceIdentityProvider
@@ -108,7 +106,6 @@ class MainActivity : AppCompatActivity(), MusicDownloadDialogFragment.DownloadLi
     private var playbackTimeText: TextView? = null
     private var playbackTitleText: TextView? = null
     private lateinit var musicAdapter: MusicAdapter // 【修改点 1】Adapter类型将在后面定义为ListAdapter
-    private lateinit var musicDownloader: MusicDownloader
     private lateinit var downloadedMusicRepository: DownloadedMusicRepository
     private var vinylAnimator: ObjectAnimator? = null
     private var tonearmAnimator: ObjectAnimator? = null
@@ -216,10 +213,10 @@ class MainActivity : AppCompatActivity(), MusicDownloadDialogFragment.DownloadLi
         isMusicUiEnabled = musicArea != null
         if (isMusicUiEnabled) {
             musicAreaLayout = musicArea as? ConstraintLayout
-            musicDownloader = MusicDownloader(this)
             downloadedMusicRepository = DownloadedMusicRepository(this)
             setupMusicArea()
             observeMusicPlayer()
+            observeMusicDownloads()
             checkAndRequestPermissions()
         }
 
@@ -313,73 +310,46 @@ class MainActivity : AppCompatActivity(), MusicDownloadDialogFragment.DownloadLi
         imm?.hideSoftInputFromWindow(target.windowToken, 0)
     }
 
-    // 【修改点 2】修复了下载功能的线程问题，防止UI卡死
+    // 下载交给 MusicDownloadQueue 在后台排队执行，结果通过 MusicDownloadEventBus 回到界面
     override fun onDownloadSelected(files: List<DownloadableFile>) {
+        if (files.isEmpty()) return
+        MusicDownloadQueue.enqueue(files)
+        val message = if (MusicDownloadQueue.isPaused()) {
+            "已加入下载队列 ${files.size} 首，疗程结束后开始下载。"
+        } else {
+            "已加入下载队列 ${files.size} 首。"
+        }
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show()
+    }
+
+    private fun observeMusicDownloads() {
         lifecycleScope.launch {
-            Toast.makeText(this@MainActivity, "开始下载 ${files.size} 个文件...", Toast.LENGTH_SHORT).show()
-            val accessToken = sessionManager.fetchAccessToken()
-
-            var lastDownloadError: MusicDownloadError? = null
-            val failedDownloads = withContext(Dispatchers.IO) {
-                files.mapNotNull { file ->
-                    val downloadedFile = musicDownloader.downloadMusic(
-                        file.downloadUrl,
-                        file.fileName,
-                        accessToken
-                    )
-                    if (downloadedFile != null) {
-                        val downloadedItem = DownloadedMusicItem(
-                            fileName = downloadedFile.name,
-                            title = file.title.ifBlank { downloadedFile.nameWithoutExtension },
-                            artist = file.artist.ifBlank { "Downloaded" },
-                            internalPath = downloadedFile.absolutePath,
-                            cloudTrackId = file.id
-                        )
-                        downloadedMusicRepository.addDownloadedMusic(downloadedItem)
-                        MusicDownloadEventBus.emit(MusicDownloadEvent.Success(file.downloadUrl))
-                        null
-                    } else {
-                        lastDownloadError = musicDownloader.lastError
-                        file.fileName
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                MusicDownloadEventBus.events.collect { event ->
+                    when (event) {
+                        is MusicDownloadEvent.Success -> loadMusic() // 下载完成后刷新列表
+                        is MusicDownloadEvent.Failed -> showDownloadFailure(event)
+                        is MusicDownloadEvent.Progress -> Unit
                     }
                 }
             }
+        }
+    }
 
-            if (failedDownloads.isEmpty()) {
-                Toast.makeText(
-                    this@MainActivity,
-                    "音乐下载完成，共 ${files.size} 首。",
-                    Toast.LENGTH_SHORT
-                ).show()
-            } else {
-                val baseMessage = when (val error = lastDownloadError) {
-                    is MusicDownloadError.Http -> {
-                        if (error.code == 401 || error.code == 403) {
-                            "下载失败：登录已过期或权限不足，请重新登录后重试。"
-                        } else {
-                            "下载失败：服务器返回错误（HTTP ${error.code}）。"
-                        }
-                    }
-                    is MusicDownloadError.Network -> "下载失败：网络异常，请检查网络连接。"
-                    is MusicDownloadError.Io -> "下载失败：存储或服务器错误，请稍后再试。"
-                    else -> "部分音乐下载失败。"
-                }
-
-                val failedNames = failedDownloads.joinToString(separator = ", ")
-                val message = if (files.size > failedDownloads.size) {
-                    "$baseMessage 已成功下载 ${files.size - failedDownloads.size} 首；失败：$failedNames"
+    private fun showDownloadFailure(event: MusicDownloadEvent.Failed) {
+        val baseMessage = when (val error = event.error) {
+            is MusicDownloadError.Http -> {
+                if (error.code == 401 || error.code == 403) {
+                    "下载失败：登录已过期或权限不足，请重新登录后重试。"
                 } else {
-                    "$baseMessage 失败曲目：$failedNames"
+                    "下载失败：服务器返回错误（HTTP ${error.code}）。"
                 }
-
-                Toast.makeText(
-                    this@MainActivity,
-                    message,
-                    Toast.LENGTH_LONG
-                ).show()
             }
-            loadMusic() // 下载完成后，在主线程刷新列表
+            is MusicDownloadError.Network -> "下载失败：网络异常，请检查网络连接。"
+            is MusicDownloadError.Io -> "下载失败：存储或服务器错误，请稍后再试。"
+            else -> "音乐下载失败。"
         }
+        Toast.makeText(this, "$baseMessage 失败曲目：${event.fileName}", Toast.LENGTH_LONG).show()
     }
 
     private fun observeForceExitCountdown() {
@@ -584,49 +554,8 @@ class MainActivity : AppCompatActivity(), MusicDownloadDialogFragment.DownloadLi
         // 使用协程在后台线程加载音乐，在主线程更新UI
         lifecycleScope.launch(Dispatchers.IO) {
             SampleMusicSeeder.seedIfNeeded(applicationContext, downloadedMusicRepository)
-            val musicList = mutableListOf<MusicItem>()
-            val collection = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                MediaStore.Audio.Media.getContentUri(MediaStore.VOLUME_EXTERNAL)
-            } else {
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
-            }
-
-            val projection = arrayOf(
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.TITLE,
-                MediaStore.Audio.Media.ARTIST,
-                MediaStore.Audio.Media.DATA
-            )
-
-            val sortOrder = "${MediaStore.Audio.Media.TITLE} ASC"
-
-            contentResolver.query(
-                collection,
-                projection,
-                null,
-                null,
-                sortOrder
-            )?.use { cursor ->
-                val idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
-                val titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE)
-                val artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST)
-                val dataColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA)
-
-                while (cursor.moveToNext()) {
-                    val id = cursor.getLong(idColumn)
-                    val title = cursor.getString(titleColumn)
-                    val artist = cursor.getString(artistColumn)
-                    val contentUri: Uri = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                        Uri.withAppendedPath(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id.toString())
-                    } else {
-                        cursor.getString(dataColumn).toUri()
-                    }
-
-                    if (title != null && artist != null && !title.startsWith(".")) {
-                        musicList.add(MusicItem(title, artist, contentUri))
-                    }
-                }
-            }
+            // 本地曲目来自增量同步的媒体库索引，媒体库没有变化时不会重新扫描
+            val musicList = MediaLibraryIndex.sync().toMutableList()
 
             // 加载已下载的音乐并剔除失效文件
             val downloadedMusic = downloadedMusicRepository.loadDownloadedMusic()
@@ -8,9 +8,13 @@ import androidx.work.NetworkType
 import androidx.work.PeriodicWorkRequestBuilder
 import androidx.work.WorkManager
 import cn.wch.ch341lib.CH341Manager
+import com.example.sonicwavev4.data.home.OperationEventQueue
+import com.example.sonicwavev4.data.home.SessionRunOutbox
 import com.example.sonicwavev4.logging.LogUploadWorker
-import com.example.sonicwavev4.network.OfflineControlWebSocket
+import com.example.sonicwavev4.network.RealtimeChannel
 import com.example.sonicwavev4.network.RetrofitClient
+import com.example.sonicwavev4.musiclibrary.MusicLibrarySearch
+import com.example.sonicwavev4.repository.MediaLibraryIndex
 import com.example.sonicwavev4.core.currentAppMode
 import com.example.sonicwavev4.utils.DeviceIdentityProvider
 import com.example.sonicwavev4.utils.HeartbeatOrchestrator
@@ -19,6 +23,7 @@ import com.example.sonicwavev4.utils.OfflineCapabilityManager
 import com.example.sonicwavev4.utils.OfflineModeRemoteSync
 import com.example.sonicwavev4.utils.OfflineTestModeManager
 import com.example.sonicwavev4.utils.SessionManager
+import com.example.sonicwavev4.utils.SessionStore
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
@@ -32,30 +37,39 @@ class MainApplication : Application() {
 
     override fun onCreate() {
         super.onCreate()
+        // 尽早在后台加载加密会话存储，与下面的初始化并行
+        SessionStore.initialize(this)
         CH341Manager.getInstance().init(this)
         RetrofitClient.initialize(this)
         DeviceIdentityProvider.initialize(this)
-        val sessionManager = SessionManager(this)
-        sessionManager.fetchAccessToken()?.let { token ->
-            if (!token.isNullOrBlank()) {
-                RetrofitClient.updateToken(token)
-            }
-        }
-        val isOffline = sessionManager.isOfflineTestMode()
-        OfflineCapabilityManager.initialize(sessionManager.isOfflineModeAllowed())
-        OfflineTestModeManager.initialize(isOffline)
-        Log.d("MainApplication", "currentAppMode=${currentAppMode()}")
+        SessionRunOutbox.getInstance(this)
+        OperationEventQueue.initialize(this)
+        MusicDownloadQueue.initialize(this)
+        CloudTrackCache.initialize(this)
+        MediaLibraryIndex.initialize(this)
+        MusicLibrarySearch.initialize(this)
         HeartbeatOrchestrator.initialize(this)
         ProcessLifecycleOwner.get().lifecycle.addObserver(
             HeartbeatLifecycleObserver(this)
         )
-        if (isOffline) {
-            WorkManager.getInstance(this).cancelUniqueWork("logUploadWork")
-        } else {
-            scheduleLogUpload()
-        }
-        OfflineControlWebSocket.initialize(this)
+        RealtimeChannel.initialize(this)
+        // 读取会话要等加密存储加载完，放到后台，主线程不在这里等待 keystore
         applicationScope.launch {
+            val sessionManager = SessionManager(this@MainApplication)
+            sessionManager.fetchAccessToken()?.let { token ->
+                if (!token.isNullOrBlank()) {
+                    RetrofitClient.updateToken(token)
+                }
+            }
+            val isOffline = sessionManager.isOfflineTestMode()
+            OfflineCapabilityManager.initialize(sessionManager.isOfflineModeAllowed())
+            OfflineTestModeManager.initialize(isOffline)
+            Log.d("MainApplication", "currentAppMode=${currentAppMode()}")
+            if (isOffline) {
+                WorkManager.getInstance(this@MainApplication).cancelUniqueWork("logUploadWork")
+            } else {
+                scheduleLogUpload()
+            }
             OfflineModeRemoteSync.sync(sessionManager, force = true)
         }
     }
@@ -12,6 +12,7 @@ import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.example.sonicwavev4.network.EndpointProvider
+import com.example.sonicwavev4.network.NetworkCore
 import com.example.sonicwavev4.utils.SessionManager
 import com.google.gson.Gson
 import com.google.gson.annotations.SerializedName
@@ -27,7 +28,7 @@ class MusicDownloadDialogFragment : DialogFragment() {
     private lateinit var recyclerView: RecyclerView
     private lateinit var downloadButton: Button
     private lateinit var downloadableMusicAdapter: DownloadableMusicAdapter
-    private val client = OkHttpClient()
+    private val client: OkHttpClient = NetworkCore.newBuilder().build()
     private val gson = Gson()
     private var sessionManager: SessionManager? = null
     private lateinit var appContext: Context
@@ -5,6 +5,10 @@ import kotlinx.coroutines.flow.asSharedFlow
 
 sealed class MusicDownloadEvent {
     data class Success(val downloadUrl: String) : MusicDownloadEvent()
+    // totalBytes 为 -1 表示长度未知
+    data class Progress(val downloadUrl: String, val bytesDownloaded: Long, val totalBytes: Long) : MusicDownloadEvent()
+    // 不再重试的失败（重试中的失败不发布）
+    data class Failed(val downloadUrl: String, val fileName: String, val error: MusicDownloadError?) : MusicDownloadEvent()
 }
 
 object MusicDownloadEventBus {
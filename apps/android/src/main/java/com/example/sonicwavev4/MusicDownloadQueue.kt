@@ -0,0 +1,238 @@
+package com.example.sonicwavev4
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import com.example.sonicwavev4.core.vibration.VibrationRunObserver
+import com.example.sonicwavev4.network.BandwidthLimiter
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+data class QueuedMusicDownload(
+    val downloadUrl: String,
+    val fileName: String,
+    val title: String,
+    val artist: String,
+    val cloudTrackId: Long?,
+    val priority: Int,
+    val enqueuedAt: Long,
+    val attempts: Int = 0
+)
+
+/**
+ * 持久化的音乐下载队列，由 [MusicDownloadWorker] 在后台消费。
+ *
+ * - 按优先级、入队时间排序，同时最多下载 [MAX_CONCURRENT] 个文件，总带宽受 [bandwidthLimiter] 限制；
+ * - 振动疗程进行期间暂停：正在进行的下载被取消（保留断点），疗程全部结束后自动继续；
+ * - 队列保存在磁盘，进程重启后继续下载。
+ */
+object MusicDownloadQueue : VibrationRunObserver {
+
+    const val PRIORITY_LOW = 0
+    const val PRIORITY_NORMAL = 1
+    const val PRIORITY_HIGH = 2
+
+    const val MAX_CONCURRENT = 2
+    const val MAX_ATTEMPTS = 5
+
+    private const val TAG = "MusicDownloadQueue"
+    private const val FILE_NAME = "music_download_queue.json"
+    private const val WORK_NAME = "musicDownloadQueue"
+    private const val MAX_BYTES_PER_SECOND = 1024L * 1024
+    // 疗程停止回调丢失时的兜底：暂停超过这个时长后恢复下载
+    private const val MAX_PAUSE_MS = 2 * 60 * 60_000L
+
+    val bandwidthLimiter = BandwidthLimiter(MAX_BYTES_PER_SECOND)
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val gson = Gson()
+    private val listType = object : TypeToken<List<QueuedMusicDownload>>() {}.type
+
+    private val lock = Any()
+    private val pending = ArrayList<QueuedMusicDownload>()
+    private val claimed = HashSet<String>()
+    private val activeRuns = HashSet<Long>()
+    private var pausedAt = 0L
+
+    private val persistMutex = Mutex()
+
+    @Volatile
+    private var file: File? = null
+    private lateinit var appContext: Context
+
+    fun initialize(context: Context) {
+        if (file != null) return
+        appContext = context.applicationContext
+        val target = File(appContext.filesDir, FILE_NAME)
+        file = target
+        scope.launch {
+            val restored = load(target)
+            if (restored.isNotEmpty()) {
+                synchronized(lock) {
+                    restored.forEach { entry -> if (pending.none { it.downloadUrl == entry.downloadUrl }) pending.add(entry) }
+                }
+                persist()
+                schedule()
+            }
+        }
+    }
+
+    /**
+     * 加入队列；已在队列中的文件只会提升优先级，不会重复下载。
+     */
+    fun enqueue(files: List<DownloadableFile>, priority: Int = PRIORITY_NORMAL) {
+        if (files.isEmpty()) return
+        val now = System.currentTimeMillis()
+        synchronized(lock) {
+            files.forEach { file ->
+                val index = pending.indexOfFirst { it.downloadUrl == file.downloadUrl }
+                if (index >= 0) {
+                    if (pending[index].priority < priority) pending[index] = pending[index].copy(priority = priority)
+                } else {
+                    pending.add(
+                        QueuedMusicDownload(
+                            downloadUrl = file.downloadUrl,
+                            fileName = file.fileName,
+                            title = file.title,
+                            artist = file.artist,
+                            cloudTrackId = file.id,
+                            priority = priority,
+                            enqueuedAt = now
+                        )
+                    )
+                }
+            }
+        }
+        persist()
+        schedule()
+    }
+
+    fun pendingCount(): Int = synchronized(lock) { pending.size }
+
+    fun isPaused(): Boolean = synchronized(lock) {
+        activeRuns.isNotEmpty() && SystemClock.elapsedRealtime() - pausedAt < MAX_PAUSE_MS
+    }
+
+    override fun onVibrationSessionStarted(runId: Long) {
+        val wasIdle = synchronized(lock) {
+            val idle = activeRuns.isEmpty()
+            activeRuns.add(runId)
+            if (idle) pausedAt = SystemClock.elapsedRealtime()
+            idle
+        }
+        if (wasIdle && file != null) {
+            // 取消后 MusicDownloader 保留 .part 文件，恢复时从断点继续
+            WorkManager.getInstance(appContext).cancelUniqueWork(WORK_NAME)
+        }
+    }
+
+    override fun onVibrationSessionStopped(runId: Long) {
+        val resumed = synchronized(lock) { activeRuns.remove(runId) && activeRuns.isEmpty() }
+        if (resumed) schedule()
+    }
+
+    /**
+     * 取出下一个待下载的文件（优先级高、入队早的优先），暂停或队列为空时返回 null。
+     */
+    internal fun claimNext(): QueuedMusicDownload? {
+        if (isPaused()) return null
+        synchronized(lock) {
+            val next = pending
+                .filter { it.downloadUrl !in claimed }
+                .minWithOrNull(compareByDescending<QueuedMusicDownload> { it.priority }.thenBy { it.enqueuedAt })
+                ?: return null
+            claimed.add(next.downloadUrl)
+            return next
+        }
+    }
+
+    internal fun complete(entry: QueuedMusicDownload) {
+        synchronized(lock) {
+            claimed.remove(entry.downloadUrl)
+            pending.removeAll { it.downloadUrl == entry.downloadUrl }
+        }
+        persist()
+    }
+
+    /**
+     * 记一次失败；返回 false 表示已达到重试上限并已移出队列。
+     */
+    internal fun release(entry: QueuedMusicDownload, failed: Boolean): Boolean {
+        val keep = synchronized(lock) {
+            claimed.remove(entry.downloadUrl)
+            val index = pending.indexOfFirst { it.downloadUrl == entry.downloadUrl }
+            when {
+                index < 0 -> false
+                !failed -> true
+                pending[index].attempts + 1 >= MAX_ATTEMPTS -> {
+                    pending.removeAt(index)
+                    false
+                }
+                else -> {
+                    pending[index] = pending[index].copy(attempts = pending[index].attempts + 1)
+                    true
+                }
+            }
+        }
+        persist()
+        return keep
+    }
+
+    private fun schedule() {
+        if (file == null || isPaused() || pendingCount() == 0) return
+        val request = OneTimeWorkRequestBuilder<MusicDownloadWorker>()
+            .setConstraints(
+                Constraints.Builder()
+                    .setRequiredNetworkType(NetworkType.CONNECTED)
+                    .build()
+            )
+            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 30, TimeUnit.SECONDS)
+            .build()
+        // 正在运行的 worker 结束后再跑一轮，保证运行期间新入队的文件不会被漏掉
+        WorkManager.getInstance(appContext)
+            .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+    }
+
+    private fun persist() {
+        val target = file ?: return
+        scope.launch {
+            persistMutex.withLock {
+                // 在锁内取快照，保证最后写入磁盘的总是最新状态
+                val snapshot = synchronized(lock) { ArrayList(pending) }
+                try {
+                    val tmp = File(target.parentFile, "${target.name}.tmp")
+                    tmp.writeText(gson.toJson(snapshot))
+                    if (!tmp.renameTo(target)) {
+                        target.writeText(gson.toJson(snapshot))
+                    }
+                } catch (e: Exception) {
+                    Log.w(TAG, "Failed to persist download queue", e)
+                }
+            }
+        }
+    }
+
+    private suspend fun load(target: File): List<QueuedMusicDownload> = persistMutex.withLock {
+        if (!target.exists()) return@withLock emptyList()
+        try {
+            gson.fromJson<List<QueuedMusicDownload>>(target.readText(), listType).orEmpty()
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to read download queue, discarding", e)
+            emptyList()
+        }
+    }
+}
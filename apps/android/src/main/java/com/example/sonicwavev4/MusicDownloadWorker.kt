@@ -0,0 +1,84 @@
+package com.example.sonicwavev4
+
+import android.content.Context
+import android.util.Log
+import androidx.work.CoroutineWorker
+import androidx.work.WorkerParameters
+import com.example.sonicwavev4.utils.SessionManager
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 消费 [MusicDownloadQueue]：[MusicDownloadQueue.MAX_CONCURRENT] 条通道并行取任务，
+ * 共享同一个限速器。暂停（振动疗程开始）时 WorkManager 会取消本 worker。
+ */
+class MusicDownloadWorker(appContext: Context, workerParams: WorkerParameters) : CoroutineWorker(appContext, workerParams) {
+
+    companion object {
+        private const val TAG = "MusicDownloadWorker"
+    }
+
+    override suspend fun doWork(): Result {
+        val sessionManager = SessionManager(applicationContext)
+        if (sessionManager.isOfflineTestMode()) {
+            return Result.success()
+        }
+        MusicDownloadQueue.initialize(applicationContext)
+        val repository = DownloadedMusicRepository(applicationContext)
+        val needsRetry = AtomicBoolean(false)
+
+        coroutineScope {
+            repeat(MusicDownloadQueue.MAX_CONCURRENT) {
+                launch {
+                    // lastError 属于单个下载器，每条通道各用一个
+                    val downloader = MusicDownloader(applicationContext, MusicDownloadQueue.bandwidthLimiter)
+                    while (true) {
+                        val entry = MusicDownloadQueue.claimNext() ?: break
+                        val file = try {
+                            downloader.downloadMusic(entry.downloadUrl, entry.fileName, sessionManager.fetchAccessToken())
+                        } catch (e: CancellationException) {
+                            MusicDownloadQueue.release(entry, failed = false)
+                            throw e
+                        }
+
+                        if (file != null) {
+                            val item = DownloadedMusicItem(
+                                fileName = file.name,
+                                title = entry.title.ifBlank { file.nameWithoutExtension },
+                                artist = entry.artist.ifBlank { "Downloaded" },
+                                internalPath = file.absolutePath,
+                                cloudTrackId = entry.cloudTrackId
+                            )
+                            repository.addDownloadedMusic(item)
+                            MusicDownloadQueue.complete(entry)
+                            MusicDownloadEventBus.emit(MusicDownloadEvent.Success(entry.downloadUrl))
+                            continue
+                        }
+
+                        val error = downloader.lastError
+                        if (isPermanent(error)) {
+                            MusicDownloadQueue.complete(entry)
+                            MusicDownloadEventBus.emit(MusicDownloadEvent.Failed(entry.downloadUrl, entry.fileName, error))
+                        } else if (!MusicDownloadQueue.release(entry, failed = true)) {
+                            Log.w(TAG, "Giving up on ${entry.fileName} after ${MusicDownloadQueue.MAX_ATTEMPTS} attempts")
+                            MusicDownloadEventBus.emit(MusicDownloadEvent.Failed(entry.downloadUrl, entry.fileName, error))
+                        } else {
+                            // 暂时性错误：这条通道退出，由 WorkManager 退避后重试
+                            needsRetry.set(true)
+                            break
+                        }
+                    }
+                }
+            }
+        }
+
+        return if (needsRetry.get()) Result.retry() else Result.success()
+    }
+
+    // 401 交给令牌刷新后重试；408/429 属于暂时性错误
+    private fun isPermanent(error: MusicDownloadError?): Boolean {
+        return error is MusicDownloadError.Http && error.code in 400..499 && error.code !in setOf(401, 408, 429)
+    }
+}
@@ -1,16 +1,27 @@
 package com.example.sonicwavev4
 
 import android.content.Context
+import android.os.SystemClock
 import android.util.Log
+import com.example.sonicwavev4.network.BandwidthLimiter
+import com.example.sonicwavev4.network.NetworkCore
+import com.google.gson.Gson
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.withContext
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
+import java.io.RandomAccessFile
 import java.net.SocketTimeoutException
 import java.net.UnknownHostException
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.coroutineContext
 
 sealed class MusicDownloadError {
     data class Network(val message: String) : MusicDownloadError()
@@ -18,64 +29,342 @@ sealed class MusicDownloadError {
     data class Io(val message: String) : MusicDownloadError()
 }
 
-class MusicDownloader(private val context: Context) {
+/**
+ * 音乐文件下载：
+ * - 先写入 `<文件名>.part`，校验长度（可选 SHA-256）后原子地重命名为目标文件；
+ * - 进度记录在 `<文件名>.part.meta`，连接中断后用 HTTP Range 从断点继续（If-Range 防止文件已变化）；
+ * - 服务端支持 Range 且文件较大时分段并行下载；
+ * - 传入 [BandwidthLimiter] 时按其限速（多个下载可共享同一个限速器）；
+ * - 下载进度通过 [MusicDownloadEventBus] 发布。
+ */
+class MusicDownloader(
+    private val context: Context,
+    private val bandwidthLimiter: BandwidthLimiter? = null
+) {
 
-    private val client = OkHttpClient()
+    companion object {
+        private const val TAG = "MusicDownloader"
+        private const val PART_SUFFIX = ".part"
+        private const val META_SUFFIX = ".part.meta"
+        private const val PARALLEL_THRESHOLD_BYTES = 8L * 1024 * 1024
+        private const val PARALLEL_SEGMENTS = 4
+        private const val MAX_ATTEMPTS_PER_SEGMENT = 3
+        private const val BUFFER_BYTES = 64 * 1024
+        private const val META_SAVE_INTERVAL_BYTES = 512L * 1024
+        private const val PROGRESS_INTERVAL_MS = 250L
+    }
+
+    private val client: OkHttpClient = NetworkCore.newBuilder().build()
+    private val gson = Gson()
 
     @Volatile
     var lastError: MusicDownloadError? = null
         private set
 
+    private class HttpStatusException(val code: Int, message: String) : IOException(message)
+
+    // 服务端文件已变化（If-Range 不匹配）或不再支持 Range，需要从头下载
+    private class RestartException : IOException("Remote file changed")
+
+    private data class Segment(val start: Long, val end: Long, var written: Long = 0L) {
+        val length: Long get() = end - start + 1
+        val isComplete: Boolean get() = written >= length
+    }
+
+    private data class DownloadMeta(
+        val url: String,
+        val totalBytes: Long,
+        val etag: String?,
+        val lastModified: String?,
+        val segments: List<Segment>
+    )
+
     suspend fun downloadMusic(
         url: String,
         fileName: String,
-        accessToken: String? = null
+        accessToken: String? = null,
+        expectedSha256: String? = null
     ): File? = withContext(Dispatchers.IO) {
         lastError = null
-        val requestBuilder = Request.Builder().url(url)
-        if (!accessToken.isNullOrBlank()) {
-            requestBuilder.addHeader("Authorization", "Bearer $accessToken")
-        }
-        val request = requestBuilder.build()
+        val musicFile = File(context.filesDir, fileName)
+        val partFile = File(context.filesDir, fileName + PART_SUFFIX)
+        val metaFile = File(context.filesDir, fileName + META_SUFFIX)
 
         try {
-            client.newCall(request).execute().use { response ->
-                if (response.isSuccessful) {
-                    val body = response.body
-                    if (body == null) {
-                        lastError = MusicDownloadError.Io("Empty response body")
-                        Log.e("MusicDownloader", "Download failed: empty body for $url")
-                        return@withContext null
-                    }
-                    val musicFile = File(context.filesDir, fileName)
-                    FileOutputStream(musicFile).use { outputStream ->
-                        body.byteStream().use { inputStream ->
-                            inputStream.copyTo(outputStream)
-                        }
-                    }
-                    Log.d("MusicDownloader", "Music downloaded to: ${musicFile.absolutePath}")
-                    return@withContext musicFile
-                } else {
-                    lastError = MusicDownloadError.Http(response.code, response.message)
-                    Log.e(
-                        "MusicDownloader",
-                        "Download failed: ${response.code} ${response.message}"
-                    )
-                }
+            try {
+                download(url, accessToken, partFile, metaFile)
+            } catch (e: RestartException) {
+                Log.w(TAG, "Remote file changed, restarting download of $url")
+                discardPartial(partFile, metaFile)
+                download(url, accessToken, partFile, metaFile)
+            }
+            verify(partFile, metaFile, expectedSha256)
+            if (!partFile.renameTo(musicFile)) {
+                throw IOException("Failed to move ${partFile.name} into place")
             }
+            metaFile.delete()
+            Log.d(TAG, "Music downloaded to: ${musicFile.absolutePath}")
+            return@withContext musicFile
+        } catch (e: HttpStatusException) {
+            lastError = MusicDownloadError.Http(e.code, e.message ?: "")
+            Log.e(TAG, "Download failed: ${e.code} ${e.message}")
+            // 客户端错误（例如文件已删除）无法续传
+            if (e.code in 400..499 && e.code != 408 && e.code != 429) discardPartial(partFile, metaFile)
         } catch (e: UnknownHostException) {
             lastError = MusicDownloadError.Network(e.message ?: "Network error")
-            Log.e("MusicDownloader", "Network error while downloading $url", e)
+            Log.e(TAG, "Network error while downloading $url", e)
         } catch (e: SocketTimeoutException) {
             lastError = MusicDownloadError.Network(e.message ?: "Timeout")
-            Log.e("MusicDownloader", "Timeout while downloading $url", e)
+            Log.e(TAG, "Timeout while downloading $url", e)
         } catch (e: IOException) {
             lastError = MusicDownloadError.Io(e.message ?: "IO error")
-            Log.e("MusicDownloader", "IO error while downloading $url", e)
+            Log.e(TAG, "IO error while downloading $url", e)
+        } catch (e: kotlinx.coroutines.CancellationException) {
+            throw e
         } catch (e: Exception) {
             lastError = MusicDownloadError.Io(e.message ?: "Unexpected download error")
-            Log.e("MusicDownloader", "Unexpected error while downloading $url", e)
+            Log.e(TAG, "Unexpected error while downloading $url", e)
         }
         return@withContext null
     }
+
+    private suspend fun download(url: String, accessToken: String?, partFile: File, metaFile: File) {
+        val meta = loadMeta(metaFile, url)?.takeIf { partFile.exists() } ?: planDownload(url, accessToken, partFile, metaFile)
+        val progress = ProgressReporter(url, meta.totalBytes, meta.segments.sumOf { it.written })
+
+        if (meta.totalBytes < 0L) {
+            // 长度未知或不支持 Range：只能整段重新下载
+            streamWhole(url, accessToken, partFile, progress)
+            return
+        }
+        if (meta.segments.all { it.isComplete }) return
+
+        coroutineScope {
+            meta.segments.filterNot { it.isComplete }
+                .map { segment ->
+                    async { downloadSegment(url, accessToken, partFile, metaFile, meta, segment, progress) }
+                }
+                .awaitAll()
+        }
+        saveMeta(metaFile, meta)
+        progress.finish()
+    }
+
+    /**
+     * 新下载：HEAD 获取长度、Range 支持和校验头，决定分段并预分配临时文件。
+     */
+    private fun planDownload(url: String, accessToken: String?, partFile: File, metaFile: File): DownloadMeta {
+        discardPartial(partFile, metaFile)
+        val head = try {
+            client.newCall(newRequest(url, accessToken).head().build()).execute().use { response ->
+                if (response.isSuccessful) response else null
+            }
+        } catch (e: IOException) {
+            null
+        }
+        val totalBytes = head?.header("Content-Length")?.toLongOrNull() ?: -1L
+        val acceptsRanges = head?.header("Accept-Ranges")?.contains("bytes", ignoreCase = true) == true
+        if (totalBytes <= 0L || !acceptsRanges) {
+            return DownloadMeta(url, -1L, null, null, emptyList())
+        }
+
+        val segmentCount = if (totalBytes >= PARALLEL_THRESHOLD_BYTES) PARALLEL_SEGMENTS else 1
+        val segmentSize = (totalBytes + segmentCount - 1) / segmentCount
+        val segments = (0 until segmentCount).map { index ->
+            val start = index * segmentSize
+            Segment(start, minOf(totalBytes, start + segmentSize) - 1)
+        }
+        RandomAccessFile(partFile, "rw").use { it.setLength(totalBytes) }
+        val meta = DownloadMeta(url, totalBytes, head.header("ETag"), head.header("Last-Modified"), segments)
+        saveMeta(metaFile, meta)
+        return meta
+    }
+
+    private suspend fun downloadSegment(
+        url: String,
+        accessToken: String?,
+        partFile: File,
+        metaFile: File,
+        meta: DownloadMeta,
+        segment: Segment,
+        progress: ProgressReporter
+    ) {
+        var attempt = 0
+        while (!segment.isComplete) {
+            coroutineContext.ensureActive()
+            try {
+                fetchRange(url, accessToken, partFile, metaFile, meta, segment, progress)
+            } catch (e: HttpStatusException) {
+                throw e
+            } catch (e: RestartException) {
+                throw e
+            } catch (e: IOException) {
+                attempt++
+                saveMeta(metaFile, meta)
+                if (attempt >= MAX_ATTEMPTS_PER_SEGMENT) throw e
+                Log.w(TAG, "Segment ${segment.start}-${segment.end} interrupted, resuming (attempt $attempt)", e)
+            }
+        }
+    }
+
+    private suspend fun fetchRange(
+        url: String,
+        accessToken: String?,
+        partFile: File,
+        metaFile: File,
+        meta: DownloadMeta,
+        segment: Segment,
+        progress: ProgressReporter
+    ) {
+        val from = segment.start + segment.written
+        val builder = newRequest(url, accessToken).header("Range", "bytes=$from-${segment.end}")
+        (meta.etag ?: meta.lastModified)?.let { builder.header("If-Range", it) }
+
+        client.newCall(builder.build()).execute().use { response ->
+            when {
+                response.code == 206 -> Unit
+                // If-Range 不匹配时服务端返回整个文件
+                response.code == 200 -> throw RestartException()
+                response.code == 416 -> throw RestartException()
+                else -> throw HttpStatusException(response.code, response.message)
+            }
+            val body = response.body ?: throw IOException("Empty response body")
+            RandomAccessFile(partFile, "rw").use { output ->
+                output.seek(from)
+                body.byteStream().use { input ->
+                    val buffer = ByteArray(BUFFER_BYTES)
+                    var sinceSave = 0L
+                    while (!segment.isComplete) {
+                        coroutineContext.ensureActive()
+                        val remaining = segment.length - segment.written
+                        val read = input.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+                        if (read == -1) break
+                        output.write(buffer, 0, read)
+                        bandwidthLimiter?.acquire(read.toLong())
+                        synchronized(meta) { segment.written += read }
+                        progress.add(read.toLong())
+                        sinceSave += read
+                        if (sinceSave >= META_SAVE_INTERVAL_BYTES) {
+                            saveMeta(metaFile, meta)
+                            sinceSave = 0L
+                        }
+                    }
+                }
+            }
+            if (!segment.isComplete) throw IOException("Connection closed before segment finished")
+        }
+    }
+
+    private suspend fun streamWhole(url: String, accessToken: String?, partFile: File, progress: ProgressReporter) {
+        client.newCall(newRequest(url, accessToken).build()).execute().use { response ->
+            if (!response.isSuccessful) throw HttpStatusException(response.code, response.message)
+            val body = response.body ?: throw IOException("Empty response body")
+            val total = body.contentLength()
+            progress.reset(total)
+            partFile.outputStream().use { output ->
+                body.byteStream().use { input ->
+                    val buffer = ByteArray(BUFFER_BYTES)
+                    while (true) {
+                        coroutineContext.ensureActive()
+                        val read = input.read(buffer)
+                        if (read == -1) break
+                        output.write(buffer, 0, read)
+                        bandwidthLimiter?.acquire(read.toLong())
+                        progress.add(read.toLong())
+                    }
+                }
+            }
+            if (total >= 0L && partFile.length() != total) {
+                throw IOException("Expected $total bytes but received ${partFile.length()}")
+            }
+            progress.finish()
+        }
+    }
+
+    private fun verify(partFile: File, metaFile: File, expectedSha256: String?) {
+        val meta = loadMeta(metaFile, null)
+        if (meta != null && meta.totalBytes >= 0L && partFile.length() != meta.totalBytes) {
+            throw IOException("Size mismatch: expected ${meta.totalBytes}, got ${partFile.length()}")
+        }
+        if (expectedSha256.isNullOrBlank()) return
+        val digest = MessageDigest.getInstance("SHA-256")
+        partFile.inputStream().use { input ->
+            val buffer = ByteArray(BUFFER_BYTES)
+            while (true) {
+                val read = input.read(buffer)
+                if (read == -1) break
+                digest.update(buffer, 0, read)
+            }
+        }
+        val actual = digest.digest().joinToString("") { "%02x".format(it) }
+        if (!actual.equals(expectedSha256, ignoreCase = true)) {
+            discardPartial(partFile, metaFile)
+            throw IOException("Checksum mismatch")
+        }
+    }
+
+    private fun newRequest(url: String, accessToken: String?): Request.Builder {
+        val builder = Request.Builder().url(url)
+            // 禁止透明 gzip，否则长度和 Range 偏移都会错位
+            .header("Accept-Encoding", "identity")
+        if (!accessToken.isNullOrBlank()) {
+            builder.header("Authorization", "Bearer $accessToken")
+        }
+        return builder
+    }
+
+    private fun loadMeta(metaFile: File, url: String?): DownloadMeta? {
+        if (!metaFile.exists()) return null
+        return try {
+            gson.fromJson(metaFile.readText(), DownloadMeta::class.java)
+                ?.takeIf { (url == null || it.url == url) && it.segments != null }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    // 各分段协程共用同一个 meta 和临时文件，序列化与写盘都在 meta 锁内完成，
+    // 写入不会交错，后写入的进度也不会被较早的快照覆盖
+    private fun saveMeta(metaFile: File, meta: DownloadMeta) {
+        synchronized(meta) {
+            val json = gson.toJson(meta)
+            val tmp = File(metaFile.parentFile, "${metaFile.name}.tmp")
+            try {
+                tmp.writeText(json)
+                if (!tmp.renameTo(metaFile)) metaFile.writeText(json)
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to save download progress", e)
+            }
+        }
+    }
+
+    private fun discardPartial(partFile: File, metaFile: File) {
+        partFile.delete()
+        metaFile.delete()
+    }
+
+    private class ProgressReporter(private val url: String, private var totalBytes: Long, initialBytes: Long) {
+        private val downloaded = AtomicLong(initialBytes)
+
+        @Volatile
+        private var lastEmitAt = 0L
+
+        fun reset(total: Long) {
+            totalBytes = total
+            downloaded.set(0L)
+        }
+
+        fun add(bytes: Long) {
+            val current = downloaded.addAndGet(bytes)
+            val now = SystemClock.elapsedRealtime()
+            if (now - lastEmitAt >= PROGRESS_INTERVAL_MS) {
+                lastEmitAt = now
+                MusicDownloadEventBus.emit(MusicDownloadEvent.Progress(url, current, totalBytes))
+            }
+        }
+
+        fun finish() {
+            MusicDownloadEventBus.emit(MusicDownloadEvent.Progress(url, downloaded.get(), totalBytes))
+        }
+    }
 }
@@ -6,5 +6,6 @@ data class MusicItem(
     val title: String,
     val artist: String,
     val uri: Uri,
-    val isDownloaded: Boolean = false
+    val isDownloaded: Boolean = false,
+    val cloudTrackId: Long? = null // 云端曲目 ID，在线播放时用作缓存 key
 )
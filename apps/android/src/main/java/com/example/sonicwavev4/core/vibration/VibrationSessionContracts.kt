@@ -49,6 +49,14 @@ interface VibrationSessionGateway {
     suspend fun logOperationEvent(operationId: Long, request: OperationEventRequest)
 }
 
+/**
+ * Notified when a vibration run starts or stops, so background work can adapt to it.
+ */
+interface VibrationRunObserver {
+    fun onVibrationSessionStarted(runId: Long)
+    fun onVibrationSessionStopped(runId: Long)
+}
+
 data class VibrationSessionUiState(
     val frequencyValue: Int = 0,
     val intensityValue: Int = 0,
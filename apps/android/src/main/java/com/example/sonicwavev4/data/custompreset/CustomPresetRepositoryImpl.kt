@@ -1,17 +1,18 @@
 package com.example.sonicwavev4.data.custompreset
 
 import android.content.Context
+import android.util.LruCache
+import androidx.room.withTransaction
 import com.example.sonicwavev4.data.custompreset.db.CustomPresetDao
 import com.example.sonicwavev4.data.custompreset.db.CustomPresetDatabase
 import com.example.sonicwavev4.data.custompreset.db.CustomPresetEntity
+import com.example.sonicwavev4.data.custompreset.db.CustomPresetStepCodec
 import com.example.sonicwavev4.data.custompreset.model.CreateCustomPresetRequest
 import com.example.sonicwavev4.data.custompreset.model.CustomPreset
 import com.example.sonicwavev4.data.custompreset.model.CustomPresetStep
 import com.example.sonicwavev4.data.custompreset.model.ImportResult
 import com.example.sonicwavev4.data.custompreset.model.SyncState
 import com.example.sonicwavev4.data.custompreset.model.UpdateCustomPresetRequest
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
 import java.util.UUID
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Dispatchers
@@ -21,28 +22,38 @@ import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.withContext
 
 /**
- * 自设模式仓库：负责 Room 读写和步骤 JSON 序列化。
+ * 自设模式仓库：负责 Room 读写和步骤编码。
  * 由于产品后续要同步云端，这里保留了 sortOrder/syncState 等字段，便于未来拓展。
+ *
+ * 步骤以二进制存储（见 [CustomPresetStepCodec]），读出时不立即解码：[CustomPreset.steps]
+ * 第一次被访问才解码，结果按 (id, updatedAt) 缓存，列表页只用 stepCount/totalDurationSec。
  */
 class CustomPresetRepositoryImpl private constructor(
+    private val database: CustomPresetDatabase,
     private val dao: CustomPresetDao,
-    private val gson: Gson,
     private val dispatcher: CoroutineDispatcher
 ) : CustomPresetRepository {
 
+    private data class StepCacheKey(val id: String, val updatedAt: Long)
+
+    private val stepCache = LruCache<StepCacheKey, List<CustomPresetStep>>(STEP_CACHE_SIZE)
+
     override fun customPresets(customerId: Long?): Flow<List<CustomPreset>> =
         dao.observeByCustomer(customerId)
-            .map { entities -> entities.map { it.toDomain(gson) } }
+            .map { entities -> entities.map { it.toDomain() } }
             .flowOn(dispatcher)
 
     override suspend fun create(request: CreateCustomPresetRequest): String = withContext(dispatcher) {
         val now = System.currentTimeMillis()
+        val steps = request.steps.normalizeOrder()
         val entity = CustomPresetEntity(
             id = UUID.randomUUID().toString(),
             customerId = request.customerId,
             name = request.name.trim(),
-            stepsJson = gson.toJson(request.steps.normalizeOrder(), STEP_LIST_TYPE),
-            sortOrder = (dao.maxSortOrder() ?: 0) + 1,
+            stepsBlob = CustomPresetStepCodec.encode(steps),
+            stepCount = steps.size,
+            totalDurationSec = steps.sumOf { it.durationSec },
+            sortOrder = CustomPresetSortKeys.after(dao.maxSortOrder()),
             createdAt = now,
             updatedAt = now,
             lastSyncedAt = null,
@@ -55,10 +66,13 @@ class CustomPresetRepositoryImpl private constructor(
     override suspend fun update(request: UpdateCustomPresetRequest) = withContext(dispatcher) {
         val existing = dao.findById(request.id) ?: return@withContext
         val now = System.currentTimeMillis()
+        val steps = request.steps.normalizeOrder()
         val updated = existing.copy(
             customerId = request.customerId,
             name = request.name.trim(),
-            stepsJson = gson.toJson(request.steps.normalizeOrder(), STEP_LIST_TYPE),
+            stepsBlob = CustomPresetStepCodec.encode(steps),
+            stepCount = steps.size,
+            totalDurationSec = steps.sumOf { it.durationSec },
             updatedAt = now,
             syncState = SyncState.DIRTY
         )
@@ -71,18 +85,25 @@ class CustomPresetRepositoryImpl private constructor(
     }
 
     override suspend fun getPresetById(id: String): CustomPreset? = withContext(dispatcher) {
-        dao.findById(id)?.toDomain(gson)
+        dao.findById(id)?.toDomain()
     }
 
+    /**
+     * 拖动一项通常只改写这一行；需要整组重排时也在同一个事务里完成，Room 只通知一次。
+     */
     override suspend fun reorderPresets(newOrderIds: List<String>) = withContext(dispatcher) {
-        val now = System.currentTimeMillis()
-        newOrderIds.forEachIndexed { index, presetId ->
-            dao.updateSortOrder(presetId, index, now)
+        database.withTransaction {
+            val updates = CustomPresetSortKeys.plan(dao.sortKeys(newOrderIds), newOrderIds)
+            if (updates.isEmpty()) return@withTransaction
+            val now = System.currentTimeMillis()
+            updates.forEach { (presetId, sortOrder) ->
+                dao.updateSortOrder(presetId, sortOrder, now)
+            }
         }
     }
 
     override suspend fun exportAll(): List<CustomPreset> = withContext(dispatcher) {
-        dao.listAll().map { it.toDomain(gson) }
+        dao.listAll().map { it.toDomain() }
     }
 
     override suspend fun importAll(
@@ -98,11 +119,14 @@ class CustomPresetRepositoryImpl private constructor(
                 return@forEach
             }
             val now = System.currentTimeMillis()
+            val steps = preset.steps.normalizeOrder()
             val entity = CustomPresetEntity(
                 id = preset.id.ifBlank { UUID.randomUUID().toString() },
                 customerId = preset.customerId,
                 name = preset.name,
-                stepsJson = gson.toJson(preset.steps.normalizeOrder(), STEP_LIST_TYPE),
+                stepsBlob = CustomPresetStepCodec.encode(steps),
+                stepCount = steps.size,
+                totalDurationSec = steps.sumOf { it.durationSec },
                 sortOrder = preset.sortOrder,
                 createdAt = preset.createdAt,
                 updatedAt = now,
@@ -115,12 +139,34 @@ class CustomPresetRepositoryImpl private constructor(
         ImportResult(imported = imported, skipped = skipped)
     }
 
+    private fun CustomPresetEntity.toDomain(): CustomPreset {
+        val key = StepCacheKey(id, updatedAt)
+        val blob = stepsBlob
+        return CustomPreset(
+            id = id,
+            customerId = customerId,
+            name = name,
+            steps = LazyStepList(stepCount) {
+                stepCache.get(key) ?: CustomPresetStepCodec.decode(blob).also { stepCache.put(key, it) }
+            },
+            stepCount = stepCount,
+            totalDurationSec = totalDurationSec,
+            sortOrder = sortOrder,
+            createdAt = createdAt,
+            updatedAt = updatedAt,
+            lastSyncedAt = lastSyncedAt,
+            syncState = syncState
+        )
+    }
+
     private fun List<CustomPresetStep>.normalizeOrder(): List<CustomPresetStep> =
         this.sortedBy { it.order }.mapIndexed { index, step ->
             step.copy(order = index)
         }
 
     companion object {
+        private const val STEP_CACHE_SIZE = 64
+
         @Volatile
         private var instance: CustomPresetRepository? = null
 
@@ -133,25 +179,22 @@ class CustomPresetRepositoryImpl private constructor(
         private fun buildRepository(context: Context): CustomPresetRepository {
             val database = CustomPresetDatabase.getInstance(context)
             return CustomPresetRepositoryImpl(
+                database = database,
                 dao = database.customPresetDao(),
-                gson = Gson(),
                 dispatcher = Dispatchers.IO
             )
         }
     }
 }
 
-private val STEP_LIST_TYPE = object : TypeToken<List<CustomPresetStep>>() {}.type
-
-private fun CustomPresetEntity.toDomain(gson: Gson): CustomPreset =
-    CustomPreset(
-        id = id,
-        customerId = customerId,
-        name = name,
-        steps = gson.fromJson(stepsJson, STEP_LIST_TYPE),
-        sortOrder = sortOrder,
-        createdAt = createdAt,
-        updatedAt = updatedAt,
-        lastSyncedAt = lastSyncedAt,
-        syncState = syncState
-    )
+/**
+ * 第一次访问元素时才解码的步骤列表；[size] 取实体上与步骤一起写入的 step_count，不触发解码。
+ */
+private class LazyStepList(
+    override val size: Int,
+    decode: () -> List<CustomPresetStep>
+) : AbstractList<CustomPresetStep>() {
+    private val steps by lazy(decode)
+
+    override fun get(index: Int): CustomPresetStep = steps[index]
+}
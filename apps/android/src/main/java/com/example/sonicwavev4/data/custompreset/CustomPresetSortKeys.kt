@@ -0,0 +1,107 @@
+package com.example.sonicwavev4.data.custompreset
+
+import com.example.sonicwavev4.data.custompreset.db.PresetSortKey
+
+/**
+ * 自设模式的排序键：相邻预设之间留 [STEP] 的间隔，拖动一项时只给它取新邻居之间的值。
+ * 间隔用完（或旧数据的键是 0,1,2… 连号）时才把整组重新编号。
+ */
+object CustomPresetSortKeys {
+    const val STEP = 1024
+
+    fun after(max: Int?): Int = if (max == null) 0 else max + STEP
+
+    /**
+     * 根据当前顺序 [current]（按 sort_order 排好）和目标顺序 [newOrder]，返回需要改写的 id -> 新键。
+     *
+     * 保持相对顺序不变的最长一组预设（最长递增子序列）不动，其余的视为被移动，
+     * 填进各自新邻居之间的间隔；任何一处放不下就整组按 index * STEP 重排。
+     */
+    fun plan(current: List<PresetSortKey>, newOrder: List<String>): Map<String, Int> {
+        val keyById = current.associate { it.id to it.sortOrder }
+        val currentIndex = current.withIndex().associate { it.value.id to it.index }
+        val order = newOrder.filter { it in keyById }.distinct()
+        if (order.size < 2) return emptyMap()
+
+        val stable = longestIncreasing(order.map { currentIndex.getValue(it) })
+        var previousStableKey: Int? = null
+        order.forEachIndexed { index, id ->
+            if (!stable[index]) return@forEachIndexed
+            val key = keyById.getValue(id)
+            if (previousStableKey != null && key <= previousStableKey!!) return renumber(order, keyById)
+            previousStableKey = key
+        }
+
+        val updates = LinkedHashMap<String, Int>()
+        var start = 0
+        while (start < order.size) {
+            if (stable[start]) {
+                start++
+                continue
+            }
+            var end = start
+            while (end < order.size && !stable[end]) end++
+            val low = if (start > 0) keyById.getValue(order[start - 1]) else null
+            val high = if (end < order.size) keyById.getValue(order[end]) else null
+            val keys = spread(low, high, end - start) ?: return renumber(order, keyById)
+            for (offset in keys.indices) {
+                updates[order[start + offset]] = keys[offset]
+            }
+            start = end
+        }
+        return updates
+    }
+
+    private fun spread(low: Int?, high: Int?, count: Int): IntArray? {
+        val keys = LongArray(count) { index ->
+            when {
+                low == null && high == null -> index.toLong() * STEP
+                low == null -> high!!.toLong() - (count - index).toLong() * STEP
+                high == null -> low.toLong() + (index + 1).toLong() * STEP
+                else -> {
+                    val gap = high.toLong() - low.toLong()
+                    if (gap <= count) return null
+                    low + gap * (index + 1) / (count + 1)
+                }
+            }
+        }
+        if (keys.any { it < Int.MIN_VALUE || it > Int.MAX_VALUE }) return null
+        return IntArray(count) { keys[it].toInt() }
+    }
+
+    private fun renumber(order: List<String>, keyById: Map<String, Int>): Map<String, Int> {
+        val updates = LinkedHashMap<String, Int>()
+        order.forEachIndexed { index, id ->
+            val key = index * STEP
+            if (keyById[id] != key) updates[id] = key
+        }
+        return updates
+    }
+
+    /**
+     * 标记 [values] 中构成一条最长严格递增子序列的位置。
+     */
+    private fun longestIncreasing(values: List<Int>): BooleanArray {
+        val tails = IntArray(values.size)
+        val previous = IntArray(values.size) { -1 }
+        var length = 0
+        values.forEachIndexed { index, value ->
+            var lo = 0
+            var hi = length
+            while (lo < hi) {
+                val mid = (lo + hi) ushr 1
+                if (values[tails[mid]] < value) lo = mid + 1 else hi = mid
+            }
+            if (lo > 0) previous[index] = tails[lo - 1]
+            tails[lo] = index
+            if (lo == length) length++
+        }
+        val result = BooleanArray(values.size)
+        var cursor = if (length > 0) tails[length - 1] else -1
+        while (cursor >= 0) {
+            result[cursor] = true
+            cursor = previous[cursor]
+        }
+        return result
+    }
+}
@@ -24,6 +24,9 @@ interface CustomPresetDao {
     @Query("UPDATE custom_presets SET sort_order = :sortOrder, updated_at = :updatedAt WHERE id = :id")
     suspend fun updateSortOrder(id: String, sortOrder: Int, updatedAt: Long)
 
+    @Query("SELECT id, sort_order FROM custom_presets WHERE id IN (:ids) ORDER BY sort_order ASC, created_at ASC")
+    suspend fun sortKeys(ids: List<String>): List<PresetSortKey>
+
     @Query("SELECT MAX(sort_order) FROM custom_presets")
     suspend fun maxSortOrder(): Int?
 
@@ -1,14 +1,19 @@
 package com.example.sonicwavev4.data.custompreset.db
 
+import android.content.ContentValues
 import android.content.Context
+import android.database.sqlite.SQLiteDatabase
 import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import com.example.sonicwavev4.data.custompreset.model.CustomPresetStep
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
 
 @Database(
     entities = [CustomPresetEntity::class],
-    version = 2,
+    version = 3,
     exportSchema = false
 )
 @TypeConverters(CustomPresetConverters::class)
@@ -31,7 +36,7 @@ abstract class CustomPresetDatabase : RoomDatabase() {
                 CustomPresetDatabase::class.java,
                 "custom_presets.db"
             )
-                .addMigrations(MIGRATION_1_2)
+                .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
                 .build()
     }
 }
@@ -41,3 +46,46 @@ val MIGRATION_1_2 = object : androidx.room.migration.Migration(1, 2) {
         database.execSQL("ALTER TABLE custom_presets ADD COLUMN customer_id INTEGER")
     }
 }
+
+/**
+ * steps_json 换成 steps_blob，并补上 step_count / total_duration_sec 汇总列。
+ * SQLite 不能直接删列，所以重建表，逐行把旧 JSON 转成二进制。
+ */
+val MIGRATION_2_3 = object : androidx.room.migration.Migration(2, 3) {
+    override fun migrate(database: androidx.sqlite.db.SupportSQLiteDatabase) {
+        database.execSQL(
+            "CREATE TABLE IF NOT EXISTS `custom_presets_new` (" +
+                "`id` TEXT NOT NULL, `customer_id` INTEGER, `name` TEXT NOT NULL, " +
+                "`steps_blob` BLOB NOT NULL, `step_count` INTEGER NOT NULL, `total_duration_sec` INTEGER NOT NULL, " +
+                "`sort_order` INTEGER NOT NULL, `created_at` INTEGER NOT NULL, `updated_at` INTEGER NOT NULL, " +
+                "`last_synced_at` INTEGER, `sync_state` TEXT NOT NULL, PRIMARY KEY(`id`))"
+        )
+        val gson = Gson()
+        val stepListType = object : TypeToken<List<CustomPresetStep>>() {}.type
+        database.query(
+            "SELECT id, customer_id, name, steps_json, sort_order, created_at, updated_at, last_synced_at, sync_state FROM custom_presets"
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                val steps = runCatching {
+                    gson.fromJson<List<CustomPresetStep>>(cursor.getString(3), stepListType)
+                }.getOrNull().orEmpty().sortedBy { it.order }
+                val values = ContentValues().apply {
+                    put("id", cursor.getString(0))
+                    if (cursor.isNull(1)) putNull("customer_id") else put("customer_id", cursor.getLong(1))
+                    put("name", cursor.getString(2))
+                    put("steps_blob", CustomPresetStepCodec.encode(steps))
+                    put("step_count", steps.size)
+                    put("total_duration_sec", steps.sumOf { it.durationSec })
+                    put("sort_order", cursor.getInt(4))
+                    put("created_at", cursor.getLong(5))
+                    put("updated_at", cursor.getLong(6))
+                    if (cursor.isNull(7)) putNull("last_synced_at") else put("last_synced_at", cursor.getLong(7))
+                    put("sync_state", cursor.getString(8))
+                }
+                database.insert("custom_presets_new", SQLiteDatabase.CONFLICT_REPLACE, values)
+            }
+        }
+        database.execSQL("DROP TABLE custom_presets")
+        database.execSQL("ALTER TABLE custom_presets_new RENAME TO custom_presets")
+    }
+}
@@ -15,8 +15,13 @@ data class CustomPresetEntity(
     val customerId: Long?,
     @ColumnInfo(name = "name")
     val name: String,
-    @ColumnInfo(name = "steps_json")
-    val stepsJson: String,
+    /** 见 [CustomPresetStepCodec]；列表页只用下面两个汇总列，不解码步骤 */
+    @ColumnInfo(name = "steps_blob")
+    val stepsBlob: ByteArray,
+    @ColumnInfo(name = "step_count")
+    val stepCount: Int,
+    @ColumnInfo(name = "total_duration_sec")
+    val totalDurationSec: Int,
     @ColumnInfo(name = "sort_order")
     val sortOrder: Int,
     @ColumnInfo(name = "created_at")
@@ -27,4 +32,46 @@ data class CustomPresetEntity(
     val lastSyncedAt: Long?,
     @ColumnInfo(name = "sync_state")
     val syncState: SyncState
+) {
+    // data class 默认按引用比较数组，这里改为比较 stepsBlob 的内容
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is CustomPresetEntity) return false
+        return id == other.id &&
+            customerId == other.customerId &&
+            name == other.name &&
+            stepsBlob.contentEquals(other.stepsBlob) &&
+            stepCount == other.stepCount &&
+            totalDurationSec == other.totalDurationSec &&
+            sortOrder == other.sortOrder &&
+            createdAt == other.createdAt &&
+            updatedAt == other.updatedAt &&
+            lastSyncedAt == other.lastSyncedAt &&
+            syncState == other.syncState
+    }
+
+    override fun hashCode(): Int {
+        var result = id.hashCode()
+        result = 31 * result + (customerId?.hashCode() ?: 0)
+        result = 31 * result + name.hashCode()
+        result = 31 * result + stepsBlob.contentHashCode()
+        result = 31 * result + stepCount
+        result = 31 * result + totalDurationSec
+        result = 31 * result + sortOrder
+        result = 31 * result + createdAt.hashCode()
+        result = 31 * result + updatedAt.hashCode()
+        result = 31 * result + (lastSyncedAt?.hashCode() ?: 0)
+        result = 31 * result + syncState.hashCode()
+        return result
+    }
+}
+
+/**
+ * 重排时只需要 id 和排序键。
+ */
+data class PresetSortKey(
+    @ColumnInfo(name = "id")
+    val id: String,
+    @ColumnInfo(name = "sort_order")
+    val sortOrder: Int
 )
@@ -0,0 +1,49 @@
+package com.example.sonicwavev4.data.custompreset.db
+
+import com.example.sonicwavev4.data.custompreset.model.CustomPresetStep
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+/**
+ * 步骤列表的二进制编码（steps_blob 列）：版本号 + 步数 + 每步的 id 和四个整数。
+ * 比 Gson 的 JSON 小，解码也不走反射。
+ */
+object CustomPresetStepCodec {
+    private const val VERSION = 1
+
+    fun encode(steps: List<CustomPresetStep>): ByteArray {
+        val bytes = ByteArrayOutputStream(8 + steps.size * 56)
+        DataOutputStream(bytes).use { out ->
+            out.writeByte(VERSION)
+            out.writeInt(steps.size)
+            steps.forEach { step ->
+                out.writeUTF(step.id)
+                out.writeInt(step.frequencyHz)
+                out.writeInt(step.intensity01V)
+                out.writeInt(step.durationSec)
+                out.writeInt(step.order)
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    fun decode(blob: ByteArray): List<CustomPresetStep> {
+        if (blob.isEmpty()) return emptyList()
+        DataInputStream(ByteArrayInputStream(blob)).use { input ->
+            val version = input.readUnsignedByte()
+            require(version == VERSION) { "Unsupported custom preset steps version: $version" }
+            val count = input.readInt()
+            return List(count) {
+                CustomPresetStep(
+                    id = input.readUTF(),
+                    frequencyHz = input.readInt(),
+                    intensity01V = input.readInt(),
+                    durationSec = input.readInt(),
+                    order = input.readInt()
+                )
+            }
+        }
+    }
+}
@@ -11,6 +11,8 @@ data class CustomPreset(
     val customerId: Long?,
     val name: String,
     val steps: List<CustomPresetStep>,
+    val stepCount: Int = steps.size,
+    val totalDurationSec: Int = steps.sumOf { it.durationSec },
     val sortOrder: Int,
     val createdAt: Long,
     val updatedAt: Long,
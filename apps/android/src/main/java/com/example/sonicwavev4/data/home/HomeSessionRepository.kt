@@ -1,23 +1,40 @@
 package com.example.sonicwavev4.data.home
 
+import android.content.Context
+import com.example.sonicwavev4.MusicDownloadQueue
+import com.example.sonicwavev4.core.vibration.VibrationRunObserver
 import com.example.sonicwavev4.core.vibration.VibrationSessionGateway
-import com.example.sonicwavev4.network.ApiService
 import com.example.sonicwavev4.network.Customer
 import com.example.sonicwavev4.network.OperationEventRequest
 import com.example.sonicwavev4.network.StartOperationRequest
 import com.example.sonicwavev4.network.StartPresetModeRequest
 import com.example.sonicwavev4.network.StopOperationRequest
 import com.example.sonicwavev4.network.StopPresetModeRequest
+import com.example.sonicwavev4.utils.HeartbeatOrchestrator
 import com.example.sonicwavev4.utils.SessionManager
 import java.util.concurrent.atomic.AtomicLong
 
+/**
+ * 开始/停止请求交给 [SessionRunOutbox] 异步上报，开始时立即返回本地运行 ID，不等待网络；
+ * 运行开始、结束时通知 [runObservers]。
+ */
 class HomeSessionRepository(
     private val sessionManager: SessionManager,
-    private val apiService: ApiService
+    private val outbox: SessionRunOutbox,
+    private val runObservers: List<VibrationRunObserver> = emptyList()
 ) : VibrationSessionGateway {
 
     companion object {
         private val localIdCounter = AtomicLong(1_000_000_000_000L)
+
+        fun create(context: Context): HomeSessionRepository {
+            val appContext = context.applicationContext
+            return HomeSessionRepository(
+                SessionManager(appContext),
+                SessionRunOutbox.getInstance(appContext),
+                listOf(HeartbeatOrchestrator, MusicDownloadQueue)
+            )
+        }
     }
 
     fun fetchUserId(): String? = sessionManager.fetchUserId()
@@ -47,19 +64,21 @@ class HomeSessionRepository(
             intensity = intensity,
             operationTime = timeInMinutes
         )
-        val response = apiService.startOperation(request)
-        return response.operationId
+        return outbox.startOperation(request).also { runId ->
+            runObservers.forEach { it.onVibrationSessionStarted(runId) }
+        }
     }
 
     override suspend fun logOperationEvent(operationId: Long, request: OperationEventRequest) {
         if (isOffline()) return
-        apiService.logOperationEvent(operationId, request)
+        OperationEventQueue.enqueue(operationId, request)
     }
 
     override suspend fun stopOperation(operationId: Long, reason: String, detail: String?) {
         if (isOffline()) return
         val request = StopOperationRequest(reason = reason, detail = detail)
-        apiService.stopOperation(operationId, request)
+        outbox.stopOperation(operationId, request)
+        runObservers.forEach { it.onVibrationSessionStopped(operationId) }
     }
 
     suspend fun startPresetModeRun(
@@ -83,13 +102,15 @@ class HomeSessionRepository(
             intensityScalePct = intensityScalePct,
             totalDurationSec = totalDurationSec
         )
-        val response = apiService.startPresetMode(request)
-        return response.runId
+        return outbox.startPresetModeRun(request).also { runId ->
+            runObservers.forEach { it.onVibrationSessionStarted(runId) }
+        }
     }
 
     suspend fun stopPresetModeRun(runId: Long, reason: String, detail: String?) {
         if (isOffline()) return
         val request = StopPresetModeRequest(reason = reason, detail = detail)
-        apiService.stopPresetMode(runId, request)
+        outbox.stopPresetModeRun(runId, request)
+        runObservers.forEach { it.onVibrationSessionStopped(runId) }
     }
 }
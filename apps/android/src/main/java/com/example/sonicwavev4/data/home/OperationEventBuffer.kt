@@ -0,0 +1,103 @@
+package com.example.sonicwavev4.data.home
+
+import com.example.sonicwavev4.network.QueuedOperationEvent
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * [OperationEventQueue] 的内存队列，本身不加锁，由调用方持锁访问。
+ *
+ * 队首的一段事件是"冻结"的：已经取出上报过、或是从磁盘恢复的事件不再参与合并，
+ * 否则重试时后端可能已经收下旧值。上报完成后按对象引用移除本批事件，
+ * 期间队首插入恢复的事件或队尾新增、淘汰事件都不会删错。
+ */
+internal class OperationEventBuffer(
+    private val maxPending: Int,
+    private val coalesceWindowMs: Long,
+    private val coalescibleTypes: Set<String>
+) {
+
+    private val events = ArrayList<QueuedOperationEvent>()
+    private var frozenCount = 0
+
+    val size: Int
+        get() = events.size
+
+    /**
+     * 追加一条事件；与队尾同一操作、同一类型的调节事件在合并窗口内（相对上一次调节）时并入该条。
+     * 合并后取最后一次的数值，[QueuedOperationEvent.occurredAt] 保留首次调节的时间。
+     */
+    fun add(event: QueuedOperationEvent) {
+        val lastIndex = events.lastIndex
+        val last = events.lastOrNull()
+        val canCoalesce = last != null &&
+            lastIndex >= frozenCount &&
+            last.operationId == event.operationId &&
+            last.eventType == event.eventType &&
+            event.eventType in coalescibleTypes &&
+            last.extraDetail == null &&
+            event.extraDetail == null &&
+            event.occurredAt - (last.lastOccurredAt ?: last.occurredAt) <= coalesceWindowMs
+        if (canCoalesce && last != null) {
+            events[lastIndex] = last.copy(
+                frequency = event.frequency,
+                intensity = event.intensity,
+                timeRemaining = event.timeRemaining,
+                coalescedCount = last.coalescedCount + event.coalescedCount,
+                lastOccurredAt = event.lastOccurredAt ?: event.occurredAt
+            )
+            return
+        }
+        events.add(event)
+        // 离线过久时丢弃最旧的未冻结事件
+        while (events.size > maxPending && events.size > frozenCount + 1) {
+            events.removeAt(frozenCount)
+        }
+    }
+
+    /**
+     * 把磁盘上恢复的事件放回队首，它们早于本次启动后入队的事件。
+     */
+    fun restore(restored: List<QueuedOperationEvent>) {
+        if (restored.isEmpty()) return
+        events.addAll(0, restored)
+        frozenCount += restored.size
+    }
+
+    /**
+     * 从队首取最多 [maxSize] 条事件，遇到 [isReady] 为 false 的操作时截止，保持事件顺序。
+     * 取出的事件仍留在队列中，直到 [complete]。
+     */
+    fun takeBatch(maxSize: Int, isReady: (Long) -> Boolean): List<QueuedOperationEvent> {
+        val batch = ArrayList<QueuedOperationEvent>()
+        for (event in events) {
+            if (batch.size >= maxSize) break
+            if (!isReady(event.operationId)) break
+            batch.add(event)
+        }
+        frozenCount = maxOf(frozenCount, batch.size)
+        return batch
+    }
+
+    /**
+     * 移除已经上报（或确定丢弃）的 [batch]。
+     */
+    fun complete(batch: List<QueuedOperationEvent>) {
+        if (batch.isEmpty()) return
+        val done = Collections.newSetFromMap(IdentityHashMap<QueuedOperationEvent, Boolean>())
+        done.addAll(batch)
+        val remaining = ArrayList<QueuedOperationEvent>(events.size)
+        var remainingFrozen = 0
+        events.forEachIndexed { index, event ->
+            if (event !in done) {
+                remaining.add(event)
+                if (index < frozenCount) remainingFrozen++
+            }
+        }
+        events.clear()
+        events.addAll(remaining)
+        frozenCount = remainingFrozen
+    }
+
+    fun snapshot(): List<QueuedOperationEvent> = ArrayList(events)
+}
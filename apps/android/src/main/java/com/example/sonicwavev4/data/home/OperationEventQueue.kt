@@ -0,0 +1,223 @@
+package com.example.sonicwavev4.data.home
+
+import android.content.Context
+import android.util.Log
+import com.example.sonicwavev4.network.OperationEventBatchRequest
+import com.example.sonicwavev4.network.OperationEventRequest
+import com.example.sonicwavev4.network.QueuedOperationEvent
+import com.example.sonicwavev4.network.RealtimeChannel
+import com.example.sonicwavev4.network.RetrofitClient
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.File
+import java.util.UUID
+
+/**
+ * 操作事件的本地队列：合并连续的同类调节事件，持久化到磁盘，并批量上报到
+ * `POST api/v1/operations/events/batch`。
+ *
+ * - 同一操作、同一类型的调节事件在 [COALESCE_WINDOW_MS] 内连续到达时合并为一条，
+ *   保留最终数值和最后一次调节的时间，并记录合并次数；
+ * - 第一条事件入队后等待 [FLUSH_DELAY_MS] 再上报，长按 +/- 期间最多每隔这么久发一次请求；
+ * - 上报失败时保留队列，[RETRY_DELAY_MS] 后重试；离线期间的事件在进程重启后从磁盘恢复，
+ *   恢复完成前不上报也不落盘，避免覆盖尚未读取的文件；
+ * - 每条事件带客户端生成的 clientEventId，实时通道等不到确认后回退 HTTP 重发时由后端去重；
+ * - 事件可能引用 [SessionRunOutbox] 生成的本地操作 ID，上报前换成后端 ID，映射确定前暂缓上报。
+ */
+object OperationEventQueue {
+
+    private const val TAG = "OperationEventQueue"
+    private const val FILE_NAME = "pending_operation_events.json"
+    private const val COALESCE_WINDOW_MS = 1_500L
+    private const val FLUSH_DELAY_MS = 2_000L
+    private const val RETRY_DELAY_MS = 30_000L
+    private const val MAX_BATCH_SIZE = 100
+    private const val MAX_PENDING = 2_000
+
+    private val COALESCIBLE_TYPES = setOf("adjust_frequency", "adjust_intensity", "adjust_time")
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val gson = Gson()
+    private val listType = object : TypeToken<List<QueuedOperationEvent>>() {}.type
+
+    private val lock = Any()
+    private val pending = OperationEventBuffer(MAX_PENDING, COALESCE_WINDOW_MS, COALESCIBLE_TYPES)
+    private var flushJob: Job? = null
+    private val restored = CompletableDeferred<Unit>()
+
+    private val flushMutex = Mutex()
+    private val persistMutex = Mutex()
+
+    @Volatile
+    private var file: File? = null
+
+    @Volatile
+    private var runs: SessionRunOutbox? = null
+
+    fun initialize(context: Context) {
+        if (file != null) return
+        val target = File(context.applicationContext.filesDir, FILE_NAME)
+        runs = SessionRunOutbox.getInstance(context)
+        file = target
+        scope.launch {
+            // 旧版本落盘的事件没有 clientEventId，恢复时补上
+            val events = load(target).map { event ->
+                if (event.clientEventId == null) event.copy(clientEventId = newClientEventId()) else event
+            }
+            synchronized(lock) { pending.restore(events) }
+            restored.complete(Unit)
+            // 恢复期间入队的事件也等到现在才落盘
+            persistAsync()
+            if (events.isNotEmpty()) scheduleFlush(0L)
+        }
+    }
+
+    fun enqueue(operationId: Long, request: OperationEventRequest, nowMs: Long = System.currentTimeMillis()) {
+        val event = QueuedOperationEvent(
+            operationId = operationId,
+            eventType = request.eventType,
+            frequency = request.frequency,
+            intensity = request.intensity,
+            timeRemaining = request.timeRemaining,
+            extraDetail = request.extraDetail,
+            occurredAt = nowMs,
+            clientEventId = newClientEventId()
+        )
+        synchronized(lock) { pending.add(event) }
+        persistAsync()
+        scheduleFlush(FLUSH_DELAY_MS)
+    }
+
+    /**
+     * 立即上报队列中的事件（例如停止操作前），失败时保留等待下次重试。
+     */
+    suspend fun flushNow() {
+        flush()
+    }
+
+    private fun scheduleFlush(delayMs: Long) {
+        synchronized(lock) {
+            if (flushJob?.isActive == true) return
+            flushJob = scope.launch {
+                delay(delayMs)
+                // 让出调度位，flush 过程中失败时可以重新安排重试
+                synchronized(lock) { flushJob = null }
+                flush()
+            }
+        }
+    }
+
+    /**
+     * 本地运行 ID 对应的开始请求送达后由 [SessionRunOutbox] 调用，继续上报等待中的事件。
+     */
+    fun requestFlush() {
+        scheduleFlush(0L)
+    }
+
+    private suspend fun flush() {
+        awaitRestored()
+        val runs = runs ?: return
+        while (true) {
+            val outcome = flushMutex.withLock {
+                // 遇到开始请求尚未送达的本地操作时截止，保持事件顺序
+                val batch = synchronized(lock) {
+                    pending.takeBatch(MAX_BATCH_SIZE) { operationId ->
+                        runs.resolve(operationId) != SessionRunOutbox.Resolution.Pending
+                    }
+                }
+                if (batch.isEmpty()) return
+                // 开始请求被放弃的本地操作没有后端记录，其事件直接丢弃
+                val sendable = batch.mapNotNull { event ->
+                    when (val resolution = runs.resolve(event.operationId)) {
+                        is SessionRunOutbox.Resolution.Resolved -> event.copy(operationId = resolution.serverId)
+                        else -> null
+                    }
+                }
+                val outcome = if (sendable.isEmpty()) FlushOutcome.DROPPED else send(sendable)
+                if (outcome != FlushOutcome.RETRY) {
+                    synchronized(lock) { pending.complete(batch) }
+                }
+                outcome
+            }
+            persistAsync()
+            if (outcome == FlushOutcome.RETRY) {
+                scheduleFlush(RETRY_DELAY_MS)
+                return
+            }
+        }
+    }
+
+    private fun newClientEventId(): String = UUID.randomUUID().toString()
+
+    private suspend fun awaitRestored() {
+        if (file != null) restored.await()
+    }
+
+    private enum class FlushOutcome { SENT, DROPPED, RETRY }
+
+    private suspend fun send(batch: List<QueuedOperationEvent>): FlushOutcome {
+        val request = OperationEventBatchRequest(batch)
+        // 实时通道可用时优先走已建立的连接，失败再回退到 HTTP
+        if (RealtimeChannel.sendOperationEvents(request)) {
+            return FlushOutcome.SENT
+        }
+        return try {
+            val response = RetrofitClient.api.logOperationEventsBatch(request)
+            when {
+                response.isSuccessful -> FlushOutcome.SENT
+                // 请求本身有误（例如操作已被删除），重试也不会成功
+                response.code() in 400..499 && response.code() != 401 && response.code() != 429 -> {
+                    Log.w(TAG, "Dropping ${batch.size} operation events, HTTP ${response.code()}")
+                    FlushOutcome.DROPPED
+                }
+                else -> FlushOutcome.RETRY
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to upload operation events: ${e.message}")
+            FlushOutcome.RETRY
+        }
+    }
+
+    private fun persistAsync() {
+        val target = file ?: return
+        scope.launch {
+            restored.await()
+            persistMutex.withLock {
+                val snapshot = synchronized(lock) { pending.snapshot() }
+                try {
+                    if (snapshot.isEmpty()) {
+                        target.delete()
+                    } else {
+                        val tmp = File(target.parentFile, "${target.name}.tmp")
+                        tmp.writeText(gson.toJson(snapshot))
+                        if (!tmp.renameTo(target)) {
+                            target.writeText(gson.toJson(snapshot))
+                            tmp.delete()
+                        }
+                    }
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to persist operation events", e)
+                }
+            }
+        }
+    }
+
+    private fun load(target: File): List<QueuedOperationEvent> {
+        if (!target.exists()) return emptyList()
+        return try {
+            gson.fromJson<List<QueuedOperationEvent>>(target.readText(), listType).orEmpty()
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to restore operation events", e)
+            emptyList()
+        }
+    }
+}
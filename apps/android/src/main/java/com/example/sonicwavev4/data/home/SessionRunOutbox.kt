@@ -0,0 +1,339 @@
+package com.example.sonicwavev4.data.home
+
+import android.content.Context
+import android.util.Log
+import com.example.sonicwavev4.network.ApiService
+import com.example.sonicwavev4.network.RetrofitClient
+import com.example.sonicwavev4.network.StartOperationRequest
+import com.example.sonicwavev4.network.StartPresetModeRequest
+import com.example.sonicwavev4.network.StopOperationRequest
+import com.example.sonicwavev4.network.StopPresetModeRequest
+import com.google.gson.Gson
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import retrofit2.HttpException
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 操作/预设模式运行记录的本地发件箱。
+ *
+ * 开始时立即返回本地生成的运行 ID（负数，与后端 ID 区分），开始与停止请求按顺序落盘，
+ * 由后台协程发送；开始请求成功后记录「本地 ID -> 后端 ID」映射，之后的停止请求和
+ * [OperationEventQueue] 中的事件都通过 [resolve] 换成后端 ID 再上报。
+ *
+ * 只保证同一运行内的顺序：某次运行的请求需要重试时，只有它后面的同一运行的请求等待，
+ * 其他运行的请求照常发送。
+ */
+class SessionRunOutbox internal constructor(
+    private val api: ApiService,
+    private val file: File?,
+    private val scope: CoroutineScope,
+    // 发送停止请求前调用，先送达该运行的调节事件
+    private val beforeStop: suspend () -> Unit = {},
+    // 某个本地 ID 的映射确定后调用
+    private val onResolved: () -> Unit = {}
+) {
+
+    sealed class Resolution {
+        data class Resolved(val serverId: Long) : Resolution()
+        // 开始请求尚未送达
+        object Pending : Resolution()
+        // 开始请求被后端拒绝或过期，相关记录应丢弃
+        object Abandoned : Resolution()
+    }
+
+    private data class OutboxEntry(
+        val kind: String,
+        val localId: Long,
+        val createdAt: Long,
+        val startOperation: StartOperationRequest? = null,
+        val stopOperation: StopOperationRequest? = null,
+        val startPreset: StartPresetModeRequest? = null,
+        val stopPreset: StopPresetModeRequest? = null
+    )
+
+    private data class Snapshot(
+        val entries: List<OutboxEntry> = emptyList(),
+        // 本地 ID -> 后端 ID，0 表示已放弃
+        val mappings: Map<Long, Long> = emptyMap()
+    )
+
+    private val gson = Gson()
+
+    private val lock = Any()
+    private val entries = ArrayList<OutboxEntry>()
+    private val mappings = LinkedHashMap<Long, Long>()
+    private var drainJob: Job? = null
+    private var drainDelayMs = 0L
+
+    private val drainMutex = Mutex()
+    private val persistMutex = Mutex()
+    // 磁盘上的记录读回之前不发送也不落盘，避免覆盖尚未读取的文件
+    private val restored = CompletableDeferred<Unit>()
+
+    init {
+        if (file == null) {
+            restored.complete(Unit)
+        } else {
+            scope.launch {
+                val snapshot = load(file)
+                synchronized(lock) {
+                    // Gson 不走默认参数，缺失字段会是 null
+                    val restoredEntries: List<OutboxEntry>? = snapshot?.entries
+                    val restoredMappings: Map<Long, Long>? = snapshot?.mappings
+                    entries.addAll(0, restoredEntries.orEmpty().filter { it.kind in KNOWN_KINDS })
+                    restoredMappings.orEmpty().forEach { (local, server) -> mappings.putIfAbsent(local, server) }
+                }
+                restored.complete(Unit)
+                persistAsync()
+                scheduleDrain(0L)
+            }
+        }
+    }
+
+    fun isLocalId(id: Long): Boolean = id < 0
+
+    fun startOperation(request: StartOperationRequest): Long {
+        val localId = nextLocalId()
+        append(OutboxEntry(KIND_START_OPERATION, localId, System.currentTimeMillis(), startOperation = request))
+        return localId
+    }
+
+    fun stopOperation(operationId: Long, request: StopOperationRequest) {
+        append(OutboxEntry(KIND_STOP_OPERATION, operationId, System.currentTimeMillis(), stopOperation = request))
+    }
+
+    fun startPresetModeRun(request: StartPresetModeRequest): Long {
+        val localId = nextLocalId()
+        append(OutboxEntry(KIND_START_PRESET, localId, System.currentTimeMillis(), startPreset = request))
+        return localId
+    }
+
+    fun stopPresetModeRun(runId: Long, request: StopPresetModeRequest) {
+        append(OutboxEntry(KIND_STOP_PRESET, runId, System.currentTimeMillis(), stopPreset = request))
+    }
+
+    fun resolve(id: Long): Resolution {
+        if (!isLocalId(id)) return Resolution.Resolved(id)
+        synchronized(lock) {
+            val serverId = mappings[id]
+            return when {
+                serverId == null -> if (entries.any { it.localId == id && it.isStart() }) {
+                    Resolution.Pending
+                } else {
+                    // 没有映射也没有待发送的开始请求（例如映射已被淘汰），无法再上报
+                    Resolution.Abandoned
+                }
+                serverId > 0 -> Resolution.Resolved(serverId)
+                else -> Resolution.Abandoned
+            }
+        }
+    }
+
+    /**
+     * 尚未送达的请求数。
+     */
+    internal fun pendingCount(): Int = synchronized(lock) { entries.size }
+
+    private fun append(entry: OutboxEntry) {
+        synchronized(lock) { entries.add(entry) }
+        persistAsync()
+        scheduleDrain(0L)
+    }
+
+    private fun scheduleDrain(delayMs: Long) {
+        synchronized(lock) {
+            val current = drainJob
+            if (current?.isActive == true) {
+                // 已安排的重试比这次晚时提前执行，新请求不必等别的运行的重试间隔
+                if (delayMs >= drainDelayMs) return
+                current.cancel()
+            }
+            drainDelayMs = delayMs
+            val job = scope.launch(start = CoroutineStart.LAZY) {
+                delay(delayMs)
+                // 让出调度位，发送过程中失败时可以重新安排重试
+                synchronized(lock) { if (drainJob === coroutineContext.job) drainJob = null }
+                drain()
+            }
+            drainJob = job
+            job.start()
+        }
+    }
+
+    private suspend fun drain() {
+        restored.await()
+        drainMutex.withLock {
+            // 本轮需要重试的运行，其后续请求留到下次
+            val blocked = HashSet<Long>()
+            while (true) {
+                val entry = synchronized(lock) { entries.firstOrNull { it.localId !in blocked } } ?: break
+                val now = System.currentTimeMillis()
+                val sent = if (now - entry.createdAt > MAX_ENTRY_AGE_MS) {
+                    Log.w(TAG, "Discarding expired ${entry.kind} for ${entry.localId}")
+                    if (entry.isStart()) recordMapping(entry.localId, 0L)
+                    true
+                } else {
+                    send(entry)
+                }
+                if (!sent) {
+                    blocked.add(entry.localId)
+                    continue
+                }
+                synchronized(lock) { entries.remove(entry) }
+                persistAsync()
+            }
+            if (blocked.isNotEmpty()) scheduleDrain(RETRY_DELAY_MS)
+        }
+    }
+
+    /**
+     * 发送一条记录；返回 true 表示已完成（成功或被永久拒绝），false 表示稍后重试。
+     */
+    private suspend fun send(entry: OutboxEntry): Boolean {
+        return try {
+            when (entry.kind) {
+                KIND_START_OPERATION -> {
+                    val request = entry.startOperation ?: return true
+                    recordMapping(entry.localId, api.startOperation(request).operationId)
+                }
+                KIND_START_PRESET -> {
+                    val request = entry.startPreset ?: return true
+                    recordMapping(entry.localId, api.startPresetMode(request).runId)
+                }
+                KIND_STOP_OPERATION -> {
+                    val request = entry.stopOperation ?: return true
+                    val serverId = serverIdFor(entry.localId) ?: return true
+                    // 先送达本次操作的调节事件，保证后端记录顺序为 events -> stop
+                    beforeStop()
+                    val response = api.stopOperation(serverId, request)
+                    if (!response.isSuccessful) return !isRetryable(response.code())
+                }
+                KIND_STOP_PRESET -> {
+                    val request = entry.stopPreset ?: return true
+                    val serverId = serverIdFor(entry.localId) ?: return true
+                    val response = api.stopPresetMode(serverId, request)
+                    if (!response.isSuccessful) return !isRetryable(response.code())
+                }
+            }
+            true
+        } catch (e: HttpException) {
+            if (isRetryable(e.code())) {
+                false
+            } else {
+                Log.w(TAG, "Dropping ${entry.kind} for ${entry.localId}, HTTP ${e.code()}")
+                if (entry.isStart()) recordMapping(entry.localId, 0L)
+                true
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to send ${entry.kind}: ${e.message}")
+            false
+        } catch (e: Exception) {
+            Log.e(TAG, "Unexpected error sending ${entry.kind}", e)
+            false
+        }
+    }
+
+    // 停止请求排在同一运行的开始请求之后，此时映射一定已经确定；null 表示应丢弃
+    private fun serverIdFor(id: Long): Long? {
+        return when (val resolution = resolve(id)) {
+            is Resolution.Resolved -> resolution.serverId
+            else -> null
+        }
+    }
+
+    private fun recordMapping(localId: Long, serverId: Long) {
+        synchronized(lock) {
+            mappings[localId] = serverId
+            val iterator = mappings.keys.iterator()
+            while (mappings.size > MAX_MAPPINGS && iterator.hasNext()) {
+                iterator.next()
+                iterator.remove()
+            }
+        }
+        persistAsync()
+        onResolved()
+    }
+
+    private fun isRetryable(code: Int): Boolean = code == 401 || code == 408 || code == 429 || code >= 500
+
+    private fun OutboxEntry.isStart(): Boolean = kind == KIND_START_OPERATION || kind == KIND_START_PRESET
+
+    private fun persistAsync() {
+        val target = file ?: return
+        scope.launch {
+            restored.await()
+            persistMutex.withLock {
+                val snapshot = synchronized(lock) { Snapshot(ArrayList(entries), LinkedHashMap(mappings)) }
+                try {
+                    val tmp = File(target.parentFile, "${target.name}.tmp")
+                    tmp.writeText(gson.toJson(snapshot))
+                    if (!tmp.renameTo(target)) {
+                        target.writeText(gson.toJson(snapshot))
+                        tmp.delete()
+                    }
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to persist session outbox", e)
+                }
+            }
+        }
+    }
+
+    private fun load(target: File): Snapshot? {
+        if (!target.exists()) return null
+        return try {
+            gson.fromJson(target.readText(), Snapshot::class.java)
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to restore session outbox", e)
+            null
+        }
+    }
+
+    companion object {
+        private const val TAG = "SessionRunOutbox"
+        private const val FILE_NAME = "session_run_outbox.json"
+        private const val RETRY_DELAY_MS = 30_000L
+        private const val MAX_ENTRY_AGE_MS = 7L * 24 * 60 * 60 * 1000
+        private const val MAX_MAPPINGS = 200
+
+        private const val KIND_START_OPERATION = "start_operation"
+        private const val KIND_STOP_OPERATION = "stop_operation"
+        private const val KIND_START_PRESET = "start_preset"
+        private const val KIND_STOP_PRESET = "stop_preset"
+        private val KNOWN_KINDS = setOf(KIND_START_OPERATION, KIND_STOP_OPERATION, KIND_START_PRESET, KIND_STOP_PRESET)
+
+        private val localIdSequence = AtomicLong(0L)
+
+        @Volatile
+        private var instance: SessionRunOutbox? = null
+
+        fun getInstance(context: Context): SessionRunOutbox {
+            return instance ?: synchronized(this) {
+                instance ?: SessionRunOutbox(
+                    api = RetrofitClient.api,
+                    file = File(context.applicationContext.filesDir, FILE_NAME),
+                    scope = CoroutineScope(SupervisorJob() + Dispatchers.IO),
+                    beforeStop = { OperationEventQueue.flushNow() },
+                    onResolved = { OperationEventQueue.requestFlush() }
+                ).also { instance = it }
+            }
+        }
+
+        // 基于时间的负数 ID，进程重启后不会与已落盘的记录冲突
+        private fun nextLocalId(): Long {
+            val sequence = localIdSequence.getAndIncrement() % 1000
+            return -(System.currentTimeMillis() * 1000 + sequence)
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.sonicwavev4.data.playlist.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import kotlinx.coroutines.flow.Flow
+
+@Dao
+interface PlaylistDao {
+    @Query("SELECT * FROM playlists ORDER BY position ASC, created_at ASC")
+    fun observePlaylists(): Flow<List<PlaylistEntity>>
+
+    @Query("SELECT * FROM playlist_tracks ORDER BY playlist_id ASC, position ASC")
+    fun observeTracks(): Flow<List<PlaylistTrackEntity>>
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertPlaylist(entity: PlaylistEntity): Long
+
+    @Query("UPDATE playlists SET name = :name WHERE id = :id")
+    suspend fun renamePlaylist(id: String, name: String)
+
+    @Query("DELETE FROM playlists WHERE id = :id")
+    suspend fun deletePlaylist(id: String)
+
+    @Query("DELETE FROM playlist_tracks WHERE playlist_id = :playlistId")
+    suspend fun deleteTracksOf(playlistId: String)
+
+    @Query("SELECT MAX(position) FROM playlists")
+    suspend fun maxPlaylistPosition(): Double?
+
+    @Query("SELECT MAX(position) FROM playlist_tracks WHERE playlist_id = :playlistId")
+    suspend fun maxTrackPosition(playlistId: String): Double?
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertTrack(entity: PlaylistTrackEntity): Long
+
+    @Query("DELETE FROM playlist_tracks WHERE playlist_id = :playlistId AND track_uri = :trackUri")
+    suspend fun deleteTrack(playlistId: String, trackUri: String)
+
+    @Query("UPDATE playlist_tracks SET position = :position WHERE playlist_id = :playlistId AND track_uri = :trackUri")
+    suspend fun updateTrackPosition(playlistId: String, trackUri: String, position: Double)
+
+    /**
+     * 排除 [excludedUri] 后按顺序取从 [offset] 开始的 [limit] 个位置，用于找移动目标的相邻项。
+     */
+    @Query(
+        """
+            SELECT position FROM playlist_tracks
+            WHERE playlist_id = :playlistId AND track_uri != :excludedUri
+            ORDER BY position ASC
+            LIMIT :limit OFFSET :offset
+        """
+    )
+    suspend fun positionsExcluding(playlistId: String, excludedUri: String, offset: Int, limit: Int): List<Double>
+
+    @Query("SELECT track_uri FROM playlist_tracks WHERE playlist_id = :playlistId ORDER BY position ASC")
+    suspend fun trackUris(playlistId: String): List<String>
+}
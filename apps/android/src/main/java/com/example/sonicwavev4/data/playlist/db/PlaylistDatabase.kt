@@ -0,0 +1,99 @@
+package com.example.sonicwavev4.data.playlist.db
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import androidx.room.Database
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.example.sonicwavev4.utils.FractionalIndex
+import org.json.JSONArray
+import java.io.File
+
+@Database(
+    entities = [PlaylistEntity::class, PlaylistTrackEntity::class],
+    version = 1,
+    exportSchema = false
+)
+abstract class PlaylistDatabase : RoomDatabase() {
+    abstract fun playlistDao(): PlaylistDao
+
+    companion object {
+        private const val TAG = "PlaylistDatabase"
+
+        @Volatile
+        private var instance: PlaylistDatabase? = null
+
+        fun getInstance(context: Context): PlaylistDatabase {
+            return instance ?: synchronized(this) {
+                instance ?: buildDatabase(context.applicationContext).also { instance = it }
+            }
+        }
+
+        private fun buildDatabase(context: Context): PlaylistDatabase =
+            Room.databaseBuilder(
+                context,
+                PlaylistDatabase::class.java,
+                "playlists.db"
+            )
+                .addCallback(LegacyImportCallback(context))
+                .build()
+    }
+
+    /**
+     * 建库时导入旧版 JSON 歌单（playlists.json 带曲目，local_playlists.json 只有名称），
+     * 与建表在同一个事务里完成。旧文件保留不删。
+     */
+    private class LegacyImportCallback(private val context: Context) : Callback() {
+        override fun onCreate(db: SupportSQLiteDatabase) {
+            val now = System.currentTimeMillis()
+            var playlistIndex = 0
+            val importedIds = HashSet<String>()
+
+            // 返回是否新插入了歌单；空 ID 或重复 ID 的歌单被跳过
+            fun insertPlaylist(id: String, name: String): Boolean {
+                if (id.isBlank() || !importedIds.add(id)) return false
+                return db.insert("playlists", SQLiteDatabase.CONFLICT_IGNORE, ContentValues().apply {
+                    put("id", id)
+                    put("name", name)
+                    put("position", FractionalIndex.at(playlistIndex++))
+                    put("created_at", now)
+                }) != -1L
+            }
+
+            readArray(File(context.filesDir, "playlists.json"))?.let { array ->
+                for (i in 0 until array.length()) {
+                    val obj = array.optJSONObject(i) ?: continue
+                    val id = obj.optString("id")
+                    if (!insertPlaylist(id, obj.optString("name"))) continue
+                    val tracks = obj.optJSONArray("trackUris") ?: continue
+                    for (j in 0 until tracks.length()) {
+                        db.insert("playlist_tracks", SQLiteDatabase.CONFLICT_IGNORE, ContentValues().apply {
+                            put("playlist_id", id)
+                            put("track_uri", tracks.optString(j))
+                            put("position", FractionalIndex.at(j))
+                        })
+                    }
+                }
+            }
+            readArray(File(context.filesDir, "local_playlists.json"))?.let { array ->
+                for (i in 0 until array.length()) {
+                    val obj = array.optJSONObject(i) ?: continue
+                    insertPlaylist(obj.optString("id"), obj.optString("name"))
+                }
+            }
+        }
+
+        private fun readArray(file: File): JSONArray? {
+            if (!file.exists()) return null
+            return try {
+                file.readText().takeIf { it.isNotBlank() }?.let { JSONArray(it) }
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to import ${file.name}", e)
+                null
+            }
+        }
+    }
+}
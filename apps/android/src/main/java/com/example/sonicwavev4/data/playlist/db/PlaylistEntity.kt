@@ -0,0 +1,36 @@
+package com.example.sonicwavev4.data.playlist.db
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+@Entity(tableName = "playlists")
+data class PlaylistEntity(
+    @PrimaryKey
+    @ColumnInfo(name = "id")
+    val id: String,
+    @ColumnInfo(name = "name")
+    val name: String,
+    @ColumnInfo(name = "position")
+    val position: Double,
+    @ColumnInfo(name = "created_at")
+    val createdAt: Long
+)
+
+/**
+ * 歌单中的一首歌；同一歌单内按 [position]（见 FractionalIndex）排序。
+ */
+@Entity(
+    tableName = "playlist_tracks",
+    primaryKeys = ["playlist_id", "track_uri"],
+    indices = [Index(value = ["playlist_id", "position"])]
+)
+data class PlaylistTrackEntity(
+    @ColumnInfo(name = "playlist_id")
+    val playlistId: String,
+    @ColumnInfo(name = "track_uri")
+    val trackUri: String,
+    @ColumnInfo(name = "position")
+    val position: Double
+)
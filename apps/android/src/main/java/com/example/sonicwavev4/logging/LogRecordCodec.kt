@@ -0,0 +1,298 @@
+package com.example.sonicwavev4.logging
+
+import okio.Buffer
+import okio.BufferedSink
+import okio.BufferedSource
+import java.io.IOException
+
+/**
+ * 日志分段的紧凑二进制格式。
+ *
+ * 每一帧为 `varint 长度 + 负载`，负载首个 varint 为帧类型：
+ * - [RECORD_STRING]：向本分段字典追加一个字符串（设备型号、URL 模板、请求方法等）；
+ * - [RECORD_ENTRY]：一条日志，字符串字段以字典编号引用，数值字段为 varint。
+ *
+ * URL 中的纯数字路径段会被替换为 `{}` 并单独存储，使同一接口的 URL 共享一个字典项。
+ */
+internal object LogRecordCodec {
+
+    const val RECORD_STRING = 1
+    const val RECORD_ENTRY = 2
+
+    private const val FLAG_SUCCESSFUL = 1
+    private const val FLAG_RESPONSE_CODE = 1 shl 1
+    private const val FLAG_ERROR_MESSAGE = 1 shl 2
+    private const val FLAG_QUERY = 1 shl 3
+    private const val FLAG_LATENCY = 1 shl 4
+
+    private const val ID_PLACEHOLDER = "{}"
+    private const val MAX_ID_DIGITS = 18
+    private const val MAX_URL_IDS = 64
+    private const val MAX_FRAME_BYTES = 64 * 1024L
+
+    /**
+     * 单个分段内的字符串字典，编号按出现顺序递增；写入与读取两端各自维护一份。
+     */
+    class Dictionary {
+        private val ids = HashMap<String, Int>()
+        private val strings = ArrayList<String>()
+
+        fun idOf(value: String): Int? = ids[value]
+
+        fun add(value: String): Int {
+            val id = strings.size
+            strings.add(value)
+            ids[value] = id
+            return id
+        }
+
+        operator fun get(id: Int): String {
+            return strings.getOrNull(id) ?: throw IOException("Unknown dictionary id $id")
+        }
+    }
+
+    class Frame(val payload: Buffer, val size: Long)
+
+    class UrlParts(val template: String, val ids: List<Long>, val query: String?)
+
+    /**
+     * 编码一条日志；字典中尚不存在的字符串会先以 [RECORD_STRING] 帧写出。
+     */
+    fun encode(entry: LogEntry, dictionary: Dictionary, sink: BufferedSink) {
+        fun ref(value: String): Int {
+            dictionary.idOf(value)?.let { return it }
+            val id = dictionary.add(value)
+            val payload = Buffer()
+                .writeVarint(RECORD_STRING.toLong())
+                .writeVarint(id.toLong())
+                .writeString(value)
+            writeFrame(sink, payload)
+            return id
+        }
+
+        val url = splitUrl(entry.request_url)
+        val levelId = ref(entry.log_level)
+        val methodId = ref(entry.request_method)
+        val templateId = ref(url.template)
+        val queryId = url.query?.let { ref(it) }
+        val modelId = ref(entry.device_info.model)
+        val osId = ref(entry.device_info.os_version)
+
+        var flags = 0
+        if (entry.is_successful) flags = flags or FLAG_SUCCESSFUL
+        if (entry.response_code != null) flags = flags or FLAG_RESPONSE_CODE
+        if (entry.error_message != null) flags = flags or FLAG_ERROR_MESSAGE
+        if (queryId != null) flags = flags or FLAG_QUERY
+        if (entry.latency != null) flags = flags or FLAG_LATENCY
+
+        val payload = Buffer()
+            .writeVarint(RECORD_ENTRY.toLong())
+            .writeVarint(flags.toLong())
+            .writeVarint(levelId.toLong())
+            .writeVarint(methodId.toLong())
+            .writeVarint(templateId.toLong())
+            .writeVarint(url.ids.size.toLong())
+        url.ids.forEach { payload.writeVarint(it) }
+        queryId?.let { payload.writeVarint(it.toLong()) }
+        entry.response_code?.let { payload.writeVarint(it.toLong()) }
+        payload.writeVarint(entry.duration_ms.coerceAtLeast(0L))
+        payload.writeVarint(modelId.toLong())
+        payload.writeVarint(osId.toLong())
+        entry.error_message?.let { payload.writeString(it) }
+        entry.latency?.let { payload.writeLatency(it) }
+        writeFrame(sink, payload)
+    }
+
+    /**
+     * 读取下一帧；到达末尾或遇到不完整的帧（例如写入时崩溃）时返回 null。
+     */
+    fun readFrame(source: BufferedSource): Frame? {
+        if (source.exhausted()) return null
+        var headerSize = 0L
+        var length = 0L
+        var shift = 0
+        while (true) {
+            if (!source.request(1) || shift > 63) return null
+            val b = source.readByte().toInt()
+            headerSize++
+            length = length or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) break
+            shift += 7
+        }
+        if (length <= 0L || length > MAX_FRAME_BYTES || !source.request(length)) return null
+        val payload = Buffer()
+        source.readFully(payload, length)
+        return Frame(payload, headerSize + length)
+    }
+
+    /**
+     * 解码一帧：字典帧写入 [dictionary] 并返回 null，日志帧返回 [LogEntry]。
+     */
+    fun decode(payload: Buffer, dictionary: Dictionary): LogEntry? {
+        return when (payload.readVarint().toInt()) {
+            RECORD_STRING -> {
+                val id = payload.readVarint().toInt()
+                val value = payload.readString()
+                if (dictionary.add(value) != id) throw IOException("Dictionary out of sync at id $id")
+                null
+            }
+            RECORD_ENTRY -> {
+                val flags = payload.readVarint().toInt()
+                val level = dictionary[payload.readVarint().toInt()]
+                val method = dictionary[payload.readVarint().toInt()]
+                val template = dictionary[payload.readVarint().toInt()]
+                val idCount = payload.readVarint()
+                if (idCount > MAX_URL_IDS) throw IOException("Too many url ids")
+                val ids = List(idCount.toInt()) { payload.readVarint() }
+                val query = if (flags and FLAG_QUERY != 0) dictionary[payload.readVarint().toInt()] else null
+                val responseCode = if (flags and FLAG_RESPONSE_CODE != 0) payload.readVarint().toInt() else null
+                val duration = payload.readVarint()
+                val model = dictionary[payload.readVarint().toInt()]
+                val osVersion = dictionary[payload.readVarint().toInt()]
+                val errorMessage = if (flags and FLAG_ERROR_MESSAGE != 0) payload.readString() else null
+                val latency = if (flags and FLAG_LATENCY != 0) payload.readLatency() else null
+                LogEntry(
+                    log_level = level,
+                    request_url = joinUrl(UrlParts(template, ids, query)),
+                    request_method = method,
+                    response_code = responseCode,
+                    is_successful = flags and FLAG_SUCCESSFUL != 0,
+                    duration_ms = duration,
+                    error_message = errorMessage,
+                    device_info = DeviceInfo(model = model, os_version = osVersion),
+                    latency = latency
+                )
+            }
+            else -> throw IOException("Unknown log record type")
+        }
+    }
+
+    fun splitUrl(url: String): UrlParts {
+        val base = url.substringBefore('?')
+        val query = if (url.contains('?')) url.substringAfter('?') else null
+        if (base.contains(ID_PLACEHOLDER)) {
+            return UrlParts(base, emptyList(), query)
+        }
+        val ids = mutableListOf<Long>()
+        val template = base.split('/').joinToString("/") { segment ->
+            if (isNumericId(segment)) {
+                ids.add(segment.toLong())
+                ID_PLACEHOLDER
+            } else {
+                segment
+            }
+        }
+        return UrlParts(template, ids, query)
+    }
+
+    fun joinUrl(parts: UrlParts): String {
+        val remaining = parts.ids.iterator()
+        val base = if (parts.ids.isEmpty()) {
+            parts.template
+        } else {
+            parts.template.split('/').joinToString("/") { segment ->
+                if (segment == ID_PLACEHOLDER && remaining.hasNext()) remaining.next().toString() else segment
+            }
+        }
+        return if (parts.query != null) "$base?${parts.query}" else base
+    }
+
+    // 只替换能无损还原的数字（无前导零、不溢出）
+    private fun isNumericId(segment: String): Boolean {
+        if (segment.isEmpty() || segment.length > MAX_ID_DIGITS) return false
+        if (segment.length > 1 && segment[0] == '0') return false
+        return segment.all { it in '0'..'9' }
+    }
+
+    private fun writeFrame(sink: BufferedSink, payload: Buffer) {
+        writeVarint(sink, payload.size)
+        sink.writeAll(payload)
+    }
+
+    private fun Buffer.writeVarint(value: Long): Buffer {
+        writeVarint(this, value)
+        return this
+    }
+
+    private fun writeVarint(sink: BufferedSink, value: Long) {
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            sink.writeByte(((remaining and 0x7F) or 0x80).toInt())
+            remaining = remaining ushr 7
+        }
+        sink.writeByte(remaining.toInt())
+    }
+
+    private fun Buffer.readVarint(): Long {
+        var result = 0L
+        var shift = 0
+        while (shift < 64) {
+            if (exhausted()) throw IOException("Truncated varint")
+            val b = readByte().toInt()
+            result = result or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) return result
+            shift += 7
+        }
+        throw IOException("Malformed varint")
+    }
+
+    // 直方图只存非空桶：(桶序号, 计数)
+    private fun Buffer.writeLatency(rollup: LatencyRollup) {
+        writeVarint(rollup.minute_start)
+        writeVarint(rollup.count.toLong())
+        writeVarint(rollup.error_count.toLong())
+        writeVarint(rollup.p50_ms)
+        writeVarint(rollup.p95_ms)
+        writeVarint(rollup.p99_ms)
+        writeVarint(rollup.max_ms)
+        val buckets = rollup.histogram.mapNotNull { (label, count) ->
+            LatencyHistogram.indexOf(label).takeIf { it >= 0 }?.let { it to count }
+        }
+        writeVarint(buckets.size.toLong())
+        buckets.forEach { (index, count) ->
+            writeVarint(index.toLong())
+            writeVarint(count.toLong())
+        }
+    }
+
+    private fun Buffer.readLatency(): LatencyRollup {
+        val minuteStart = readVarint()
+        val count = readVarint().toInt()
+        val errorCount = readVarint().toInt()
+        val p50 = readVarint()
+        val p95 = readVarint()
+        val p99 = readVarint()
+        val max = readVarint()
+        val bucketCount = readVarint()
+        if (bucketCount > LatencyHistogram.BOUNDS_MS.size + 1) throw IOException("Too many histogram buckets")
+        val histogram = LinkedHashMap<String, Int>()
+        repeat(bucketCount.toInt()) {
+            val index = readVarint().toInt()
+            if (index !in 0..LatencyHistogram.BOUNDS_MS.size) throw IOException("Unknown histogram bucket")
+            histogram[LatencyHistogram.label(index)] = readVarint().toInt()
+        }
+        return LatencyRollup(
+            minute_start = minuteStart,
+            count = count,
+            error_count = errorCount,
+            p50_ms = p50,
+            p95_ms = p95,
+            p99_ms = p99,
+            max_ms = max,
+            histogram = histogram
+        )
+    }
+
+    private fun Buffer.writeString(value: String): Buffer {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeVarint(bytes.size.toLong())
+        write(bytes)
+        return this
+    }
+
+    private fun Buffer.readString(): String {
+        val length = readVarint()
+        if (length < 0 || length > size) throw IOException("Truncated string")
+        return readUtf8(length)
+    }
+}
@@ -1,9 +1,16 @@
 package com.example.sonicwavev4.logging
 
 import android.content.Context
+import android.os.Build
 import com.google.gson.Gson
-import com.google.gson.JsonSyntaxException
+import okio.Buffer
+import okio.BufferedSink
+import okio.appendingSink
+import okio.buffer
+import okio.source
 import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
 
 data class LogEntry(
     val log_level: String,
@@ -13,21 +20,67 @@ data class LogEntry(
     val is_successful: Boolean,
     val duration_ms: Long,
     val error_message: String?,
-    val device_info: DeviceInfo
+    val device_info: DeviceInfo,
+    val latency: LatencyRollup? = null,
+    val compression: CompressionRollup? = null
 )
 
 data class DeviceInfo(
     val model: String,
     val os_version: String
+) {
+    companion object {
+        fun current(): DeviceInfo = DeviceInfo(
+            model = Build.MODEL,
+            os_version = Build.VERSION.RELEASE
+        )
+    }
+}
+
+/**
+ * 上传游标：指向下一条尚未上传的记录（段编号 + 段内字节偏移）。
+ */
+data class LogCursor(val segment: Long, val offset: Long)
+
+/**
+ * 某个分段内待上传的字节区间 [start, end)。
+ */
+class LogRange(val file: File, val start: Long, val end: Long)
+
+class LogBatch(
+    val ranges: List<LogRange>,
+    val count: Int,
+    val end: LogCursor
 )
 
+/**
+ * 客户端日志按固定大小的滚动分段文件存储（格式见 [LogRecordCodec]），并持久化一个上传游标。
+ *
+ * 上传确认只推进游标或删除整段文件，不再重写剩余日志；
+ * 总大小超过上限时从最旧的分段开始淘汰。
+ */
 object LogRepository {
 
-    private const val LOG_FILE_NAME = "app_logs.jsonl"
+    private const val LEGACY_LOG_FILE_NAME = "app_logs.jsonl"
+    private const val LOG_DIR_NAME = "client_logs"
+    private const val CURSOR_FILE_NAME = "upload.cursor"
+    private const val SEGMENT_SUFFIX = ".seg"
+    private const val LEGACY_SEGMENT_SUFFIX = ".jsonl"
+    private const val MAX_SEGMENT_BYTES = 64 * 1024L
+    private const val MAX_TOTAL_BYTES = 2 * 1024 * 1024L
     private const val MAX_TEXT_LENGTH = 2000
     private const val MAX_URL_LENGTH = 512
+    private const val JSON_OVERHEAD_BYTES = 256L
+    private const val LATENCY_OVERHEAD_BYTES = 192L
     private val gson = Gson()
 
+    private val lock = Any()
+
+    // 按编号升序排列的分段；首次访问时从磁盘加载
+    private var segments: ArrayDeque<Long>? = null
+    private var totalBytes = 0L
+    private var activeDictionary = LogRecordCodec.Dictionary()
+
     private fun String.truncate(max: Int): String {
         return if (length <= max) this else take(max)
     }
@@ -46,42 +99,304 @@ object LogRepository {
     }
 
     fun writeLog(context: Context, logEntry: LogEntry) {
-        val file = File(context.filesDir, LOG_FILE_NAME)
         val sanitized = sanitize(logEntry)
-        val logLine = gson.toJson(sanitized) + "\n"
-        file.appendText(logLine)
+        synchronized(lock) {
+            val dir = logDir(context)
+            val loaded = loadSegments(dir)
+            var active = loaded.lastOrNull()
+            if (active == null || segmentFile(dir, active).length() >= MAX_SEGMENT_BYTES) {
+                active = (active ?: 0L) + 1
+                loaded.addLast(active)
+                activeDictionary = LogRecordCodec.Dictionary()
+            }
+            val buffer = Buffer()
+            LogRecordCodec.encode(sanitized, activeDictionary, buffer)
+            val size = buffer.size
+            try {
+                segmentFile(dir, active).appendingSink().buffer().use { it.writeAll(buffer) }
+            } catch (e: IOException) {
+                // 内存中的字典可能已与磁盘不一致，下次访问时重新加载并截断残缺的帧
+                segments = null
+                throw e
+            }
+            totalBytes += size
+            evictOldest(dir, loaded)
+        }
     }
 
-    fun readLogs(context: Context): List<LogEntry> {
-        val file = File(context.filesDir, LOG_FILE_NAME)
-        if (!file.exists()) {
-            return emptyList()
+    /**
+     * 从上传游标开始按字节偏移划定一批日志，不修改任何文件。
+     * [maxBytes] 按展开后的 JSON 大小估算；游标之后没有完整记录时返回 null。
+     */
+    fun nextBatch(context: Context, maxEntries: Int, maxBytes: Int): LogBatch? {
+        synchronized(lock) {
+            val dir = logDir(context)
+            val loaded = loadSegments(dir)
+            if (loaded.isEmpty()) return null
+            val ranges = mutableListOf<LogRange>()
+            var cursor = clampCursor(readCursor(dir), loaded)
+            var count = 0
+            var bytes = 0L
+            var full = false
+
+            for (segment in loaded) {
+                if (segment < cursor.segment) continue
+                val file = segmentFile(dir, segment)
+                val start = if (cursor.segment == segment) cursor.offset else 0L
+                if (start >= file.length()) {
+                    cursor = LogCursor(segment, start)
+                    continue
+                }
+                var committed = start
+                // 字典按分段独立，需要从分段开头重放字典帧
+                scanSegment(file, LogRecordCodec.Dictionary()) { frameStart, frameEnd, entry ->
+                    if (frameStart < start) return@scanSegment true
+                    if (entry != null) {
+                        val size = estimateJsonBytes(entry)
+                        if (count > 0 && bytes + size > maxBytes) {
+                            full = true
+                            return@scanSegment false
+                        }
+                        count++
+                        bytes += size
+                    }
+                    committed = frameEnd
+                    count < maxEntries
+                }
+                if (committed > start) {
+                    ranges.add(LogRange(file, start, committed))
+                }
+                cursor = LogCursor(segment, committed)
+                if (full || count >= maxEntries) break
+            }
+
+            return if (ranges.isEmpty()) null else LogBatch(ranges, count, cursor)
         }
-        return file.readLines().mapNotNull {
-            try {
-                gson.fromJson(it, LogEntry::class.java)
-            } catch (e: JsonSyntaxException) {
-                null
+    }
+
+    /**
+     * 把批次中的记录展开为后端接收的 JSON 数组并逐条写入 [sink]，内存占用只与单条记录有关。
+     */
+    fun writeBatchJson(batch: LogBatch, sink: BufferedSink) {
+        sink.writeByte('['.code)
+        var first = true
+        for (range in batch.ranges) {
+            scanSegment(range.file, LogRecordCodec.Dictionary()) { frameStart, frameEnd, entry ->
+                if (frameStart >= range.start && entry != null) {
+                    if (!first) sink.writeByte(','.code)
+                    sink.writeUtf8(gson.toJson(entry))
+                    first = false
+                }
+                frameEnd < range.end
+            }
+        }
+        sink.writeByte(']'.code)
+    }
+
+    /**
+     * 确认 [cursor] 之前的日志已上传：持久化游标并删除已完整上传的分段。
+     */
+    fun acknowledge(context: Context, cursor: LogCursor) {
+        synchronized(lock) {
+            val dir = logDir(context)
+            val loaded = loadSegments(dir)
+            var acked = cursor
+            while (loaded.isNotEmpty()) {
+                val first = loaded.first()
+                val file = segmentFile(dir, first)
+                val fullyAcked = first < acked.segment ||
+                    (first == acked.segment && acked.offset >= file.length() && first != loaded.last())
+                if (!fullyAcked) break
+                totalBytes -= file.length()
+                file.delete()
+                loaded.removeFirst()
+                if (first == acked.segment) {
+                    acked = LogCursor(loaded.first(), 0L)
+                }
             }
+            writeCursor(dir, acked)
         }
     }
 
     fun clearLogs(context: Context) {
-        val file = File(context.filesDir, LOG_FILE_NAME)
-        if (file.exists()) {
-            file.delete()
+        synchronized(lock) {
+            logDir(context).deleteRecursively()
+            File(context.filesDir, LEGACY_LOG_FILE_NAME).delete()
+            segments = null
+            totalBytes = 0L
+        }
+    }
+
+    private fun logDir(context: Context): File {
+        val dir = File(context.filesDir, LOG_DIR_NAME)
+        if (!dir.exists()) {
+            dir.mkdirs()
+        }
+        return dir
+    }
+
+    private fun segmentFile(dir: File, segment: Long): File {
+        return File(dir, segment.toString().padStart(10, '0') + SEGMENT_SUFFIX)
+    }
+
+    private fun loadSegments(dir: File): ArrayDeque<Long> {
+        segments?.let { return it }
+        migrateLegacyFiles(dir)
+        val ids = dir.listFiles { file -> file.name.endsWith(SEGMENT_SUFFIX) }
+            ?.mapNotNull { it.name.removeSuffix(SEGMENT_SUFFIX).toLongOrNull() }
+            ?.sorted()
+            .orEmpty()
+        activeDictionary = LogRecordCodec.Dictionary()
+        ids.lastOrNull()?.let { recoverActiveSegment(segmentFile(dir, it)) }
+        totalBytes = ids.sumOf { segmentFile(dir, it).length() }
+        return ArrayDeque(ids).also {
+            segments = it
+            evictOldest(dir, it)
+        }
+    }
+
+    // 重建活动分段的字典，并截断进程崩溃时留下的残缺帧，保证后续追加仍可解析
+    private fun recoverActiveSegment(file: File) {
+        val validEnd = scanSegment(file, activeDictionary) { _, _, _ -> true }
+        if (validEnd < file.length()) {
+            RandomAccessFile(file, "rw").use { it.setLength(validEnd) }
         }
     }
 
-    fun removeLogs(context: Context, count: Int) {
-        if (count <= 0) return
-        val file = File(context.filesDir, LOG_FILE_NAME)
-        if (!file.exists()) return
-        val remaining = file.readLines().drop(count)
-        if (remaining.isEmpty()) {
+    /**
+     * 旧版本留下的 JSON 文本日志（单文件 app_logs.jsonl 与 .jsonl 分段）：把游标之后尚未上传的
+     * 记录逐条转写成二进制分段，再删除旧文件和旧游标。
+     */
+    private fun migrateLegacyFiles(dir: File) {
+        val legacyFile = File(dir.parentFile, LEGACY_LOG_FILE_NAME)
+        val legacySegments = dir.listFiles { file -> file.name.endsWith(LEGACY_SEGMENT_SUFFIX) }
+            ?.mapNotNull { file -> file.name.removeSuffix(LEGACY_SEGMENT_SUFFIX).toLongOrNull()?.let { it to file } }
+            ?.sortedBy { it.first }
+            .orEmpty()
+        if (legacySegments.isEmpty() && !legacyFile.exists()) return
+
+        val cursor = readCursor(dir)
+        var nextSegment = dir.listFiles { file -> file.name.endsWith(SEGMENT_SUFFIX) }
+            ?.mapNotNull { it.name.removeSuffix(SEGMENT_SUFFIX).toLongOrNull() }
+            ?.maxOrNull()
+            ?: 0L
+        var sink: BufferedSink? = null
+        var dictionary = LogRecordCodec.Dictionary()
+        var written = 0L
+        val append: (LogEntry) -> Unit = { entry ->
+            if (sink == null || written >= MAX_SEGMENT_BYTES) {
+                sink?.close()
+                nextSegment++
+                sink = segmentFile(dir, nextSegment).appendingSink().buffer()
+                dictionary = LogRecordCodec.Dictionary()
+                written = 0L
+            }
+            val buffer = Buffer()
+            LogRecordCodec.encode(entry, dictionary, buffer)
+            written += buffer.size
+            sink!!.writeAll(buffer)
+        }
+        try {
+            // 单文件日志在上传成功后会被重写，里面剩下的都是未上传的
+            if (legacyFile.exists()) forEachLegacyRecord(legacyFile, 0L, append)
+            legacySegments.forEach { (segment, file) ->
+                if (segment < cursor.segment) return@forEach
+                forEachLegacyRecord(file, if (segment == cursor.segment) cursor.offset else 0L, append)
+            }
+        } catch (e: IOException) {
+            // 转写失败时保留已写出的部分，剩余的旧日志放弃
+        } finally {
+            runCatching { sink?.close() }
+            legacyFile.delete()
+            legacySegments.forEach { (_, file) -> file.delete() }
+            File(dir, CURSOR_FILE_NAME).delete()
+        }
+    }
+
+    // 逐行读取 JSON 文本日志，从字节偏移 [start] 起；崩溃留下的半行和无法解析的行跳过
+    private fun forEachLegacyRecord(file: File, start: Long, visitor: (LogEntry) -> Unit) {
+        file.source().buffer().use { source ->
+            source.skip(minOf(start, file.length()))
+            while (!source.exhausted()) {
+                val newline = source.indexOf('\n'.code.toByte())
+                val line = if (newline == -1L) {
+                    source.readByteArray()
+                } else {
+                    source.readByteArray(newline).also { source.skip(1) }
+                }
+                if (line.size < 2 || line.first() != '{'.code.toByte() || line.last() != '}'.code.toByte()) continue
+                val entry = runCatching {
+                    sanitize(gson.fromJson(String(line, Charsets.UTF_8), LogEntry::class.java))
+                }.getOrNull() ?: continue
+                visitor(entry)
+            }
+        }
+    }
+
+    /**
+     * 从分段开头顺序解码每一帧，[visitor] 返回 false 时停止。
+     * 返回最后一个完整帧的结束偏移；遇到残缺或损坏的帧时在此之前停止。
+     */
+    private fun scanSegment(
+        file: File,
+        dictionary: LogRecordCodec.Dictionary,
+        visitor: (frameStart: Long, frameEnd: Long, entry: LogEntry?) -> Boolean
+    ): Long {
+        var offset = 0L
+        file.source().buffer().use { source ->
+            while (true) {
+                val frame = LogRecordCodec.readFrame(source) ?: break
+                val entry = try {
+                    LogRecordCodec.decode(frame.payload, dictionary)
+                } catch (e: IOException) {
+                    break
+                }
+                val end = offset + frame.size
+                val proceed = visitor(offset, end, entry)
+                offset = end
+                if (!proceed) break
+            }
+        }
+        return offset
+    }
+
+    // 展开后 JSON 大小的保守估计：固定的字段名开销 + 字符串（按最坏转义放大）+ 数字
+    private fun estimateJsonBytes(entry: LogEntry): Long {
+        val strings = entry.log_level.length + entry.request_url.length + entry.request_method.length +
+            (entry.error_message?.length ?: 0) + entry.device_info.model.length + entry.device_info.os_version.length
+        val latency = entry.latency?.let { LATENCY_OVERHEAD_BYTES + it.histogram.size * 16L } ?: 0L
+        return JSON_OVERHEAD_BYTES + strings * 2L + latency
+    }
+
+    private fun evictOldest(dir: File, loaded: ArrayDeque<Long>) {
+        while (totalBytes > MAX_TOTAL_BYTES && loaded.size > 1) {
+            val file = segmentFile(dir, loaded.removeFirst())
+            totalBytes -= file.length()
             file.delete()
-        } else {
-            file.writeText(remaining.joinToString(separator = "\n", postfix = "\n"))
+        }
+    }
+
+    // 游标所在分段可能已被淘汰，此时从最旧的分段开头继续
+    private fun clampCursor(cursor: LogCursor, loaded: ArrayDeque<Long>): LogCursor {
+        val first = loaded.first()
+        return if (cursor.segment < first) LogCursor(first, 0L) else cursor
+    }
+
+    private fun readCursor(dir: File): LogCursor {
+        val file = File(dir, CURSOR_FILE_NAME)
+        if (!file.exists()) return LogCursor(0L, 0L)
+        val parts = runCatching { file.readText().trim().split(':') }.getOrNull()
+        val segment = parts?.getOrNull(0)?.toLongOrNull()
+        val offset = parts?.getOrNull(1)?.toLongOrNull()
+        return if (segment != null && offset != null) LogCursor(segment, offset) else LogCursor(0L, 0L)
+    }
+
+    private fun writeCursor(dir: File, cursor: LogCursor) {
+        val tmp = File(dir, "$CURSOR_FILE_NAME.tmp")
+        tmp.writeText("${cursor.segment}:${cursor.offset}")
+        if (!tmp.renameTo(File(dir, CURSOR_FILE_NAME))) {
+            File(dir, CURSOR_FILE_NAME).writeText("${cursor.segment}:${cursor.offset}")
+            tmp.delete()
         }
     }
 }
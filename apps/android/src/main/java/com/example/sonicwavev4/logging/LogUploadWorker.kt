@@ -5,12 +5,15 @@ import androidx.work.CoroutineWorker
 import androidx.work.WorkerParameters
 import com.example.sonicwavev4.network.RetrofitClient
 import com.example.sonicwavev4.utils.SessionManager
-import com.google.gson.Gson
+import okhttp3.MediaType
 import okhttp3.MediaType.Companion.toMediaType
-import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.GzipSink
+import okio.buffer
 
 private const val MAX_BATCH_ENTRIES = 50
-private const val MAX_BATCH_BYTES = 80 * 1024 // 80KB per payload
+private const val MAX_BATCH_BYTES = 80 * 1024 // 80KB per payload (before gzip)
 
 class LogUploadWorker(appContext: Context, workerParams: WorkerParameters) : CoroutineWorker(appContext, workerParams) {
 
@@ -19,51 +22,27 @@ class LogUploadWorker(appContext: Context, workerParams: WorkerParameters) : Cor
         if (sessionManager.isOfflineTestMode()) {
             return Result.success()
         }
-        val allLogs = LogRepository.readLogs(applicationContext)
-        if (allLogs.isEmpty()) {
-            return Result.success()
-        }
-
-        val gson = Gson()
-        var processedCount = 0
 
         try {
-            while (processedCount < allLogs.size) {
-                val batch = mutableListOf<LogEntry>()
-                var approximateBytes = 2 // for the surrounding []
-                var index = processedCount
+            RouteLatencyAggregator.flush(applicationContext)
+            while (true) {
+                val batch = LogRepository.nextBatch(
+                    applicationContext,
+                    MAX_BATCH_ENTRIES,
+                    MAX_BATCH_BYTES
+                ) ?: break
 
-                while (index < allLogs.size && batch.size < MAX_BATCH_ENTRIES) {
-                    val entry = allLogs[index]
-                    val entryJson = gson.toJson(entry)
-                    val entrySize = entryJson.toByteArray(Charsets.UTF_8).size + 1
-                    if (batch.isNotEmpty() && approximateBytes + entrySize > MAX_BATCH_BYTES) {
-                        break
+                if (batch.count > 0) {
+                    val response = RetrofitClient.api.createClientLogs(
+                        requestBody = GzipLogBatchBody(batch),
+                        contentEncoding = "gzip"
+                    )
+                    if (!response.isSuccessful) {
+                        // stop and retry later without losing already uploaded batches
+                        return Result.retry()
                     }
-                    batch.add(entry)
-                    approximateBytes += entrySize
-                    index++
-                }
-
-                if (batch.isEmpty()) {
-                    // Single entry too large, still attempt to upload once after truncation rules
-                    batch.add(allLogs[processedCount])
-                    index = processedCount + 1
-                }
-
-                val requestBody = gson
-                    .toJson(batch)
-                    .toRequestBody("application/json".toMediaType())
-
-                val response = RetrofitClient.api.createClientLogs(requestBody)
-
-                if (response.isSuccessful) {
-                    LogRepository.removeLogs(applicationContext, batch.size)
-                    processedCount += batch.size
-                } else {
-                    // stop and retry later without losing already uploaded batches
-                    return Result.retry()
                 }
+                LogRepository.acknowledge(applicationContext, batch.end)
             }
 
             return Result.success()
@@ -72,3 +51,19 @@ class LogUploadWorker(appContext: Context, workerParams: WorkerParameters) : Cor
         }
     }
 }
+
+/**
+ * 直接从日志分段流式读取并 gzip 压缩的请求体；OkHttp 重试时会重新从磁盘读取。
+ */
+private class GzipLogBatchBody(private val batch: LogBatch) : RequestBody() {
+
+    override fun contentType(): MediaType = "application/json".toMediaType()
+
+    override fun contentLength(): Long = -1
+
+    override fun writeTo(sink: BufferedSink) {
+        val gzipSink = GzipSink(sink).buffer()
+        LogRepository.writeBatchJson(batch, gzipSink)
+        gzipSink.close()
+    }
+}
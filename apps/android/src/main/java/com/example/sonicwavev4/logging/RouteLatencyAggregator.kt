@@ -0,0 +1,224 @@
+package com.example.sonicwavev4.logging
+
+import android.content.Context
+import com.example.sonicwavev4.network.CompressionStats
+import com.example.sonicwavev4.network.RequestCompressionPolicy
+
+/**
+ * 单个接口在一分钟内的延迟统计，随日志一起上传（log_level = METRIC）。
+ * [histogram] 的键为桶上界（毫秒），溢出桶为 "+Inf"，便于后端跨设备合并。
+ */
+data class LatencyRollup(
+    val minute_start: Long,
+    val count: Int,
+    val error_count: Int,
+    val p50_ms: Long,
+    val p95_ms: Long,
+    val p99_ms: Long,
+    val max_ms: Long,
+    val histogram: Map<String, Int>
+)
+
+/**
+ * 单个接口自上次上传以来的请求体压缩计数，随日志一起上传（log_level = METRIC）。
+ */
+data class CompressionRollup(
+    val reported_at: Long,
+    val compressed_requests: Long,
+    val skipped_requests: Long,
+    val original_bytes: Long,
+    val sent_bytes: Long,
+    val skipped_bytes: Long,
+    val saved_bytes: Long
+)
+
+/**
+ * 固定的对数线性分桶，各设备统一，分位数取所在桶的上界（不超过观测到的最大值）。
+ */
+internal class LatencyHistogram {
+
+    private val counts = IntArray(BOUNDS_MS.size + 1)
+    private var count = 0
+    private var errorCount = 0
+    private var maxMs = 0L
+
+    fun record(durationMs: Long, isError: Boolean) {
+        val value = durationMs.coerceAtLeast(0L)
+        counts[bucketOf(value)]++
+        count++
+        if (isError) errorCount++
+        if (value > maxMs) maxMs = value
+    }
+
+    fun percentile(quantile: Double): Long {
+        if (count == 0) return 0L
+        val rank = kotlin.math.ceil(quantile * count).toInt().coerceAtLeast(1)
+        var seen = 0
+        for (index in counts.indices) {
+            seen += counts[index]
+            if (seen >= rank) {
+                return if (index < BOUNDS_MS.size) minOf(BOUNDS_MS[index], maxMs) else maxMs
+            }
+        }
+        return maxMs
+    }
+
+    fun toRollup(minuteStart: Long): LatencyRollup {
+        val histogram = LinkedHashMap<String, Int>()
+        counts.forEachIndexed { index, value ->
+            if (value > 0) histogram[label(index)] = value
+        }
+        return LatencyRollup(
+            minute_start = minuteStart,
+            count = count,
+            error_count = errorCount,
+            p50_ms = percentile(0.50),
+            p95_ms = percentile(0.95),
+            p99_ms = percentile(0.99),
+            max_ms = maxMs,
+            histogram = histogram
+        )
+    }
+
+    companion object {
+        val BOUNDS_MS = longArrayOf(
+            5, 10, 15, 20, 30, 40, 50, 75, 100, 125, 150, 200, 250, 300, 400, 500,
+            750, 1_000, 1_500, 2_000, 3_000, 4_000, 5_000, 7_500, 10_000, 15_000, 20_000, 30_000, 60_000
+        )
+        private const val OVERFLOW_LABEL = "+Inf"
+
+        fun bucketOf(durationMs: Long): Int {
+            val index = BOUNDS_MS.indexOfFirst { durationMs <= it }
+            return if (index == -1) BOUNDS_MS.size else index
+        }
+
+        fun label(index: Int): String {
+            return if (index < BOUNDS_MS.size) BOUNDS_MS[index].toString() else OVERFLOW_LABEL
+        }
+
+        fun indexOf(label: String): Int {
+            if (label == OVERFLOW_LABEL) return BOUNDS_MS.size
+            val bound = label.toLongOrNull() ?: return -1
+            return BOUNDS_MS.indexOf(bound)
+        }
+    }
+}
+
+/**
+ * 按「请求方法 + 路由模板 + 分钟」聚合成功请求的延迟，代替逐条写日志。
+ *
+ * 分钟结束后（下一次记录时发现）或上传前调用 [flush] 时，统计以 METRIC 日志写入 [LogRepository]。
+ * 同一分钟可能因提前 flush 被拆成多条，后端按 route + minute 累加即可。
+ * [flush] 同时写出 [RequestCompressionPolicy] 按路由累计的压缩计数。
+ */
+object RouteLatencyAggregator {
+
+    private const val MINUTE_MS = 60_000L
+    private const val MAX_OPEN_BUCKETS = 256
+    private const val ID_PLACEHOLDER = "{id}"
+    private val UUID_REGEX = Regex("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$")
+    private val HEX_ID_REGEX = Regex("^[0-9a-fA-F]{16,}$")
+
+    private data class BucketKey(val method: String, val route: String, val minuteStart: Long)
+
+    private val lock = Any()
+    private val buckets = LinkedHashMap<BucketKey, LatencyHistogram>()
+
+    fun record(
+        context: Context,
+        method: String,
+        route: String,
+        durationMs: Long,
+        isError: Boolean,
+        nowMs: Long = System.currentTimeMillis()
+    ) {
+        val minuteStart = nowMs - nowMs % MINUTE_MS
+        val completed = synchronized(lock) {
+            buckets.getOrPut(BucketKey(method, route, minuteStart)) { LatencyHistogram() }
+                .record(durationMs, isError)
+            if (buckets.size > MAX_OPEN_BUCKETS) {
+                drain { true }
+            } else {
+                drain { it.minuteStart < minuteStart }
+            }
+        }
+        completed.forEach { LogRepository.writeLog(context, it) }
+    }
+
+    /**
+     * 把所有未写出的统计（包括当前分钟）及压缩计数写入日志存储，通常在上传前调用。
+     */
+    fun flush(context: Context, nowMs: Long = System.currentTimeMillis()) {
+        val completed = synchronized(lock) { drain { true } }
+        completed.forEach { LogRepository.writeLog(context, it) }
+        RequestCompressionPolicy.drainRouteStats().forEach { (route, stats) ->
+            LogRepository.writeLog(context, compressionEntry(route, stats, nowMs))
+        }
+    }
+
+    /**
+     * [route] 为 `"<方法> <路由模板>"`，与 [com.example.sonicwavev4.network.GzipRequestInterceptor] 的键一致。
+     */
+    internal fun compressionEntry(route: String, stats: CompressionStats, nowMs: Long): LogEntry {
+        val method = route.substringBefore(' ', missingDelimiterValue = "")
+        return LogEntry(
+            log_level = "METRIC",
+            request_url = route.substringAfter(' '),
+            request_method = method,
+            response_code = null,
+            is_successful = true,
+            duration_ms = 0L,
+            error_message = null,
+            device_info = DeviceInfo.current(),
+            compression = CompressionRollup(
+                reported_at = nowMs,
+                compressed_requests = stats.compressedRequests,
+                skipped_requests = stats.skippedRequests,
+                original_bytes = stats.originalBytes,
+                sent_bytes = stats.sentBytes,
+                skipped_bytes = stats.skippedBytes,
+                saved_bytes = stats.savedBytes
+            )
+        )
+    }
+
+    /**
+     * 把请求路径归一化为路由模板，例如 `/api/v1/operations/42/events` -> `api/v1/operations/{id}/events`。
+     */
+    fun normalizeRoute(encodedPath: String): String {
+        return encodedPath.trim('/')
+            .split('/')
+            .joinToString("/") { segment -> if (isIdSegment(segment)) ID_PLACEHOLDER else segment }
+    }
+
+    private fun isIdSegment(segment: String): Boolean {
+        if (segment.isEmpty()) return false
+        return segment.all { it in '0'..'9' } || UUID_REGEX.matches(segment) || HEX_ID_REGEX.matches(segment)
+    }
+
+    private inline fun drain(predicate: (BucketKey) -> Boolean): List<LogEntry> {
+        if (buckets.isEmpty()) return emptyList()
+        val drained = mutableListOf<LogEntry>()
+        val iterator = buckets.entries.iterator()
+        while (iterator.hasNext()) {
+            val (key, histogram) = iterator.next()
+            if (!predicate(key)) continue
+            iterator.remove()
+            val rollup = histogram.toRollup(key.minuteStart)
+            drained.add(
+                LogEntry(
+                    log_level = "METRIC",
+                    request_url = key.route,
+                    request_method = key.method,
+                    response_code = null,
+                    is_successful = rollup.error_count == 0,
+                    duration_ms = rollup.p50_ms,
+                    error_message = null,
+                    device_info = DeviceInfo.current(),
+                    latency = rollup
+                )
+            )
+        }
+        return drained
+    }
+}
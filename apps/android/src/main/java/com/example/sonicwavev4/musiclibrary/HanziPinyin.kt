@@ -0,0 +1,65 @@
+package com.example.sonicwavev4.musiclibrary
+
+import android.icu.text.Transliterator
+import android.os.Build
+import java.text.Collator
+import java.util.Locale
+
+/**
+ * 汉字转拼音，供搜索索引使用。
+ *
+ * Android 10 起用系统 ICU 的 Han-Latin 得到完整拼音（多音字取常用读音）；
+ * 更早的系统没有这个转换器，只能按中文排序规则推出声母首字母，此时只支持首字母搜索。
+ */
+object HanziPinyin {
+
+    // 各首字母在 GB2312 拼音序中的第一个汉字
+    private const val INITIAL_LETTERS = "abcdefghjklmnopqrstwxyz"
+    private const val INITIAL_BOUNDARIES = "阿芭擦搭蛾发噶哈击喀垃妈拿哦啪期然撒塌挖昔压匝"
+
+    private val cache = HashMap<Char, String>()
+
+    private val transliterator: Transliterator? by lazy {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            runCatching { Transliterator.getInstance("Han-Latin; Latin-ASCII") }.getOrNull()
+        } else {
+            null
+        }
+    }
+
+    private val collator: Collator by lazy { Collator.getInstance(Locale.CHINA) }
+
+    fun isHan(ch: Char): Boolean = Character.UnicodeScript.of(ch.code) == Character.UnicodeScript.HAN
+
+    /**
+     * 返回 [ch] 的小写无声调拼音；不是汉字或无法转换时返回 null。
+     */
+    fun of(ch: Char): String? {
+        if (!isHan(ch)) return null
+        synchronized(cache) {
+            cache[ch]?.let { return it.ifEmpty { null } }
+        }
+        val pinyin = (fullPinyin(ch) ?: initialOf(ch)).orEmpty()
+        synchronized(cache) {
+            cache[ch] = pinyin
+        }
+        return pinyin.ifEmpty { null }
+    }
+
+    private fun fullPinyin(ch: Char): String? {
+        val converter = transliterator ?: return null
+        val latin = synchronized(converter) { converter.transliterate(ch.toString()) }
+        return latin.lowercase(Locale.ROOT).filter { it in 'a'..'z' }.ifEmpty { null }
+    }
+
+    private fun initialOf(ch: Char): String? {
+        val text = ch.toString()
+        for (i in INITIAL_BOUNDARIES.indices.reversed()) {
+            val cmp = synchronized(collator) { collator.compare(text, INITIAL_BOUNDARIES[i].toString()) }
+            if (cmp >= 0) {
+                return INITIAL_LETTERS[i].toString()
+            }
+        }
+        return null
+    }
+}
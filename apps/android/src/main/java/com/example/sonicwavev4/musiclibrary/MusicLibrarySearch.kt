@@ -0,0 +1,117 @@
+package com.example.sonicwavev4.musiclibrary
+
+import android.content.Context
+import com.example.sonicwavev4.DownloadedMusicRepository
+import com.example.sonicwavev4.MusicItem
+import com.example.sonicwavev4.repository.MediaLibraryIndex
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+
+/**
+ * 各个音乐界面共用的 [MusicSearchIndex]。
+ *
+ * 本机曲目跟随 [MediaLibraryIndex.tracks] 增量同步；应用内下载的曲目启动时加载一次，
+ * 之后由发现变化的界面调用 [syncDownloaded]；云端曲目只有加载过的分类才有，由界面调用 [syncCloud]。
+ * 各来源的 key 前缀不同，互不覆盖；索引更新后 [updates] 递增，界面据此刷新搜索结果。
+ */
+object MusicLibrarySearch {
+
+    /** 本机和已下载曲目的公共前缀，key 的其余部分是播放 URI。 */
+    const val LIBRARY_KEY_PREFIX = "local:"
+    const val CLOUD_KEY_PREFIX = "cloud:"
+    private const val MEDIA_KEY_PREFIX = LIBRARY_KEY_PREFIX + "media:"
+    private const val DOWNLOADED_KEY_PREFIX = LIBRARY_KEY_PREFIX + "downloaded:"
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val index = MusicSearchIndex()
+
+    @Volatile
+    private var mediaItems: Map<String, MusicItem> = emptyMap()
+
+    @Volatile
+    private var downloadedItems: Map<String, MusicItem> = emptyMap()
+
+    private val _updates = MutableStateFlow(0L)
+    val updates: StateFlow<Long> = _updates.asStateFlow()
+
+    private var feedJob: Job? = null
+
+    fun initialize(context: Context) {
+        if (feedJob != null) return
+        val appContext = context.applicationContext
+        feedJob = scope.launch {
+            launch(Dispatchers.IO) {
+                val downloaded = DownloadedMusicRepository(appContext).loadDownloadedMusic()
+                    .mapNotNull { it.toMusicItem() }
+                syncDownloaded(downloaded)
+            }
+            MediaLibraryIndex.tracks.collect { tracks -> syncMedia(tracks) }
+        }
+    }
+
+    suspend fun syncDownloaded(items: Collection<MusicItem>) = withContext(Dispatchers.Default) {
+        val byUri = items.associateBy { it.uri.toString() }
+        index.sync(byUri.values.map { entryOf(DOWNLOADED_KEY_PREFIX, it) }, DOWNLOADED_KEY_PREFIX)
+        downloadedItems = byUri
+        _updates.update { it + 1 }
+    }
+
+    /**
+     * [entries] 的 key 为 [CLOUD_KEY_PREFIX] 加云端曲目 ID，作为已加载云端曲目的完整快照。
+     */
+    suspend fun syncCloud(entries: Collection<MusicSearchIndex.Entry>) = withContext(Dispatchers.Default) {
+        index.sync(entries, CLOUD_KEY_PREFIX)
+        _updates.update { it + 1 }
+    }
+
+    /**
+     * 搜索全部来源，返回 key：云端为 [CLOUD_KEY_PREFIX] 加曲目 ID，其余为 [LIBRARY_KEY_PREFIX] 加播放 URI。
+     */
+    fun search(query: String, limit: Int = MusicSearchIndex.DEFAULT_LIMIT): List<String> {
+        return index.search(query, limit).mapNotNull { key ->
+            when {
+                key.startsWith(CLOUD_KEY_PREFIX) -> key
+                else -> uriOf(key)?.let { LIBRARY_KEY_PREFIX + it }
+            }
+        }.distinct()
+    }
+
+    /**
+     * 只搜索本机和已下载的曲目。
+     */
+    fun searchLibrary(query: String, limit: Int = MusicSearchIndex.DEFAULT_LIMIT): List<MusicItem> {
+        val media = mediaItems
+        val downloaded = downloadedItems
+        return index.search(query, limit, LIBRARY_KEY_PREFIX).mapNotNull { key ->
+            when {
+                key.startsWith(MEDIA_KEY_PREFIX) -> media[key.removePrefix(MEDIA_KEY_PREFIX)]
+                key.startsWith(DOWNLOADED_KEY_PREFIX) -> downloaded[key.removePrefix(DOWNLOADED_KEY_PREFIX)]
+                else -> null
+            }
+        }.distinctBy { it.uri }
+    }
+
+    private fun syncMedia(tracks: List<MusicItem>) {
+        val byUri = tracks.associateBy { it.uri.toString() }
+        index.sync(byUri.values.map { entryOf(MEDIA_KEY_PREFIX, it) }, MEDIA_KEY_PREFIX)
+        mediaItems = byUri
+        _updates.update { it + 1 }
+    }
+
+    private fun uriOf(key: String): String? = when {
+        key.startsWith(MEDIA_KEY_PREFIX) -> key.removePrefix(MEDIA_KEY_PREFIX)
+        key.startsWith(DOWNLOADED_KEY_PREFIX) -> key.removePrefix(DOWNLOADED_KEY_PREFIX)
+        else -> null
+    }
+
+    private fun entryOf(prefix: String, item: MusicItem) =
+        MusicSearchIndex.Entry(prefix + item.uri.toString(), item.title, item.artist)
+}
@@ -0,0 +1,220 @@
+package com.example.sonicwavev4.musiclibrary
+
+import java.text.Normalizer
+import java.util.Locale
+
+/**
+ * 曲目搜索索引：按标题和歌手查找，支持原文、全拼和拼音首字母。
+ *
+ * 每个字段切成若干"单元"（一个汉字，或一段连续的字母数字），查询词从任意单元开头起
+ * 匹配即算命中，例如"晴天"、"天"、"qingtian"、"tian"、"qt"都能找到《晴天》。
+ * 倒排表只按单元开头的一到两个字符建键，取出候选后再逐条核对，内存随曲目数线性增长。
+ *
+ * [sync] 按 key 与上一次的快照比较，只为新增或标题、歌手变化的曲目重新计算拼音。
+ * 多个来源可以共用一个索引：各来源的 key 用不同前缀，同步时只替换自己前缀下的曲目。
+ */
+class MusicSearchIndex(
+    private val pinyinOf: (Char) -> String? = HanziPinyin::of
+) {
+
+    data class Entry(val key: String, val title: String, val artist: String)
+
+    /**
+     * 字段的一种写法（原文 / 全拼 / 首字母），[starts] 是各单元在 [text] 中的起点。
+     */
+    private class Form(val text: String, val starts: IntArray, val rank: Int)
+
+    private class Doc(val entry: Entry, val forms: List<Form>)
+
+    private class Postings {
+        var ids = IntArray(4)
+        var size = 0
+
+        fun add(id: Int) {
+            // 同一首歌的多个单元可能落在同一个键上
+            if (size > 0 && ids[size - 1] == id) return
+            if (size == ids.size) ids = ids.copyOf(size * 2)
+            ids[size++] = id
+        }
+    }
+
+    private val syncLock = Any()
+    private val docs = HashMap<Int, Doc>()
+    private val idsByKey = HashMap<String, Int>()
+    private val postings = HashMap<Long, Postings>()
+    private var nextId = 0
+    // 已删除但仍留在倒排表里的曲目数，搜索时跳过，攒多了整体重建
+    private var staleDocs = 0
+
+    val size: Int
+        @Synchronized get() = idsByKey.size
+
+    /**
+     * 用 [entries] 作为 key 以 [keyPrefix] 开头的曲目的完整快照更新索引；快照里没有的这部分曲目会被移除，
+     * 其他前缀的曲目不受影响。拼音在锁外计算，初次建索引时不会阻塞搜索。
+     */
+    fun sync(entries: Collection<Entry>, keyPrefix: String = "") = synchronized(syncLock) {
+        require(entries.all { it.key.startsWith(keyPrefix) }) { "Every key must start with $keyPrefix" }
+        val changed = synchronized(this) {
+            entries.filter { entry -> idsByKey[entry.key]?.let { docs[it]?.entry } != entry }
+        }
+        val built = changed.map { entry ->
+            Doc(entry, formsOf(entry.title, TITLE_RANK) + formsOf(entry.artist, ARTIST_RANK))
+        }
+        synchronized(this) {
+            built.forEach { doc -> putLocked(doc) }
+            val keys = entries.mapTo(HashSet(entries.size * 2)) { it.key }
+            idsByKey.keys.filter { it.startsWith(keyPrefix) && it !in keys }.forEach { key -> removeLocked(key) }
+            if (staleDocs > COMPACT_MIN_STALE && staleDocs > docs.size) rebuildPostingsLocked()
+        }
+    }
+
+    /**
+     * 返回命中的 key，按"标题开头 > 标题中间 > 歌手开头 > 歌手中间"排序，同档内保持加入顺序。
+     * 多个以空格分开的词需要全部命中；只返回 key 以 [keyPrefix] 开头的曲目。
+     */
+    @Synchronized
+    fun search(query: String, limit: Int = DEFAULT_LIMIT, keyPrefix: String = ""): List<String> {
+        val tokens = query.split(WHITESPACE)
+            .map { compact(units(it)) }
+            .filter { it.isNotEmpty() }
+        if (tokens.isEmpty() || limit <= 0) return emptyList()
+
+        // 候选取自命中最少的那个词
+        var candidates: Postings? = null
+        for (token in tokens) {
+            val list = postings[keyOf(token)] ?: return emptyList()
+            if (candidates == null || list.size < candidates.size) candidates = list
+        }
+        val ids = candidates ?: return emptyList()
+
+        val buckets = Array(MAX_SCORE + 1) { ArrayList<String>() }
+        for (i in 0 until ids.size) {
+            val doc = docs[ids.ids[i]] ?: continue
+            if (!doc.entry.key.startsWith(keyPrefix)) continue
+            val score = score(doc, tokens[0])
+            if (score == NO_MATCH) continue
+            if (tokens.size > 1 && (1 until tokens.size).any { score(doc, tokens[it]) == NO_MATCH }) continue
+            buckets[score].add(doc.entry.key)
+            if (buckets[0].size >= limit) break
+        }
+
+        val result = ArrayList<String>(minOf(limit, buckets.sumOf { it.size }))
+        for (bucket in buckets) {
+            for (key in bucket) {
+                if (result.size == limit) return result
+                result.add(key)
+            }
+        }
+        return result
+    }
+
+    private fun putLocked(doc: Doc) {
+        removeLocked(doc.entry.key)
+        val id = nextId++
+        docs[id] = doc
+        idsByKey[doc.entry.key] = id
+        indexLocked(id, doc)
+    }
+
+    private fun removeLocked(key: String) {
+        val id = idsByKey.remove(key) ?: return
+        docs.remove(id)
+        staleDocs++
+    }
+
+    private fun indexLocked(id: Int, doc: Doc) {
+        for (form in doc.forms) {
+            val text = form.text
+            for (start in form.starts) {
+                postings.getOrPut(text[start].code.toLong()) { Postings() }.add(id)
+                if (start + 1 < text.length) {
+                    postings.getOrPut(pairKey(text[start], text[start + 1])) { Postings() }.add(id)
+                }
+            }
+        }
+    }
+
+    private fun rebuildPostingsLocked() {
+        postings.clear()
+        docs.keys.sorted().forEach { id -> indexLocked(id, docs.getValue(id)) }
+        staleDocs = 0
+    }
+
+    private fun score(doc: Doc, token: String): Int {
+        var best = NO_MATCH
+        for (form in doc.forms) {
+            for (start in form.starts) {
+                if (form.text.startsWith(token, start)) {
+                    val score = form.rank + if (start == 0) 0 else 1
+                    if (score < best) best = score
+                    break
+                }
+            }
+        }
+        return best
+    }
+
+    private fun formsOf(text: String, rank: Int): List<Form> {
+        val units = units(text)
+        if (units.isEmpty()) return emptyList()
+        val original = formOf(units, rank)
+        val pinyin = units.map { unit -> if (unit.length == 1) pinyinOf(unit[0]) ?: unit else unit }
+        if (pinyin == units) return listOf(original)
+        return listOf(original, formOf(pinyin, rank), formOf(pinyin.map { it.substring(0, 1) }, rank))
+    }
+
+    private fun formOf(units: List<String>, rank: Int): Form {
+        val starts = IntArray(units.size)
+        val builder = StringBuilder()
+        units.forEachIndexed { index, unit ->
+            starts[index] = builder.length
+            builder.append(unit)
+        }
+        return Form(builder.toString(), starts, rank)
+    }
+
+    private fun units(text: String): List<String> {
+        val normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).lowercase(Locale.ROOT)
+        val result = ArrayList<String>()
+        val word = StringBuilder()
+        fun flush() {
+            if (word.isNotEmpty()) {
+                result.add(word.toString())
+                word.setLength(0)
+            }
+        }
+        for (ch in normalized) {
+            when {
+                HanziPinyin.isHan(ch) -> {
+                    flush()
+                    result.add(ch.toString())
+                }
+                ch.isLetterOrDigit() -> word.append(ch)
+                else -> flush()
+            }
+        }
+        flush()
+        return result
+    }
+
+    private fun compact(units: List<String>): String = units.joinToString("")
+
+    private fun keyOf(token: String): Long =
+        if (token.length == 1) token[0].code.toLong() else pairKey(token[0], token[1])
+
+    // 单字键为 0..0xFFFF，双字键从 0x10000 起，两者不会重叠
+    private fun pairKey(first: Char, second: Char): Long =
+        ((first.code + 1).toLong() shl 16) or second.code.toLong()
+
+    companion object {
+        const val DEFAULT_LIMIT = 200
+
+        private const val TITLE_RANK = 0
+        private const val ARTIST_RANK = 2
+        private const val MAX_SCORE = ARTIST_RANK + 1
+        private const val NO_MATCH = Int.MAX_VALUE
+        private const val COMPACT_MIN_STALE = 1024
+        private val WHITESPACE = Regex("\\s+")
+    }
+}
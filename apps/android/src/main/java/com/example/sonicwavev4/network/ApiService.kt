@@ -6,6 +6,7 @@ import okhttp3.RequestBody
 import retrofit2.Response
 import retrofit2.http.Body
 import retrofit2.http.GET
+import retrofit2.http.Header
 import retrofit2.http.POST
 import retrofit2.http.PUT
 import retrofit2.http.PATCH
@@ -36,7 +37,10 @@ interface ApiService {
 
     // --- 日志与操作记录 ---
     @POST("api/v1/logs")
-    suspend fun createClientLogs(@Body requestBody: RequestBody): Response<Unit>
+    suspend fun createClientLogs(
+        @Body requestBody: RequestBody,
+        @Header("Content-Encoding") contentEncoding: String? = null
+    ): Response<Unit>
 
     @POST("api/v1/app/usage")
     suspend fun recordAppUsage(@Body request: AppUsageRequest): Response<Unit>
@@ -53,6 +57,9 @@ interface ApiService {
         @Body request: OperationEventRequest
     ): Response<Unit>
 
+    @POST("api/v1/operations/events/batch")
+    suspend fun logOperationEventsBatch(@Body request: OperationEventBatchRequest): Response<Unit>
+
     @PUT("api/v1/operations/stop/{id}")
     suspend fun stopOperation(
         @Path("id") id: Long,
@@ -22,11 +22,17 @@ data class LogoutEventRequest(
 )
 
 /**
- * 发送心跳的请求体。
+ * 发送心跳的请求体，同时携带设备信息，登录状态下不再单独发送设备心跳。
+ * [intervalMs] 为客户端下一次心跳的预计间隔，后端据此放宽超时判定。
  */
 data class HeartbeatRequest(
     val sessionId: Long,
-    val deviceId: String? = null
+    val deviceId: String? = null,
+    val ipAddress: String? = null,
+    val deviceModel: String? = null,
+    val osVersion: String? = null,
+    val appVersion: String? = null,
+    val intervalMs: Long? = null
 )
 
 data class DeviceHeartbeatRequest(
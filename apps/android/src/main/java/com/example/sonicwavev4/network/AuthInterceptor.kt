@@ -15,7 +15,7 @@ class AuthInterceptor(context: Context) : Interceptor {
         // 从 SessionManager 获取 Token
         sessionManager.fetchAccessToken()?.let {
             // 如果 Token 存在，则将其添加到请求头中
-            requestBuilder.addHeader("Authorization", "Bearer $it")
+            requestBuilder.header("Authorization", "Bearer $it")
         }
 
         return chain.proceed(requestBuilder.build())
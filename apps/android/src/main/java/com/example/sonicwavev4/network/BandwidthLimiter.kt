@@ -0,0 +1,45 @@
+package com.example.sonicwavev4.network
+
+import android.os.SystemClock
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * 令牌桶限速：多个下载共享同一个实例时，总吞吐量不超过 [bytesPerSecond]。
+ * 桶容量为一秒的流量，空闲之后允许短暂突发。
+ */
+class BandwidthLimiter(
+    private val bytesPerSecond: Long,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    private val mutex = Mutex()
+    private var available = bytesPerSecond
+    private var lastRefillAt = -1L
+
+    /**
+     * 消耗 [bytes] 个令牌，不足时挂起到令牌补足为止。
+     * 等待期间持有锁，先到的调用方先拿到带宽。
+     */
+    suspend fun acquire(bytes: Long) {
+        if (bytes <= 0L) return
+        mutex.withLock {
+            refill()
+            available -= bytes
+            if (available < 0L) {
+                delay((-available * 1_000L + bytesPerSecond - 1) / bytesPerSecond)
+                refill()
+            }
+        }
+    }
+
+    private fun refill() {
+        val now = clock()
+        if (lastRefillAt >= 0L) {
+            val earned = (now - lastRefillAt) * bytesPerSecond / 1_000L
+            available = minOf(bytesPerSecond, available + earned)
+        }
+        lastRefillAt = now
+    }
+}
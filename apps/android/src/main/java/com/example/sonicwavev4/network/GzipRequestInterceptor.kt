@@ -1,42 +1,74 @@
 package com.example.sonicwavev4.network
 
+import com.example.sonicwavev4.logging.RouteLatencyAggregator
 import okhttp3.Interceptor
 import okhttp3.MediaType
-import okhttp3.Request
 import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.Response
 import okio.Buffer
 import okio.GzipSink
 import okio.buffer
 
+/**
+ * 按 [RequestCompressionPolicy] 决定是否 gzip 请求体。
+ * 压缩结果先写入内存缓冲，请求带确定的 Content-Length，且压缩后反而更大时发送原始请求体。
+ */
 class GzipRequestInterceptor : Interceptor {
     override fun intercept(chain: Interceptor.Chain): Response {
         val originalRequest = chain.request()
         val originalBody = originalRequest.body ?: return chain.proceed(originalRequest)
 
-        if (originalRequest.header("Content-Encoding") != null) {
+        if (originalRequest.header("Content-Encoding") != null || !isCompressible(originalBody.contentType())) {
             return chain.proceed(originalRequest)
         }
 
-        val compressedBody = gzip(originalBody)
+        val route = "${originalRequest.method} ${RouteLatencyAggregator.normalizeRoute(originalRequest.url.encodedPath)}"
+        val declaredLength = originalBody.contentLength()
+        if (!RequestCompressionPolicy.shouldCompress(route, declaredLength)) {
+            RequestCompressionPolicy.recordSkipped(route, declaredLength)
+            return chain.proceed(originalRequest)
+        }
+
+        val plain = Buffer()
+        originalBody.writeTo(plain)
+        val originalSize = plain.size
+        if (originalSize < RequestCompressionPolicy.MIN_COMPRESS_BYTES) {
+            RequestCompressionPolicy.recordSkipped(route, originalSize)
+            return chain.proceed(
+                originalRequest.newBuilder()
+                    .method(originalRequest.method, plain.readByteString().toRequestBody(originalBody.contentType()))
+                    .build()
+            )
+        }
+
+        val compressed = gzip(plain.copy())
+        RequestCompressionPolicy.recordCompressed(route, originalSize, compressed.size)
         val requestBuilder = originalRequest.newBuilder()
-            .header("Content-Encoding", "gzip")
-            .method(originalRequest.method, compressedBody)
+        if (compressed.size < originalSize) {
+            requestBuilder
+                .header("Content-Encoding", "gzip")
+                .method(originalRequest.method, compressed.readByteString().toRequestBody(originalBody.contentType()))
+        } else {
+            requestBuilder.method(originalRequest.method, plain.readByteString().toRequestBody(originalBody.contentType()))
+        }
 
         return chain.proceed(requestBuilder.build())
     }
 
-    private fun gzip(body: RequestBody): RequestBody {
-        return object : RequestBody() {
-            override fun contentType(): MediaType? = body.contentType()
-
-            override fun contentLength(): Long = -1
+    private fun isCompressible(contentType: MediaType?): Boolean {
+        if (contentType == null) return true
+        return contentType.type == "text" ||
+            contentType.subtype == "json" ||
+            contentType.subtype.endsWith("+json") ||
+            contentType.subtype == "x-www-form-urlencoded"
+    }
 
-            override fun writeTo(sink: okio.BufferedSink) {
-                val gzipSink = GzipSink(sink).buffer()
-                body.writeTo(gzipSink)
-                gzipSink.close()
-            }
+    private fun gzip(source: Buffer): Buffer {
+        val compressed = Buffer()
+        GzipSink(compressed).buffer().use { gzipSink ->
+            gzipSink.writeAll(source)
         }
+        return compressed
     }
 }
@@ -3,7 +3,6 @@ package com.example.sonicwavev4.network
 import android.content.Context
 import com.example.sonicwavev4.BuildConfig
 import com.example.sonicwavev4.network.EndpointProvider
-import okhttp3.OkHttpClient
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
@@ -35,7 +34,7 @@ interface MyBackendApiService {
             val logging = HttpLoggingInterceptor().apply {
                 level = if (BuildConfig.DEBUG) HttpLoggingInterceptor.Level.BODY else HttpLoggingInterceptor.Level.NONE
             }
-            val client = OkHttpClient.Builder()
+            val client = NetworkCore.newBuilder()
                 .addInterceptor(logging)
                 .build()
 
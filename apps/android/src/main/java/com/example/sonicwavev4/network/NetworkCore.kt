@@ -0,0 +1,72 @@
+package com.example.sonicwavev4.network
+
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.Dns
+import okhttp3.OkHttpClient
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * 全进程共享的网络核心：唯一的连接池、调度线程池和 DNS 缓存。
+ *
+ * 各调用方（RetrofitClient、刷新 Token、音乐下载、控制通道 WebSocket 等）通过 [newBuilder]
+ * 派生自己的客户端，只追加拦截器或超时设置；派生客户端与核心共用连接和线程，
+ * 避免重复的 TCP/TLS 握手。HTTPS 下 OkHttp 默认通过 ALPN 协商 HTTP/2，明文 http 仍为 HTTP/1.1。
+ */
+object NetworkCore {
+
+    private const val MAX_REQUESTS = 32
+    private const val MAX_REQUESTS_PER_HOST = 8
+    private const val MAX_IDLE_CONNECTIONS = 5
+    private const val KEEP_ALIVE_MINUTES = 5L
+    private const val DNS_TTL_MS = 5 * 60_000L
+
+    private val client: OkHttpClient by lazy {
+        val dispatcher = Dispatcher().apply {
+            maxRequests = MAX_REQUESTS
+            maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+        }
+        OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .dispatcher(dispatcher)
+            .dns(CachingDns(Dns.SYSTEM, DNS_TTL_MS))
+            .connectTimeout(30, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .writeTimeout(30, TimeUnit.SECONDS)
+            .build()
+    }
+
+    /**
+     * 派生一个共享连接池 / 调度器 / DNS 缓存的客户端构建器。
+     */
+    fun newBuilder(): OkHttpClient.Builder = client.newBuilder()
+}
+
+/**
+ * 带 TTL 的 DNS 缓存；查询失败时退回到过期的缓存结果，减少诊所网络抖动时的解析失败。
+ */
+internal class CachingDns(
+    private val delegate: Dns,
+    private val ttlMs: Long
+) : Dns {
+
+    private class Entry(val addresses: List<InetAddress>, val resolvedAt: Long)
+
+    private val cache = ConcurrentHashMap<String, Entry>()
+
+    override fun lookup(hostname: String): List<InetAddress> {
+        val now = System.currentTimeMillis()
+        val cached = cache[hostname]
+        if (cached != null && now - cached.resolvedAt < ttlMs) {
+            return cached.addresses
+        }
+        return try {
+            delegate.lookup(hostname).also { cache[hostname] = Entry(it, now) }
+        } catch (e: UnknownHostException) {
+            cached?.addresses ?: throw e
+        }
+    }
+}
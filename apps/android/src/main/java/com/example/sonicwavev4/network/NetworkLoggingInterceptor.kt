@@ -1,18 +1,22 @@
 package com.example.sonicwavev4.network
 
 import android.content.Context
-import android.os.Build
 import com.example.sonicwavev4.logging.DeviceInfo
 import com.example.sonicwavev4.logging.LogEntry
 import com.example.sonicwavev4.logging.LogRepository
+import com.example.sonicwavev4.logging.RouteLatencyAggregator
 import okhttp3.Interceptor
 import okhttp3.Response
 import java.io.IOException
 
+/**
+ * 所有请求的耗时按路由模板汇总到 [RouteLatencyAggregator]；只有失败的请求才单独写一条日志。
+ */
 class NetworkLoggingInterceptor(private val context: Context) : Interceptor {
 
     override fun intercept(chain: Interceptor.Chain): Response {
         val request = chain.request()
+        val route = RouteLatencyAggregator.normalizeRoute(request.url.encodedPath)
         val startTime = System.currentTimeMillis()
 
         try {
@@ -20,23 +24,41 @@ class NetworkLoggingInterceptor(private val context: Context) : Interceptor {
             val endTime = System.currentTimeMillis()
             val duration = endTime - startTime
 
-            val logEntry = LogEntry(
-                log_level = if (response.isSuccessful) "INFO" else "ERROR",
-                request_url = request.url.toString(),
-                request_method = request.method,
-                response_code = response.code,
-                is_successful = response.isSuccessful,
-                duration_ms = duration,
-                error_message = if (!response.isSuccessful) response.message else null,
-                device_info = getDeviceInfo()
+            RouteLatencyAggregator.record(
+                context = context,
+                method = request.method,
+                route = route,
+                durationMs = duration,
+                isError = !response.isSuccessful,
+                nowMs = endTime
             )
-            LogRepository.writeLog(context, logEntry)
+            if (!response.isSuccessful) {
+                val logEntry = LogEntry(
+                    log_level = "ERROR",
+                    request_url = request.url.toString(),
+                    request_method = request.method,
+                    response_code = response.code,
+                    is_successful = false,
+                    duration_ms = duration,
+                    error_message = response.message,
+                    device_info = DeviceInfo.current()
+                )
+                LogRepository.writeLog(context, logEntry)
+            }
 
             return response
         } catch (e: IOException) {
             val endTime = System.currentTimeMillis()
             val duration = endTime - startTime
 
+            RouteLatencyAggregator.record(
+                context = context,
+                method = request.method,
+                route = route,
+                durationMs = duration,
+                isError = true,
+                nowMs = endTime
+            )
             val logEntry = LogEntry(
                 log_level = "ERROR",
                 request_url = request.url.toString(),
@@ -45,18 +67,11 @@ class NetworkLoggingInterceptor(private val context: Context) : Interceptor {
                 is_successful = false,
                 duration_ms = duration,
                 error_message = e.message,
-                device_info = getDeviceInfo()
+                device_info = DeviceInfo.current()
             )
             LogRepository.writeLog(context, logEntry)
 
             throw e
         }
     }
-
-    private fun getDeviceInfo(): DeviceInfo {
-        return DeviceInfo(
-            model = Build.MODEL,
-            os_version = Build.VERSION.RELEASE
-        )
-    }
 }
@@ -26,6 +26,26 @@ data class OperationEventRequest(
     val extraDetail: String? = null
 )
 
+// 本地队列中的操作事件，coalescedCount 为合并进这一条的调节次数
+data class QueuedOperationEvent(
+    val operationId: Long,
+    val eventType: String,
+    val frequency: Int? = null,
+    val intensity: Int? = null,
+    val timeRemaining: Int? = null,
+    val extraDetail: String? = null,
+    // 合并后的事件保留首次调节的时间，最后一次调节的时间记在 lastOccurredAt
+    val occurredAt: Long,
+    val coalescedCount: Int = 1,
+    val lastOccurredAt: Long? = null,
+    // 客户端生成，实时通道与 HTTP 重发同一事件时后端据此去重
+    val clientEventId: String? = null
+)
+
+data class OperationEventBatchRequest(
+    val events: List<QueuedOperationEvent>
+)
+
 data class StopOperationRequest(
     val reason: String,
     val detail: String? = null
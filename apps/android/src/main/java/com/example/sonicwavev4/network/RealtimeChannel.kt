@@ -0,0 +1,246 @@
+package com.example.sonicwavev4.network
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.example.sonicwavev4.utils.DeviceIdentityProvider
+import com.example.sonicwavev4.utils.OfflineControlMessageHandler
+import com.example.sonicwavev4.utils.SessionManager
+import com.google.gson.Gson
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.withTimeoutOrNull
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import okio.ByteString
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+/**
+ * Multiplexed realtime channel on `/ws?channel=control&v=2`.
+ *
+ * - Downstream control messages (enable/disable/force-exit offline mode) work without
+ *   user authentication. Each carries a sequence number, and after a reconnect the
+ *   backend replays whatever was missed since the last persisted sequence.
+ * - Once authenticated with the current access token, heartbeats and operation events
+ *   can be sent over the socket via [sendHeartbeat] / [sendOperationEvents]; callers
+ *   fall back to HTTP when these return false.
+ * - Reconnects use exponential backoff with full jitter.
+ */
+object RealtimeChannel : WebSocketListener() {
+
+    private const val TAG = "RealtimeChannel"
+    private const val PROTOCOL_VERSION = 2
+    private const val PREFS_NAME = "realtime_channel"
+    private const val KEY_EPOCH = "epoch"
+    private const val KEY_LAST_SEQ = "last_seq"
+    private const val INITIAL_BACKOFF_MS = 1_000L
+    private const val MAX_BACKOFF_MS = 60_000L
+    private const val ACK_TIMEOUT_MS = 10_000L
+
+    private val client: OkHttpClient by lazy {
+        NetworkCore.newBuilder()
+            .pingInterval(30, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(true)
+            .build()
+    }
+    private val handler = Handler(Looper.getMainLooper())
+    private val gson = Gson()
+    private val requestIds = AtomicLong(1L)
+    private val pendingAcks = ConcurrentHashMap<Long, CompletableDeferred<Boolean>>()
+
+    @Volatile
+    private var started = false
+
+    @Volatile
+    private var socket: WebSocket? = null
+
+    @Volatile
+    private var authenticated = false
+
+    private var backoffMs = INITIAL_BACKOFF_MS
+    private lateinit var prefs: SharedPreferences
+    private lateinit var sessionManager: SessionManager
+
+    fun initialize(context: Context) {
+        if (started) return
+        started = true
+        val appContext = context.applicationContext
+        prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        sessionManager = SessionManager(appContext)
+        OfflineControlMessageHandler.initialize(appContext)
+        connect()
+    }
+
+    /**
+     * Re-authenticates the open socket after login, logout or a token refresh.
+     */
+    fun onTokenChanged(accessToken: String?) {
+        val current = socket ?: return
+        authenticated = false
+        sendAuth(current, accessToken)
+    }
+
+    suspend fun sendHeartbeat(request: HeartbeatRequest): Boolean {
+        return request("heartbeat", gson.toJsonTree(request).asJsonObject)
+    }
+
+    suspend fun sendOperationEvents(request: OperationEventBatchRequest): Boolean {
+        return request("events", gson.toJsonTree(request).asJsonObject)
+    }
+
+    private suspend fun request(channel: String, body: JsonObject): Boolean {
+        val current = socket
+        if (current == null || !authenticated) return false
+        val id = requestIds.getAndIncrement()
+        body.addProperty("ch", channel)
+        body.addProperty("id", id)
+        val ack = CompletableDeferred<Boolean>()
+        pendingAcks[id] = ack
+        return try {
+            if (!current.send(body.toString())) return false
+            withTimeoutOrNull(ACK_TIMEOUT_MS) { ack.await() } ?: false
+        } finally {
+            pendingAcks.remove(id)
+        }
+    }
+
+    private fun connect() {
+        val wsUrl = buildWebSocketUrl() ?: run {
+            Log.w(TAG, "Failed to build realtime channel URL.")
+            scheduleReconnect()
+            return
+        }
+        val request = Request.Builder().url(wsUrl).build()
+        client.newWebSocket(request, this)
+    }
+
+    private fun buildWebSocketUrl(): String? {
+        return try {
+            val httpBase = EndpointProvider.baseUrl
+            val uri = URI(httpBase)
+            val scheme = if (uri.scheme.equals("https", true)) "wss" else "ws"
+            val host = uri.host ?: Uri.parse(httpBase).host ?: return null
+            val portPart = if (uri.port == -1) "" else ":${uri.port}"
+            val queryItems = mutableListOf("channel=control", "v=$PROTOCOL_VERSION")
+            val deviceId = runCatching { DeviceIdentityProvider.getDeviceId() }.getOrNull()
+            if (!deviceId.isNullOrBlank()) {
+                queryItems += "deviceId=${Uri.encode(deviceId)}"
+            }
+            val epoch = prefs.getLong(KEY_EPOCH, 0L)
+            if (epoch > 0L) {
+                queryItems += "epoch=$epoch"
+                queryItems += "lastSeq=${prefs.getLong(KEY_LAST_SEQ, 0L)}"
+            }
+            "$scheme://$host$portPart/ws?${queryItems.joinToString("&")}"
+        } catch (e: Exception) {
+            Log.e(TAG, "Invalid base URL for realtime channel", e)
+            null
+        }
+    }
+
+    override fun onOpen(webSocket: WebSocket, response: Response) {
+        Log.i(TAG, "Realtime channel connected.")
+        socket = webSocket
+        handler.post { backoffMs = INITIAL_BACKOFF_MS }
+        sendAuth(webSocket, sessionManager.fetchAccessToken())
+    }
+
+    override fun onMessage(webSocket: WebSocket, text: String) {
+        val frame = try {
+            JsonParser.parseString(text).takeIf { it.isJsonObject }?.asJsonObject
+        } catch (e: Exception) {
+            null
+        } ?: return
+        when (frame.get("ch")?.asString) {
+            "control" -> handleControl(frame)
+            "hello" -> handleHello(frame)
+            "auth" -> authenticated = frame.get("ok")?.asBoolean == true
+            "ack" -> completeAck(frame, true)
+            "nack" -> {
+                val error = frame.get("error")?.asString
+                if (error == "UNAUTHENTICATED" || error == "TOKEN_EXPIRED") authenticated = false
+                completeAck(frame, false)
+            }
+            // 旧版后端直接推送控制消息
+            null -> OfflineControlMessageHandler.handleRawMessage(text)
+        }
+    }
+
+    override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
+        onMessage(webSocket, bytes.utf8())
+    }
+
+    override fun onClosed(webSocket: WebSocket, code: Int, reason: String) {
+        Log.i(TAG, "Realtime channel closed: $code $reason")
+        onDisconnected(webSocket)
+    }
+
+    override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+        Log.w(TAG, "Realtime channel failure: ${t.message}")
+        onDisconnected(webSocket)
+    }
+
+    private fun onDisconnected(webSocket: WebSocket) {
+        if (socket === webSocket) {
+            socket = null
+            authenticated = false
+        }
+        pendingAcks.values.forEach { it.complete(false) }
+        scheduleReconnect()
+    }
+
+    private fun sendAuth(webSocket: WebSocket, accessToken: String?) {
+        val frame = JsonObject().apply {
+            addProperty("ch", "auth")
+            addProperty("token", accessToken?.takeIf { it.isNotBlank() })
+        }
+        webSocket.send(frame.toString())
+    }
+
+    // 后端重启后序号从头开始，丢弃本地记录的旧序号
+    private fun handleHello(frame: JsonObject) {
+        val epoch = frame.get("epoch")?.asLong ?: return
+        if (epoch != prefs.getLong(KEY_EPOCH, 0L)) {
+            prefs.edit().putLong(KEY_EPOCH, epoch).putLong(KEY_LAST_SEQ, 0L).apply()
+        }
+    }
+
+    private fun handleControl(frame: JsonObject) {
+        val seq = frame.get("seq")?.asLong ?: 0L
+        val epoch = frame.get("epoch")?.asLong ?: 0L
+        val message = frame.getAsJsonObject("msg") ?: return
+        synchronized(this) {
+            if (epoch == prefs.getLong(KEY_EPOCH, 0L) && seq <= prefs.getLong(KEY_LAST_SEQ, 0L)) {
+                return
+            }
+            prefs.edit().putLong(KEY_EPOCH, epoch).putLong(KEY_LAST_SEQ, seq).apply()
+        }
+        OfflineControlMessageHandler.handleRawMessage(message.toString())
+    }
+
+    private fun completeAck(frame: JsonObject, success: Boolean) {
+        val id = frame.get("id")?.asLong ?: return
+        pendingAcks[id]?.complete(success)
+    }
+
+    private fun scheduleReconnect() {
+        handler.post {
+            handler.removeCallbacksAndMessages(null)
+            // Full jitter: a random delay up to the current cap, so clients spread out after a backend restart
+            val delayMs = Random.nextLong(INITIAL_BACKOFF_MS / 2, backoffMs + 1)
+            backoffMs = (backoffMs * 2).coerceAtMost(MAX_BACKOFF_MS)
+            handler.postDelayed({ connect() }, delayMs)
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.sonicwavev4.network
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 请求体压缩的计数：[originalBytes] / [sentBytes] 只统计走过压缩的请求（压缩后更大时按原始大小计），
+ * [skippedBytes] 为未压缩请求的已知大小（长度未知的请求只计次数）。
+ */
+data class CompressionStats(
+    val compressedRequests: Long,
+    val skippedRequests: Long,
+    val originalBytes: Long,
+    val sentBytes: Long,
+    val skippedBytes: Long
+) {
+    val savedBytes: Long
+        get() = originalBytes - sentBytes
+}
+
+/**
+ * 请求体压缩策略：小于 [MIN_COMPRESS_BYTES] 的请求体不压缩；
+ * 按路由记录实际压缩率，压缩收益不足的路由停止压缩，但每 [PROBE_INTERVAL] 次仍会重新试探一次。
+ *
+ * 同时按路由和全局累计压缩、跳过的请求数与字节数：全局计数见 [snapshot]，
+ * 路由计数由 [drainRouteStats] 取出并清零，随日志上传。
+ */
+object RequestCompressionPolicy {
+
+    const val MIN_COMPRESS_BYTES = 1024L
+    private const val MIN_SAMPLES = 8
+    private const val PROBE_INTERVAL = 50
+    private const val MAX_USEFUL_RATIO = 0.9
+    private const val EWMA_WEIGHT = 0.2
+
+    private class RouteStats {
+        var samples = 0
+        var ratio = 1.0
+        var skippedSinceProbe = 0
+
+        // 上次 drainRouteStats 以来的计数
+        var compressedRequests = 0L
+        var skippedRequests = 0L
+        var originalBytes = 0L
+        var sentBytes = 0L
+        var skippedBytes = 0L
+
+        fun toStats() = CompressionStats(compressedRequests, skippedRequests, originalBytes, sentBytes, skippedBytes)
+
+        fun resetCounts() {
+            compressedRequests = 0L
+            skippedRequests = 0L
+            originalBytes = 0L
+            sentBytes = 0L
+            skippedBytes = 0L
+        }
+    }
+
+    private val routes = ConcurrentHashMap<String, RouteStats>()
+
+    private val compressedRequests = AtomicLong()
+    private val skippedRequests = AtomicLong()
+    private val originalBytes = AtomicLong()
+    private val sentBytes = AtomicLong()
+    private val skippedBytes = AtomicLong()
+
+    fun shouldCompress(route: String, contentLength: Long): Boolean {
+        if (contentLength in 0 until MIN_COMPRESS_BYTES) return false
+        val stats = routes[route] ?: return true
+        synchronized(stats) {
+            if (stats.samples < MIN_SAMPLES || stats.ratio <= MAX_USEFUL_RATIO) return true
+            stats.skippedSinceProbe++
+            if (stats.skippedSinceProbe >= PROBE_INTERVAL) {
+                stats.skippedSinceProbe = 0
+                return true
+            }
+            return false
+        }
+    }
+
+    fun recordCompressed(route: String, original: Long, compressed: Long) {
+        if (original <= 0L) return
+        val stats = routes.getOrPut(route) { RouteStats() }
+        val ratio = compressed.toDouble() / original
+        val sent = minOf(original, compressed)
+        synchronized(stats) {
+            stats.ratio = if (stats.samples == 0) ratio else stats.ratio + EWMA_WEIGHT * (ratio - stats.ratio)
+            stats.samples++
+            stats.compressedRequests++
+            stats.originalBytes += original
+            stats.sentBytes += sent
+        }
+        compressedRequests.incrementAndGet()
+        originalBytes.addAndGet(original)
+        sentBytes.addAndGet(sent)
+    }
+
+    /**
+     * 记录一次未压缩发送的请求；[contentLength] 为 -1 表示长度未知。
+     */
+    fun recordSkipped(route: String, contentLength: Long) {
+        val length = contentLength.coerceAtLeast(0L)
+        val stats = routes.getOrPut(route) { RouteStats() }
+        synchronized(stats) {
+            stats.skippedRequests++
+            stats.skippedBytes += length
+        }
+        skippedRequests.incrementAndGet()
+        skippedBytes.addAndGet(length)
+    }
+
+    /**
+     * 进程启动以来的全局计数。
+     */
+    fun snapshot(): CompressionStats = CompressionStats(
+        compressedRequests = compressedRequests.get(),
+        skippedRequests = skippedRequests.get(),
+        originalBytes = originalBytes.get(),
+        sentBytes = sentBytes.get(),
+        skippedBytes = skippedBytes.get()
+    )
+
+    /**
+     * 取出上次调用以来有请求的路由计数并清零；压缩率等策略状态保留。
+     */
+    fun drainRouteStats(): Map<String, CompressionStats> {
+        val drained = LinkedHashMap<String, CompressionStats>()
+        routes.forEach { (route, stats) ->
+            synchronized(stats) {
+                if (stats.compressedRequests > 0L || stats.skippedRequests > 0L) {
+                    drained[route] = stats.toStats()
+                    stats.resetCounts()
+                }
+            }
+        }
+        return drained
+    }
+}
@@ -1,16 +1,26 @@
 package com.example.sonicwavev4.network
 
 import android.content.Context
+import android.util.Log
 import com.example.sonicwavev4.BuildConfig
-import okhttp3.OkHttpClient
+import com.example.sonicwavev4.utils.DeviceIdentityProvider
+import com.example.sonicwavev4.utils.HeartbeatOrchestrator
+import okhttp3.Cache
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
+import java.io.File
+import java.io.IOException
 import java.lang.reflect.Proxy
-import java.util.concurrent.TimeUnit
 
 object RetrofitClient {
 
+    private const val HTTP_CACHE_DIR = "http_cache"
+    private const val HTTP_CACHE_BYTES = 10L * 1024 * 1024
+
+    @Volatile
+    private var responseCache: Cache? = null
+
     @Volatile
     private var authToken: String? = null
 
@@ -28,24 +38,49 @@ object RetrofitClient {
                 if (_apiService == null) {
                     val appContext = context.applicationContext
                     BackendEnvironment.initialize(appContext)
+                    TokenRefresher.initialize(appContext)
 
                     // 1. Create the Authenticator
                     val tokenAuthenticator = TokenAuthenticator(appContext)
 
-                    // 2. Create the OkHttp Client with all interceptors and the authenticator
-                    val okHttpClient = OkHttpClient.Builder()
+                    // 2. Offline-first cache for read endpoints, placed after logging so a cache hit counts as one call
+                    val swrInterceptor = StaleWhileRevalidateInterceptor(responseCache(appContext))
+
+                    // 3. Derive the OkHttp Client from the shared core and add interceptors and the authenticator
+                    val okHttpClient = NetworkCore.newBuilder()
                         // Interceptor to add the Access Token to every request
                         .addInterceptor { chain ->
                             val requestBuilder = chain.request().newBuilder()
                             authToken?.let {
-                                requestBuilder.addHeader("Authorization", "Bearer $it")
+                                requestBuilder.header("Authorization", "Bearer $it")
                             }
                             chain.proceed(requestBuilder.build())
                         }
+                        // Lets the backend refresh the device's last_seen_at from authenticated traffic
+                        .addInterceptor { chain ->
+                            val request = chain.request()
+                            val deviceId = runCatching { DeviceIdentityProvider.getDeviceId() }.getOrNull()
+                            if (deviceId == null || request.header("Authorization") == null) {
+                                chain.proceed(request)
+                            } else {
+                                chain.proceed(request.newBuilder().header("X-Device-Id", deviceId).build())
+                            }
+                        }
+                        // Authenticated traffic that reached the backend doubles as a heartbeat
+                        .addInterceptor { chain ->
+                            val response = chain.proceed(chain.request())
+                            if (chain.request().header("Authorization") != null &&
+                                response.networkResponse != null &&
+                                response.code != 401 && response.code != 403 && response.code < 500
+                            ) {
+                                HeartbeatOrchestrator.onAuthenticatedTraffic()
+                            }
+                            response
+                        }
                         // Interceptor to add the client version header
                         .addInterceptor { chain ->
                             val requestBuilder = chain.request().newBuilder()
-                            requestBuilder.addHeader("X-Client-Version", BuildConfig.VERSION_NAME)
+                            requestBuilder.header("X-Client-Version", BuildConfig.VERSION_NAME)
                             chain.proceed(requestBuilder.build())
                         }
                         .addInterceptor(GzipRequestInterceptor())
@@ -53,13 +88,14 @@ object RetrofitClient {
                         .addInterceptor(HttpLoggingInterceptor().apply {
                             level = if (BuildConfig.DEBUG) HttpLoggingInterceptor.Level.BODY else HttpLoggingInterceptor.Level.NONE
                         })
+                        .addInterceptor(swrInterceptor)
+                        .addNetworkInterceptor(StaleWhileRevalidateInterceptor.cacheNetworkInterceptor)
+                        .cache(responseCache(appContext))
                         .authenticator(tokenAuthenticator) // Add the authenticator
-                        .connectTimeout(30, TimeUnit.SECONDS)
-                        .readTimeout(30, TimeUnit.SECONDS)
-                        .writeTimeout(30, TimeUnit.SECONDS)
                         .build()
+                    swrInterceptor.revalidationClient = okHttpClient
 
-                    // 3. Create the Retrofit instance
+                    // 4. Create the Retrofit instance
                     val retrofit = Retrofit.Builder()
                         .baseUrl(EndpointProvider.baseUrl)
                         .client(okHttpClient)
@@ -80,7 +116,29 @@ object RetrofitClient {
     }
 
     fun updateToken(newToken: String?) {
+        // 部分调用方每次请求前都会设置一次令牌，未变化时不重复安排刷新和通道认证
+        if (newToken == authToken) return
         this.authToken = newToken
+        TokenRefresher.scheduleProactiveRefresh(newToken)
+        RealtimeChannel.onTokenChanged(newToken)
+    }
+
+    /**
+     * 清空读接口的响应缓存（缓存按 URL 存储，不区分用户，登出时必须清除）。
+     */
+    fun clearResponseCache() {
+        try {
+            responseCache?.evictAll()
+        } catch (e: IOException) {
+            Log.w("RetrofitClient", "Failed to clear response cache", e)
+        }
+    }
+
+    // 同一目录只能有一个 Cache 实例，reinitialize 时复用
+    private fun responseCache(context: Context): Cache {
+        return responseCache ?: Cache(File(context.cacheDir, HTTP_CACHE_DIR), HTTP_CACHE_BYTES).also {
+            responseCache = it
+        }
     }
 
     private fun createDelegatingApiService(): ApiService {
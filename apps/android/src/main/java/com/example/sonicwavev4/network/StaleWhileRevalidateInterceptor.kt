@@ -0,0 +1,146 @@
+package com.example.sonicwavev4.network
+
+import android.util.Log
+import okhttp3.Cache
+import okhttp3.CacheControl
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.Interceptor
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * 读接口的离线优先缓存（stale-while-revalidate）。
+ *
+ * - [CACHED_PATHS] 中的 GET 请求：缓存里有 [STALE_WINDOW_HOURS] 小时内的副本时立即返回，
+ *   同时在后台发起一次条件请求（If-None-Match / If-Modified-Since）刷新缓存；
+ * - 没有可用副本时走网络，网络失败（离线）再退回任意旧副本；
+ * - 同一资源的写请求（POST/PUT/PATCH/DELETE）成功后，清除对应的缓存。
+ *
+ * 后端不返回 Cache-Control，[cacheNetworkInterceptor] 会把这些响应标记为 `max-age=0`，
+ * 让 OkHttp 存储并在下次请求时自动做条件请求。
+ */
+class StaleWhileRevalidateInterceptor(private val cache: Cache) : Interceptor {
+
+    /** 后台刷新请求的标记，避免再次进入 stale-while-revalidate 流程。 */
+    private object Revalidation
+
+    @Volatile
+    var revalidationClient: OkHttpClient? = null
+
+    private val inFlight = ConcurrentHashMap.newKeySet<String>()
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (request.method != "GET") {
+            val response = chain.proceed(request)
+            if (response.isSuccessful) {
+                invalidate(request.url)
+            }
+            return response
+        }
+        if (!isCachedPath(request.url) || request.tag(Revalidation::class.java) != null) {
+            return chain.proceed(request)
+        }
+
+        val cached = chain.proceed(request.newBuilder().cacheControl(STALE_CACHE_ONLY).build())
+        if (cached.code != HTTP_GATEWAY_TIMEOUT) {
+            revalidate(request)
+            return cached
+        }
+        cached.close()
+
+        return try {
+            chain.proceed(request)
+        } catch (e: IOException) {
+            val offline = chain.proceed(request.newBuilder().cacheControl(CacheControl.FORCE_CACHE).build())
+            if (offline.code == HTTP_GATEWAY_TIMEOUT) {
+                offline.close()
+                throw e
+            }
+            offline
+        }
+    }
+
+    private fun revalidate(request: Request) {
+        val client = revalidationClient ?: return
+        val key = request.url.toString()
+        if (!inFlight.add(key)) return
+        val revalidation = request.newBuilder()
+            .tag(Revalidation::class.java, Revalidation)
+            .build()
+        client.newCall(revalidation).enqueue(object : Callback {
+            override fun onFailure(call: Call, e: IOException) {
+                inFlight.remove(key)
+                Log.d(TAG, "Background revalidation failed for ${request.url.encodedPath}: ${e.message}")
+            }
+
+            override fun onResponse(call: Call, response: Response) {
+                inFlight.remove(key)
+                response.close()
+            }
+        })
+    }
+
+    // 写请求路径以某个缓存路径为前缀时（如 PUT /api/v1/customers/12），清除该缓存路径下的所有条目
+    private fun invalidate(url: HttpUrl) {
+        val path = url.encodedPath.trimEnd('/')
+        val affected = CACHED_PATHS.filter { path == it || path.startsWith("$it/") }
+        if (affected.isEmpty()) return
+        try {
+            val urls = cache.urls()
+            while (urls.hasNext()) {
+                val cachedPath = urls.next().toHttpUrlOrNull()?.encodedPath?.trimEnd('/') ?: continue
+                if (cachedPath in affected) {
+                    urls.remove()
+                }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to invalidate cache for $path", e)
+        }
+    }
+
+    companion object {
+        private const val TAG = "SwrCache"
+        private const val HTTP_GATEWAY_TIMEOUT = 504
+        private const val STALE_WINDOW_HOURS = 24
+
+        private val CACHED_PATHS = setOf(
+            "/api/v1/music/categories",
+            "/api/v1/music",
+            "/api/v1/app/feature-flags",
+            "/api/v1/customers"
+        )
+
+        private val STALE_CACHE_ONLY = CacheControl.Builder()
+            .onlyIfCached()
+            .maxStale(STALE_WINDOW_HOURS, TimeUnit.HOURS)
+            .build()
+
+        /**
+         * 网络拦截器：把白名单 GET 响应标记为可缓存但每次都需重新验证。
+         */
+        val cacheNetworkInterceptor = Interceptor { chain ->
+            val request = chain.request()
+            val response = chain.proceed(request)
+            if (request.method == "GET" && isCachedPath(request.url) &&
+                (response.isSuccessful || response.code == 304)
+            ) {
+                response.newBuilder()
+                    .header("Cache-Control", "private, max-age=0")
+                    .removeHeader("Pragma")
+                    .build()
+            } else {
+                response
+            }
+        }
+
+        private fun isCachedPath(url: HttpUrl): Boolean = url.encodedPath.trimEnd('/') in CACHED_PATHS
+    }
+}
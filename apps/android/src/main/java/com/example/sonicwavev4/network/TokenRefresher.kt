@@ -0,0 +1,174 @@
+package com.example.sonicwavev4.network
+
+import android.content.Context
+import android.util.Log
+import com.example.sonicwavev4.BuildConfig
+import com.example.sonicwavev4.utils.SessionManager
+import com.google.gson.JsonParser
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import okhttp3.logging.HttpLoggingInterceptor
+import okio.ByteString.Companion.decodeBase64
+import retrofit2.Retrofit
+import retrofit2.converter.gson.GsonConverterFactory
+
+/**
+ * 访问令牌刷新：
+ * - 单飞：同一时刻只有一个刷新请求，其余调用方挂起等待同一个结果；
+ * - 主动刷新：解析 JWT 的 `exp`，在过期前 [REFRESH_AHEAD_MS] 于后台刷新，正常使用时不会遇到 401。
+ */
+object TokenRefresher {
+
+    private const val TAG = "TokenRefresher"
+    private const val REFRESH_AHEAD_MS = 60_000L
+    private const val INITIAL_RETRY_DELAY_MS = 15_000L
+    private const val MAX_RETRY_DELAY_MS = 5 * 60_000L
+
+    sealed class Outcome {
+        data class Refreshed(val accessToken: String) : Outcome()
+        // 刷新令牌无效或已过期，需要重新登录
+        object Rejected : Outcome()
+        // 网络错误或服务端暂时不可用，可以稍后重试
+        object Failed : Outcome()
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val lock = Any()
+    private var inFlight: Deferred<Outcome>? = null
+    private var proactiveJob: Job? = null
+
+    @Volatile
+    private var sessionManager: SessionManager? = null
+
+    @Volatile
+    private var refreshApiService: Pair<String, ApiService>? = null
+
+    fun initialize(context: Context) {
+        if (sessionManager == null) {
+            sessionManager = SessionManager(context.applicationContext)
+        }
+    }
+
+    /**
+     * 刷新令牌。[staleAccessToken] 为调用方手上已失效的令牌，若当前令牌已经不同（被其他调用刷新过）则直接返回当前令牌。
+     */
+    suspend fun refresh(staleAccessToken: String?): Outcome {
+        val deferred = synchronized(lock) {
+            val current = sessionManager?.fetchAccessToken()
+            if (!current.isNullOrBlank() && current != staleAccessToken) {
+                return Outcome.Refreshed(current)
+            }
+            inFlight?.takeIf { it.isActive }
+                ?: scope.async { performRefresh() }.also { inFlight = it }
+        }
+        return deferred.await()
+    }
+
+    /**
+     * 根据令牌的过期时间安排后台刷新；令牌为空或无法解析时只取消已有的计划。
+     */
+    fun scheduleProactiveRefresh(accessToken: String?) {
+        synchronized(lock) {
+            proactiveJob?.cancel()
+            proactiveJob = null
+            if (accessToken.isNullOrBlank()) return
+            val expiresAt = expiryMillisOf(accessToken) ?: return
+            proactiveJob = scope.launch {
+                delay((expiresAt - REFRESH_AHEAD_MS - System.currentTimeMillis()).coerceAtLeast(0L))
+                var retryDelay = INITIAL_RETRY_DELAY_MS
+                while (true) {
+                    when (refresh(accessToken)) {
+                        // 新令牌由 RetrofitClient.updateToken 重新安排
+                        is Outcome.Refreshed -> return@launch
+                        // 交给下一次 401 时的 TokenAuthenticator 处理登出
+                        Outcome.Rejected -> return@launch
+                        Outcome.Failed -> {
+                            delay(retryDelay)
+                            retryDelay = (retryDelay * 2).coerceAtMost(MAX_RETRY_DELAY_MS)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取 JWT 负载中的 `exp`（秒），返回毫秒时间戳；不是 JWT 或没有 `exp` 时返回 null。
+     */
+    internal fun expiryMillisOf(token: String): Long? {
+        val parts = token.split('.')
+        if (parts.size != 3) return null
+        return try {
+            val payload = parts[1].decodeBase64()?.utf8() ?: return null
+            val json = JsonParser.parseString(payload)
+            if (!json.isJsonObject) return null
+            val exp = json.asJsonObject.get("exp") ?: return null
+            if (!exp.isJsonPrimitive || !exp.asJsonPrimitive.isNumber) return null
+            exp.asLong * 1000
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private suspend fun performRefresh(): Outcome {
+        val manager = sessionManager ?: return Outcome.Failed
+        val refreshToken = manager.fetchRefreshToken() ?: return Outcome.Rejected
+        Log.d(TAG, "Refreshing access token...")
+        return try {
+            val response = getRefreshApiService().refreshToken(RefreshTokenRequest(refreshToken))
+            val tokens = response.body()
+            when {
+                response.isSuccessful && tokens != null -> {
+                    manager.saveTokens(tokens.accessToken, tokens.refreshToken)
+                    RetrofitClient.updateToken(tokens.accessToken)
+                    Log.d(TAG, "Token refresh successful.")
+                    Outcome.Refreshed(tokens.accessToken)
+                }
+                response.code() == 408 || response.code() == 429 || response.code() >= 500 -> {
+                    Log.w(TAG, "Token refresh temporarily failed, HTTP ${response.code()}")
+                    Outcome.Failed
+                }
+                else -> {
+                    Log.e(TAG, "Token refresh rejected, HTTP ${response.code()}")
+                    Outcome.Rejected
+                }
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.e(TAG, "Exception during token refresh call", e)
+            Outcome.Failed
+        }
+    }
+
+    // 刷新接口不挂 authenticator，避免递归；按 baseUrl 缓存，Debug 切换环境后重建
+    private fun getRefreshApiService(): ApiService {
+        val baseUrl = "${EndpointProvider.baseUrl.trimEnd('/')}/"
+        refreshApiService?.let { (cachedBaseUrl, service) ->
+            if (cachedBaseUrl == baseUrl) return service
+        }
+        val loggingInterceptor = HttpLoggingInterceptor().apply {
+            level = if (BuildConfig.DEBUG) HttpLoggingInterceptor.Level.BODY else HttpLoggingInterceptor.Level.NONE
+        }
+        val okHttpClient = NetworkCore.newBuilder()
+            .addInterceptor(loggingInterceptor)
+            .build()
+
+        val retrofit = Retrofit.Builder()
+            .baseUrl(baseUrl)
+            .client(okHttpClient)
+            .addConverterFactory(GsonConverterFactory.create())
+            .build()
+
+        return retrofit.create(ApiService::class.java).also {
+            refreshApiService = baseUrl to it
+        }
+    }
+}
@@ -12,7 +12,6 @@ import com.example.sonicwavev4.network.LoginEventRequest
 import com.example.sonicwavev4.network.RegisterRequest
 import com.example.sonicwavev4.network.RetrofitClient
 import com.example.sonicwavev4.network.LogoutEventRequest
-import com.example.sonicwavev4.utils.HeartbeatManager
 import com.example.sonicwavev4.utils.HeartbeatOrchestrator
 import com.example.sonicwavev4.utils.LogoutReason
 import com.example.sonicwavev4.utils.OfflineTestModeManager
@@ -59,7 +58,6 @@ class AuthRepository(application: Application) : AuthGateway {
             sessionManager.saveUserSession(OFFLINE_USER_ID, OFFLINE_USERNAME_DISPLAY, OFFLINE_EMAIL)
             sessionManager.saveSessionId(-1L)
             RetrofitClient.updateToken(null)
-            HeartbeatManager.stop()
             HeartbeatOrchestrator.refreshHeartbeats()
             val offlineResponse = LoginResponse(
                 message = "Offline login success",
@@ -83,7 +81,6 @@ class AuthRepository(application: Application) : AuthGateway {
                     Log.e("AuthRepository", "Failed to record logout event", e)
                 }
             }
-            HeartbeatManager.stop()
             sessionManager.initiateLogout(reason)
             OfflineTestModeManager.setOfflineTestMode(false)
             RetrofitClient.updateToken(null)
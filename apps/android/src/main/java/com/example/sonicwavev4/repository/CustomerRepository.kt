@@ -9,9 +9,25 @@ import retrofit2.Response
 class CustomerRepository {
     private val apiService: ApiService = RetrofitClient.api
 
-    suspend fun addCustomer(customer: Customer): Response<CustomerCreationResponse> = apiService.addCustomer(customer)
+    companion object {
+        private const val CACHE_TTL_MS = 15_000L
 
-    suspend fun getCustomers(): Response<List<Customer>> = apiService.getCustomers()
+        // 只缓存成功的响应；客户列表按用户区分，登出时由 SessionManager 清空
+        private val customersCache = SingleFlightCache<Unit, Response<List<Customer>>>(
+            ttlMs = CACHE_TTL_MS,
+            cacheIf = { it.isSuccessful }
+        )
 
-    suspend fun updateCustomer(customerId: Int, customer: Customer): Response<Unit> = apiService.updateCustomer(customerId, customer)
+        suspend fun clearCache() {
+            customersCache.invalidateAll()
+        }
+    }
+
+    suspend fun addCustomer(customer: Customer): Response<CustomerCreationResponse> =
+        apiService.addCustomer(customer).also { if (it.isSuccessful) customersCache.invalidateAll() }
+
+    suspend fun getCustomers(): Response<List<Customer>> = customersCache.get(Unit) { apiService.getCustomers() }
+
+    suspend fun updateCustomer(customerId: Int, customer: Customer): Response<Unit> =
+        apiService.updateCustomer(customerId, customer).also { if (it.isSuccessful) customersCache.invalidateAll() }
 }
@@ -1,12 +1,18 @@
 package com.example.sonicwavev4.repository
 
 import android.content.Context
+import androidx.room.withTransaction
 import com.example.sonicwavev4.MusicItem
+import com.example.sonicwavev4.data.playlist.db.PlaylistDatabase
+import com.example.sonicwavev4.data.playlist.db.PlaylistEntity
+import com.example.sonicwavev4.data.playlist.db.PlaylistTrackEntity
+import com.example.sonicwavev4.utils.FractionalIndex
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.withContext
-import org.json.JSONArray
-import org.json.JSONObject
-import java.io.File
 import java.util.UUID
 
 /**
@@ -22,114 +28,98 @@ data class LocalPlaylist(
     val trackUris: List<String> = emptyList()
 )
 
-class LocalPlaylistRepository(
-    private val context: Context
-) {
+/**
+ * 歌单存储（Room，playlists.db）。歌单和曲目都用浮点 position 排序，
+ * 新增、删除、移动都只写一行；界面通过 [observePlaylists] 接收变化。
+ */
+class LocalPlaylistRepository(context: Context) {
 
-    private val fileName = "playlists.json"
+    private val database = PlaylistDatabase.getInstance(context)
+    private val dao = database.playlistDao()
 
-    private fun resolveFile(): File {
-        return File(context.filesDir, fileName)
-    }
+    fun observePlaylists(): Flow<List<LocalPlaylist>> =
+        combine(dao.observePlaylists(), dao.observeTracks()) { playlists, tracks ->
+            val tracksByPlaylist = tracks.groupBy({ it.playlistId }, { it.trackUri })
+            playlists.map { playlist ->
+                LocalPlaylist(
+                    id = playlist.id,
+                    name = playlist.name,
+                    trackUris = tracksByPlaylist[playlist.id].orEmpty()
+                )
+            }
+        }.flowOn(Dispatchers.IO)
 
-    suspend fun loadPlaylists(): List<LocalPlaylist> = withContext(Dispatchers.IO) {
-        val file = resolveFile()
-        if (!file.exists()) return@withContext emptyList<LocalPlaylist>()
-        val text = file.readText()
-        if (text.isBlank()) return@withContext emptyList<LocalPlaylist>()
+    suspend fun loadPlaylists(): List<LocalPlaylist> = observePlaylists().first()
 
-        try {
-            val arr = JSONArray(text)
-            buildList {
-                for (i in 0 until arr.length()) {
-                    val obj = arr.getJSONObject(i)
-                    add(
-                        LocalPlaylist(
-                            id = obj.optString("id"),
-                            name = obj.optString("name"),
-                            trackUris = obj.optJSONArray("trackUris")?.let { tracks ->
-                                buildList {
-                                    for (j in 0 until tracks.length()) {
-                                        add(tracks.getString(j))
-                                    }
-                                }
-                            } ?: emptyList()
-                        )
-                    )
-                }
-            }
-        } catch (_: Exception) {
-            emptyList()
+    /**
+     * 新建歌单并返回其 ID。
+     */
+    suspend fun createPlaylist(name: String): String = withContext(Dispatchers.IO) {
+        database.withTransaction {
+            val entity = PlaylistEntity(
+                id = UUID.randomUUID().toString(),
+                name = name.trim(),
+                position = FractionalIndex.between(dao.maxPlaylistPosition(), null),
+                createdAt = System.currentTimeMillis()
+            )
+            dao.insertPlaylist(entity)
+            entity.id
         }
     }
 
-    private suspend fun savePlaylists(playlists: List<LocalPlaylist>) = withContext(Dispatchers.IO) {
-        val arr = JSONArray()
-        playlists.forEach { playlist ->
-            val obj = JSONObject()
-            obj.put("id", playlist.id)
-            obj.put("name", playlist.name)
-            val trackArr = JSONArray()
-            playlist.trackUris.forEach { trackArr.put(it) }
-            obj.put("trackUris", trackArr)
-            arr.put(obj)
-        }
-        resolveFile().writeText(arr.toString())
+    suspend fun renamePlaylist(id: String, newName: String) = withContext(Dispatchers.IO) {
+        dao.renamePlaylist(id, newName.trim())
     }
 
-    suspend fun createPlaylist(name: String): List<LocalPlaylist> {
-        val current = loadPlaylists()
-        val newPlaylist = LocalPlaylist(name = name.trim())
-        val updated = current + newPlaylist
-        savePlaylists(updated)
-        return updated
+    suspend fun deletePlaylist(id: String) = withContext(Dispatchers.IO) {
+        database.withTransaction {
+            dao.deleteTracksOf(id)
+            dao.deletePlaylist(id)
+        }
     }
 
-    suspend fun renamePlaylist(id: String, newName: String): List<LocalPlaylist> {
-        val current = loadPlaylists()
-        val updated = current.map {
-            if (it.id == id) it.copy(name = newName.trim()) else it
+    /**
+     * 追加到歌单末尾；已在歌单中的曲目保持原位置。
+     */
+    suspend fun addTrackToPlaylist(playlistId: String, track: MusicItem) = withContext(Dispatchers.IO) {
+        database.withTransaction {
+            dao.insertTrack(
+                PlaylistTrackEntity(
+                    playlistId = playlistId,
+                    trackUri = track.uri.toString(),
+                    position = FractionalIndex.between(dao.maxTrackPosition(playlistId), null)
+                )
+            )
         }
-        savePlaylists(updated)
-        return updated
+        Unit
     }
 
-    suspend fun deletePlaylist(id: String): List<LocalPlaylist> {
-        val current = loadPlaylists()
-        val updated = current.filterNot { it.id == id }
-        savePlaylists(updated)
-        return updated
+    suspend fun removeTrackFromPlaylist(playlistId: String, track: MusicItem) = withContext(Dispatchers.IO) {
+        dao.deleteTrack(playlistId, track.uri.toString())
     }
 
-    suspend fun addTrackToPlaylist(playlistId: String, track: MusicItem): List<LocalPlaylist> {
-        val current = loadPlaylists()
-        val targetUri = track.uri.toString()
-        val updated = current.map { playlist ->
-            if (playlist.id == playlistId) {
-                if (playlist.trackUris.contains(targetUri)) {
-                    playlist
-                } else {
-                    playlist.copy(trackUris = playlist.trackUris + targetUri)
-                }
+    /**
+     * 把曲目移动到歌单中的第 [toIndex] 位（按移动后的顺序计）。
+     */
+    suspend fun moveTrack(playlistId: String, trackUri: String, toIndex: Int) = withContext(Dispatchers.IO) {
+        database.withTransaction {
+            val target = toIndex.coerceAtLeast(0)
+            val before = if (target > 0) {
+                dao.positionsExcluding(playlistId, trackUri, target - 1, 1).firstOrNull()
             } else {
-                playlist
+                null
             }
-        }
-        savePlaylists(updated)
-        return updated
-    }
-
-    suspend fun removeTrackFromPlaylist(playlistId: String, track: MusicItem): List<LocalPlaylist> {
-        val current = loadPlaylists()
-        val targetUri = track.uri.toString()
-        val updated = current.map { playlist ->
-            if (playlist.id == playlistId) {
-                playlist.copy(trackUris = playlist.trackUris.filterNot { it == targetUri })
-            } else {
-                playlist
+            val after = dao.positionsExcluding(playlistId, trackUri, target, 1).firstOrNull()
+            if (!FractionalIndex.needsRebalance(before, after)) {
+                dao.updateTrackPosition(playlistId, trackUri, FractionalIndex.between(before, after))
+                return@withTransaction
+            }
+            // 间隔已经用尽：整份歌单重新编号
+            val ordered = dao.trackUris(playlistId).filterNot { it == trackUri }.toMutableList()
+            ordered.add(target.coerceAtMost(ordered.size), trackUri)
+            ordered.forEachIndexed { index, uri ->
+                dao.updateTrackPosition(playlistId, uri, FractionalIndex.at(index))
             }
         }
-        savePlaylists(updated)
-        return updated
     }
 }
@@ -0,0 +1,290 @@
+package com.example.sonicwavev4.repository
+
+import android.Manifest
+import android.content.Context
+import android.content.pm.PackageManager
+import android.database.ContentObserver
+import android.net.Uri
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.provider.MediaStore
+import android.util.Log
+import androidx.core.content.ContextCompat
+import androidx.core.net.toUri
+import com.example.sonicwavev4.MusicItem
+import com.google.gson.Gson
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.File
+
+/**
+ * 设备本地音乐（MediaStore.Audio）的持久化索引。
+ *
+ * - 启动时先从磁盘加载上次的索引，打开音乐列表时可以立即显示；
+ * - Android 11+ 用 `MediaStore.getVersion/getGeneration` 只查询上次同步之后新增或修改的条目，
+ *   删除通过只取 `_ID` 一列的轻量查询发现；MediaStore 版本变化（例如重建数据库）时全量重扫；
+ * - 更早的系统没有 generation，只在内容变化后全量扫描一次；
+ * - 没有读取媒体权限时不同步（此时查询结果可能不完整），授权后第一次同步走全量扫描；
+ * - 通过 [ContentObserver] 监听媒体库变化，变化后自动同步并更新 [tracks]。
+ */
+object MediaLibraryIndex {
+
+    private const val TAG = "MediaLibraryIndex"
+    private const val FILE_NAME = "media_library_index.json"
+    private const val SYNC_DEBOUNCE_MS = 1_000L
+
+    private data class IndexedTrack(
+        val id: Long,
+        val title: String,
+        val artist: String,
+        val uri: String
+    )
+
+    private data class Snapshot(
+        val mediaStoreVersion: String?,
+        val generation: Long,
+        val tracks: List<IndexedTrack>,
+        // 建索引时是否有读取权限；旧版本的快照没有这个字段，读出来是 false
+        val readPermission: Boolean = false
+    )
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val gson = Gson()
+    private val handler = Handler(Looper.getMainLooper())
+    private val syncMutex = Mutex()
+
+    // 以下状态只在 syncMutex 内修改
+    private val byId = HashMap<Long, IndexedTrack>()
+    private var mediaStoreVersion: String? = null
+    private var generation = -1L
+    private var indexedWithPermission = false
+
+    // 每次进程启动后至少核对一次，之后只在媒体库通知变化时才同步
+    @Volatile
+    private var dirty = true
+
+    private val _tracks = MutableStateFlow<List<MusicItem>>(emptyList())
+    val tracks: StateFlow<List<MusicItem>> = _tracks.asStateFlow()
+
+    private var loadJob: Job? = null
+    private lateinit var appContext: Context
+
+    private val syncRunnable = Runnable { requestSync() }
+
+    private val observer = object : ContentObserver(handler) {
+        override fun onChange(selfChange: Boolean) {
+            dirty = true
+            handler.removeCallbacks(syncRunnable)
+            handler.postDelayed(syncRunnable, SYNC_DEBOUNCE_MS)
+        }
+    }
+
+    fun initialize(context: Context) {
+        if (loadJob != null) return
+        appContext = context.applicationContext
+        loadJob = scope.launch {
+            syncMutex.withLock { loadFromDisk() }
+        }
+        appContext.contentResolver.registerContentObserver(
+            MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+            true,
+            observer
+        )
+    }
+
+    /**
+     * 返回已缓存的索引（不等待 MediaStore 查询），同时在后台同步。
+     */
+    suspend fun current(): List<MusicItem> {
+        loadJob?.join()
+        requestSync()
+        return _tracks.value
+    }
+
+    fun requestSync() {
+        scope.launch { sync() }
+    }
+
+    /**
+     * 把索引同步到最新并返回结果；没有变化时不查询 MediaStore。
+     */
+    suspend fun sync(): List<MusicItem> {
+        loadJob?.join()
+        syncMutex.withLock {
+            if (!dirty) return _tracks.value
+            if (!hasReadPermission()) {
+                // 保持 dirty，授权后再同步；权限可能被撤销过，重新授权后全量扫描
+                indexedWithPermission = false
+                Log.w(TAG, "No permission to read MediaStore, skipping sync")
+                return _tracks.value
+            }
+            if (!indexedWithPermission) {
+                // 之前的索引可能是在无权限时建的，不能在它的 generation 上增量同步
+                generation = -1L
+            }
+            dirty = false
+            try {
+                val changed = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    syncIncremental()
+                } else {
+                    fullScan()
+                    true
+                }
+                if (changed || !indexedWithPermission) {
+                    indexedWithPermission = true
+                    publishAndPersist()
+                }
+            } catch (e: SecurityException) {
+                // 尚未授予读取媒体权限，授权后会再次同步
+                dirty = true
+                Log.w(TAG, "No permission to read MediaStore", e)
+            } catch (e: Exception) {
+                dirty = true
+                Log.w(TAG, "Failed to sync media library", e)
+            }
+            return _tracks.value
+        }
+    }
+
+    /**
+     * 调用时已持有 syncMutex。返回索引是否有变化。
+     */
+    private fun syncIncremental(): Boolean {
+        val version = MediaStore.getVersion(appContext, MediaStore.VOLUME_EXTERNAL)
+        val latestGeneration = MediaStore.getGeneration(appContext, MediaStore.VOLUME_EXTERNAL)
+        if (version != mediaStoreVersion || generation < 0L) {
+            fullScan()
+            mediaStoreVersion = version
+            generation = latestGeneration
+            return true
+        }
+
+        var changed = false
+        if (latestGeneration > generation) {
+            changed = queryInto(
+                selection = "${MediaStore.MediaColumns.GENERATION_MODIFIED} > ?",
+                selectionArgs = arrayOf(generation.toString())
+            )
+            generation = latestGeneration
+        }
+
+        // 删除不会体现在 generation 上，用只含 _ID 的查询找出已删除的条目
+        val liveIds = HashSet<Long>()
+        appContext.contentResolver.query(
+            collectionUri(),
+            arrayOf(MediaStore.Audio.Media._ID),
+            null,
+            null,
+            null
+        )?.use { cursor ->
+            val idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
+            while (cursor.moveToNext()) liveIds.add(cursor.getLong(idColumn))
+        }
+        if (byId.keys.retainAll(liveIds)) changed = true
+        return changed
+    }
+
+    private fun fullScan() {
+        byId.clear()
+        queryInto(selection = null, selectionArgs = null)
+    }
+
+    /**
+     * 查询并合并到 [byId]；不满足展示条件的条目从索引中移除。返回是否有变化。
+     */
+    private fun queryInto(selection: String?, selectionArgs: Array<String>?): Boolean {
+        val projection = arrayOf(
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.DATA
+        )
+        var changed = false
+        appContext.contentResolver.query(collectionUri(), projection, selection, selectionArgs, null)?.use { cursor ->
+            val idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
+            val titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE)
+            val artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST)
+            val dataColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA)
+
+            while (cursor.moveToNext()) {
+                val id = cursor.getLong(idColumn)
+                val title = cursor.getString(titleColumn)
+                val artist = cursor.getString(artistColumn)
+                if (title == null || artist == null || title.startsWith(".")) {
+                    if (byId.remove(id) != null) changed = true
+                    continue
+                }
+                val contentUri: Uri = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                    Uri.withAppendedPath(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id.toString())
+                } else {
+                    cursor.getString(dataColumn).toUri()
+                }
+                val track = IndexedTrack(id, title, artist, contentUri.toString())
+                if (byId.put(id, track) != track) changed = true
+            }
+        }
+        return changed
+    }
+
+    private fun hasReadPermission(): Boolean {
+        val permission = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            Manifest.permission.READ_MEDIA_AUDIO
+        } else {
+            Manifest.permission.READ_EXTERNAL_STORAGE
+        }
+        return ContextCompat.checkSelfPermission(appContext, permission) == PackageManager.PERMISSION_GRANTED
+    }
+
+    private fun collectionUri(): Uri = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+        MediaStore.Audio.Media.getContentUri(MediaStore.VOLUME_EXTERNAL)
+    } else {
+        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
+    }
+
+    private fun publish() {
+        _tracks.value = byId.values
+            .sortedBy { it.title }
+            .map { MusicItem(it.title, it.artist, Uri.parse(it.uri), isDownloaded = false) }
+    }
+
+    private fun publishAndPersist() {
+        publish()
+        val snapshot = Snapshot(mediaStoreVersion, generation, byId.values.toList(), indexedWithPermission)
+        val target = File(appContext.filesDir, FILE_NAME)
+        try {
+            val tmp = File(appContext.filesDir, "$FILE_NAME.tmp")
+            tmp.writeText(gson.toJson(snapshot))
+            if (!tmp.renameTo(target)) {
+                target.writeText(gson.toJson(snapshot))
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to persist media library index", e)
+        }
+    }
+
+    private fun loadFromDisk() {
+        val file = File(appContext.filesDir, FILE_NAME)
+        if (!file.exists()) return
+        try {
+            val snapshot = gson.fromJson(file.readText(), Snapshot::class.java) ?: return
+            snapshot.tracks.orEmpty().forEach { byId[it.id] = it }
+            mediaStoreVersion = snapshot.mediaStoreVersion
+            generation = snapshot.generation
+            indexedWithPermission = snapshot.readPermission
+            publish()
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to read media library index, rescanning", e)
+            byId.clear()
+            generation = -1L
+        }
+    }
+}
@@ -22,22 +22,34 @@ class MusicRepositoryImpl(
     private val sessionManager: SessionManager = SessionManager(context.applicationContext)
 ) : MusicRepository {
 
+    companion object {
+        private const val CACHE_TTL_MS = 30_000L
+
+        // 音乐弹窗和音乐库各自持有仓库实例，缓存放在进程级别才能合并它们的请求
+        private val categoriesCache = SingleFlightCache<Unit, List<CloudMusicCategory>>(CACHE_TTL_MS)
+        private val tracksCache = SingleFlightCache<Long?, List<CloudMusicTrack>>(CACHE_TTL_MS)
+    }
+
     override suspend fun getCloudCategories(): List<CloudMusicCategory> {
         ensureAccessToken()
-        val response: CloudMusicCategoriesResponse = apiService.getCloudMusicCategories()
-        return response.categories.map { dto ->
-            CloudMusicCategory(
-                id = dto.id,
-                name = dto.name
-            )
+        return categoriesCache.get(Unit) {
+            val response: CloudMusicCategoriesResponse = apiService.getCloudMusicCategories()
+            response.categories.map { dto ->
+                CloudMusicCategory(
+                    id = dto.id,
+                    name = dto.name
+                )
+            }
         }
     }
 
     override suspend fun getCloudTracks(categoryId: Long?): List<CloudMusicTrack> {
         ensureAccessToken()
-        val response = apiService.getCloudMusicTracks(categoryId)
-        return response.tracks.mapNotNull { dto ->
-            mapTrack(dto)
+        return tracksCache.get(categoryId) {
+            val response = apiService.getCloudMusicTracks(categoryId)
+            response.tracks.mapNotNull { dto ->
+                mapTrack(dto)
+            }
         }
     }
 
@@ -0,0 +1,83 @@
+package com.example.sonicwavev4.repository
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * 按 key 合并并发的相同读取，并在 [ttlMs] 内复用结果。
+ *
+ * - 同一 key 同时只有一个加载在执行，其余调用方等待同一个结果；
+ * - 加载在内部作用域中执行，发起的调用方被取消不会影响其他等待者；
+ * - 失败不缓存，异常会抛给所有等待者；[cacheIf] 为 false 的结果同样只共享不缓存。
+ */
+class SingleFlightCache<K, V>(
+    private val ttlMs: Long,
+    private val cacheIf: (V) -> Boolean = { true },
+    private val clock: () -> Long = { System.nanoTime() / 1_000_000 }
+) {
+
+    private class Entry<V>(val value: V, val storedAt: Long)
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val mutex = Mutex()
+    private val entries = HashMap<K, Entry<V>>()
+    private val inFlight = HashMap<K, Deferred<V>>()
+
+    /**
+     * @param forceRefresh 忽略已缓存的结果，但仍会与正在进行的加载合并。
+     */
+    suspend fun get(key: K, forceRefresh: Boolean = false, loader: suspend () -> V): V {
+        val deferred = mutex.withLock {
+            if (!forceRefresh) {
+                entries[key]?.let { entry ->
+                    if (clock() - entry.storedAt < ttlMs) return entry.value
+                    entries.remove(key)
+                }
+            }
+            inFlight[key] ?: startLoad(key, loader)
+        }
+        return deferred.await()
+    }
+
+    suspend fun invalidate(key: K) {
+        mutex.withLock {
+            entries.remove(key)
+            inFlight.remove(key)
+        }
+    }
+
+    suspend fun invalidateAll() {
+        mutex.withLock {
+            entries.clear()
+            inFlight.clear()
+        }
+    }
+
+    // 调用时已持有 mutex
+    private fun startLoad(key: K, loader: suspend () -> V): Deferred<V> {
+        lateinit var deferred: Deferred<V>
+        deferred = scope.async(start = CoroutineStart.LAZY) {
+            val result = runCatching { loader() }
+            mutex.withLock {
+                // 加载期间被 invalidate 过（不再是当前的加载）时，结果只返回给等待者，不写入缓存
+                if (inFlight[key] === deferred) {
+                    inFlight.remove(key)
+                    if (result.isSuccess) {
+                        val value = result.getOrThrow()
+                        if (cacheIf(value)) entries[key] = Entry(value, clock())
+                    }
+                }
+            }
+            result.getOrThrow()
+        }
+        inFlight[key] = deferred
+        deferred.start()
+        return deferred
+    }
+}
@@ -21,7 +21,6 @@ import com.example.sonicwavev4.data.custompreset.CustomPresetRepositoryImpl
 import com.example.sonicwavev4.data.home.HomeHardwareRepository
 import com.example.sonicwavev4.data.home.HomeSessionRepository
 import com.example.sonicwavev4.databinding.FragmentCustomPresetBinding
-import com.example.sonicwavev4.network.RetrofitClient
 import com.example.sonicwavev4.SoftReduceTouchHost
 import com.example.sonicwavev4.ui.common.SoftResumeUi
 import com.example.sonicwavev4.ui.common.TouchHitTest
@@ -34,7 +33,6 @@ import com.example.sonicwavev4.ui.persetmode.PersetmodeViewModelFactory
 import com.example.sonicwavev4.ui.persetmode.PresetCategory
 import com.example.sonicwavev4.ui.persetmode.custom.CustomPresetAdapter
 import com.example.sonicwavev4.ui.customer.CustomerViewModel
-import com.example.sonicwavev4.utils.SessionManager
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.collect
@@ -51,10 +49,7 @@ class CustomPresetFragment : Fragment() {
     private val presetViewModel: PersetmodeViewModel by activityViewModels {
         val application = requireActivity().application
         val hardwareRepository = HomeHardwareRepository.getInstance(application)
-        val sessionRepository = HomeSessionRepository(
-            SessionManager(application.applicationContext),
-            RetrofitClient.api
-        )
+        val sessionRepository = HomeSessionRepository.create(application)
         val customPresetRepository = CustomPresetRepositoryImpl.getInstance(application)
         PersetmodeViewModelFactory(
             application,
@@ -27,7 +27,6 @@ import com.example.sonicwavev4.data.custompreset.CustomPresetRepositoryImpl
 import com.example.sonicwavev4.data.home.HomeHardwareRepository
 import com.example.sonicwavev4.data.home.HomeSessionRepository
 import com.example.sonicwavev4.databinding.FragmentHomeBinding
-import com.example.sonicwavev4.network.RetrofitClient
 import com.example.sonicwavev4.ui.common.UiEvent
 import com.example.sonicwavev4.ui.common.TouchHitTest
 import com.example.sonicwavev4.ui.common.SessionControlUiMapper
@@ -36,7 +35,6 @@ import com.example.sonicwavev4.ui.login.LoginViewModel
 import com.example.sonicwavev4.ui.persetmode.PersetmodeViewModel
 import com.example.sonicwavev4.ui.persetmode.PersetmodeViewModelFactory
 import com.example.sonicwavev4.ui.persetmode.PresetModeUiState
-import com.example.sonicwavev4.utils.SessionManager
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
@@ -95,20 +93,14 @@ class HomeFragment : Fragment() {
     private val viewModel: HomeViewModel by viewModels {
         val application = requireActivity().application
         val hardwareRepository = HomeHardwareRepository.getInstance(application)
-        val sessionRepository = HomeSessionRepository(
-            SessionManager(application.applicationContext),
-            RetrofitClient.api
-        )
+        val sessionRepository = HomeSessionRepository.create(application)
         HomeViewModelFactory(application, hardwareRepository, sessionRepository)
     }
 
     private val presetViewModel: PersetmodeViewModel by viewModels {
         val application = requireActivity().application
         val hardwareRepository = HomeHardwareRepository.getInstance(application)
-        val sessionRepository = HomeSessionRepository(
-            SessionManager(application.applicationContext),
-            RetrofitClient.api
-        )
+        val sessionRepository = HomeSessionRepository.create(application)
         val customPresetRepository = CustomPresetRepositoryImpl.getInstance(application)
         PersetmodeViewModelFactory(
             application,
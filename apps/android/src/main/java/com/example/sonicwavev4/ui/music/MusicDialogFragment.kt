@@ -14,6 +14,7 @@ import android.view.inputmethod.EditorInfo
 import android.view.inputmethod.InputMethodManager
 import android.widget.EditText
 import android.widget.Toast
+import androidx.core.widget.doAfterTextChanged
 import androidx.fragment.app.DialogFragment
 import androidx.fragment.app.activityViewModels
 import androidx.lifecycle.Lifecycle
@@ -72,6 +73,7 @@ class MusicDialogFragment : DialogFragment() {
         val rowMyListHeader: View = view.findViewById(R.id.rowMyListHeader)
         val tvMyListAdd: View = view.findViewById(R.id.tvMyListAdd)
         val etNewPlaylistName: EditText = view.findViewById(R.id.etNewPlaylistName)
+        val etSongSearch: EditText = view.findViewById(R.id.etSongSearch)
         val root: View = view
 
         cloudAdapter = CloudCategoryListAdapter { category ->
@@ -129,6 +131,19 @@ class MusicDialogFragment : DialogFragment() {
             }
         }
 
+        etSongSearch.setText(dialogViewModel.uiState.value.searchQuery)
+        etSongSearch.doAfterTextChanged { text ->
+            dialogViewModel.onSearchQueryChanged(text?.toString().orEmpty())
+        }
+        etSongSearch.setOnEditorActionListener { _, actionId, _ ->
+            if (actionId == EditorInfo.IME_ACTION_SEARCH) {
+                hideKeyboard(etSongSearch)
+                true
+            } else {
+                false
+            }
+        }
+
         root.setOnTouchListener { _, event ->
             if (event.action == MotionEvent.ACTION_DOWN &&
                 etNewPlaylistName.visibility == View.VISIBLE
@@ -188,7 +203,8 @@ class MusicDialogFragment : DialogFragment() {
                         songAdapter.isMyListMode = state.selectedSection == MusicSection.MY_LIST &&
                             state.selectedPlaylistId != null
 
-                        if (lastSongs != state.songs) {
+                        // 行列表由 SongRowProjector 生成，内容不变时是同一个实例，引用比较即可
+                        if (lastSongs !== state.songs) {
                             songAdapter.submitList(state.songs)
                             lastSongs = state.songs
                         }
@@ -203,6 +219,7 @@ class MusicDialogFragment : DialogFragment() {
                     MusicDownloadEventBus.events.collect { event ->
                         when (event) {
                             is MusicDownloadEvent.Success -> dialogViewModel.onDownloadCompleted(event.downloadUrl)
+                            is MusicDownloadEvent.Progress, is MusicDownloadEvent.Failed -> Unit
                         }
                     }
                 }
@@ -326,7 +343,8 @@ class MusicDialogFragment : DialogFragment() {
             title = row.title,
             artist = row.artist,
             uri = Uri.parse(uriString),
-            isDownloaded = row.isDownloaded || !row.isRemote
+            isDownloaded = row.isDownloaded || !row.isRemote,
+            cloudTrackId = row.cloudTrackId
         )
     }
 
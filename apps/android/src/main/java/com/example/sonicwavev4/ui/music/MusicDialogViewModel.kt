@@ -1,22 +1,22 @@
 package com.example.sonicwavev4.ui.music
 
 import android.app.Application
-import android.content.ContentResolver
 import android.net.Uri
-import android.os.Build
-import android.provider.MediaStore
-import androidx.core.net.toUri
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.viewModelScope
 import com.example.sonicwavev4.DownloadedMusicItem
 import com.example.sonicwavev4.DownloadedMusicRepository
 import com.example.sonicwavev4.MusicItem
 import com.example.sonicwavev4.domain.model.CloudMusicCategory
+import com.example.sonicwavev4.musiclibrary.MusicLibrarySearch
+import com.example.sonicwavev4.musiclibrary.MusicSearchIndex
 import com.example.sonicwavev4.repository.LocalPlaylist
 import com.example.sonicwavev4.repository.LocalPlaylistRepository
+import com.example.sonicwavev4.repository.MediaLibraryIndex
 import com.example.sonicwavev4.repository.MusicRepository
 import com.example.sonicwavev4.repository.MusicRepositoryImpl
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -48,7 +48,8 @@ data class SongRowUi(
     val playUriString: String,
     val isRemote: Boolean,
     val isDownloaded: Boolean,
-    val downloadedLocalUriString: String?
+    val downloadedLocalUriString: String?,
+    val cloudTrackId: Long? = null
 )
 
 data class MusicDialogUiState(
@@ -57,6 +58,7 @@ data class MusicDialogUiState(
     val myListExpanded: Boolean = true,
     val selectedCloudCategoryId: Long? = null,
     val selectedPlaylistId: String? = null,
+    val searchQuery: String = "",
     val cloudCategories: List<CloudMusicCategory> = emptyList(),
     val cloudLoading: Boolean = false,
     val cloudError: String? = null,
@@ -74,15 +76,27 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
     private val downloadedRepository = DownloadedMusicRepository(appContext)
     private val playlistRepository = LocalPlaylistRepository(appContext)
 
+    private var libraryJob: Job? = null
+    private var playlistsJob: Job? = null
+    private var searchIndexJob: Job? = null
+    private var searchUpdatesJob: Job? = null
+
+    private val songRows = SongRowProjector()
+
     private val _uiState = MutableStateFlow(MusicDialogUiState())
     val uiState: StateFlow<MusicDialogUiState> = _uiState.asStateFlow()
 
     fun onDialogShown() {
-        viewModelScope.launch {
-            loadPlaylists()
+        if (playlistsJob?.isActive != true) {
+            playlistsJob = viewModelScope.launch { observePlaylists() }
         }
-        viewModelScope.launch {
-            loadLibraryIndex()
+        if (searchUpdatesJob?.isActive != true) {
+            searchUpdatesJob = viewModelScope.launch { observeSearchUpdates() }
+        }
+        if (libraryJob?.isActive == true) {
+            MediaLibraryIndex.requestSync()
+        } else {
+            libraryJob = viewModelScope.launch { loadLibraryIndex() }
         }
         viewModelScope.launch {
             loadCloudCategoriesIfNeeded()
@@ -164,22 +178,25 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
         }
     }
 
+    /**
+     * 搜索词非空时右侧列表显示全部来源的搜索结果，清空后回到当前分组。
+     */
+    fun onSearchQueryChanged(query: String) {
+        if (query == _uiState.value.searchQuery) return
+        _uiState.update { state ->
+            val updated = state.copy(searchQuery = query)
+            updated.copy(songs = computeSongs(updated))
+        }
+    }
+
     fun createPlaylist(name: String) {
         val trimmed = name.trim()
         if (trimmed.isEmpty()) return
         viewModelScope.launch {
-            val updated = playlistRepository.createPlaylist(trimmed)
+            // 歌单列表由 observePlaylists 更新
+            playlistRepository.createPlaylist(trimmed)
             _uiState.update { state ->
-                val next = state.copy(
-                    playlists = updated,
-                    myListExpanded = true
-                )
-                next.copy(
-                    songs = computeSongs(next),
-                    selectedPlaylistId = next.selectedPlaylistId?.takeIf { id ->
-                        updated.any { it.id == id }
-                    }
-                )
+                state.copy(myListExpanded = true)
             }
         }
     }
@@ -225,6 +242,7 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
                 libraryIndex = updatedLibrary
             )
             _uiState.value = nextState.copy(songs = computeSongs(nextState))
+            refreshSearchIndex()
         }
     }
 
@@ -247,15 +265,12 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
             isDownloaded = row.isDownloaded
         )
 
-        val updatedPlaylists = withContext(Dispatchers.IO) {
-            playlistRepository.addTrackToPlaylist(playlistId, musicItem)
-        }
+        playlistRepository.addTrackToPlaylist(playlistId, musicItem)
 
         _uiState.update { state ->
             val updatedLibrary = state.libraryIndex.toMutableMap()
             updatedLibrary[targetUriString] = musicItem
             val updatedState = state.copy(
-                playlists = updatedPlaylists,
                 selectedSection = MusicSection.MY_LIST,
                 selectedPlaylistId = playlistId,
                 myListExpanded = true,
@@ -274,13 +289,10 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
             isDownloaded = row.isDownloaded
         )
 
-        val updatedPlaylists = withContext(Dispatchers.IO) {
-            playlistRepository.removeTrackFromPlaylist(playlistId, musicItem)
-        }
+        playlistRepository.removeTrackFromPlaylist(playlistId, musicItem)
 
         _uiState.update { state ->
             val updatedState = state.copy(
-                playlists = updatedPlaylists,
                 selectedSection = MusicSection.MY_LIST,
                 selectedPlaylistId = playlistId,
                 myListExpanded = true
@@ -320,6 +332,7 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
                     )
                     updatedState.copy(songs = computeSongs(updatedState))
                 }
+                refreshSearchIndex()
             } catch (e: Exception) {
                 _uiState.update { state ->
                     state.copy(
@@ -331,10 +344,11 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
         }
     }
 
-    private suspend fun loadPlaylists() {
-        val playlists = withContext(Dispatchers.IO) {
-            playlistRepository.loadPlaylists()
-        }
+    private suspend fun observePlaylists() {
+        playlistRepository.observePlaylists().collect { playlists -> applyPlaylists(playlists) }
+    }
+
+    private fun applyPlaylists(playlists: List<LocalPlaylist>) {
         _uiState.update { state ->
             val selectedPlaylistId = state.selectedPlaylistId?.takeIf { id ->
                 playlists.any { it.id == id }
@@ -348,13 +362,41 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
     }
 
     private suspend fun loadLibraryIndex() {
+        // 等待磁盘上的索引加载完（并触发后台同步），之后跟随索引变化刷新
+        MediaLibraryIndex.current()
+        MediaLibraryIndex.tracks.collect { tracks -> applyLibraryIndex(tracks) }
+    }
+
+    private suspend fun applyLibraryIndex(localTracks: List<MusicItem>) {
         val index = withContext(Dispatchers.IO) {
-            buildLibraryIndex(appContext.contentResolver, downloadedRepository)
+            buildLibraryIndex(localTracks, downloadedRepository)
         }
         _uiState.update { state ->
             val updated = state.copy(libraryIndex = index)
             updated.copy(songs = computeSongs(updated))
         }
+        refreshSearchIndex()
+    }
+
+    /**
+     * 把已下载曲目和云端缓存同步进共享搜索索引（只重算有变化的曲目）；本机曲目由索引自己跟随
+     * [MediaLibraryIndex] 更新。搜索结果在 [observeSearchUpdates] 里刷新。
+     */
+    private fun refreshSearchIndex() {
+        val snapshot = _uiState.value
+        searchIndexJob?.cancel()
+        searchIndexJob = viewModelScope.launch {
+            MusicLibrarySearch.syncDownloaded(snapshot.libraryIndex.values.filter { it.isDownloaded })
+            MusicLibrarySearch.syncCloud(cloudSearchEntries(snapshot))
+        }
+    }
+
+    private suspend fun observeSearchUpdates() {
+        MusicLibrarySearch.updates.collect {
+            _uiState.update { state ->
+                if (state.searchQuery.isBlank()) state else state.copy(songs = computeSongs(state))
+            }
+        }
     }
 
     private suspend fun loadCloudCategoriesIfNeeded() {
@@ -380,123 +422,72 @@ class MusicDialogViewModel(application: Application) : AndroidViewModel(applicat
     }
 
     private fun computeSongs(state: MusicDialogUiState): List<SongRowUi> {
+        if (state.searchQuery.isNotBlank()) {
+            return searchSongs(state)
+        }
         return when (state.selectedSection) {
             MusicSection.CLOUD -> {
                 val tracks = state.cachedCloudTracksByCategory[state.selectedCloudCategoryId].orEmpty()
-                tracks.map { track ->
-                    SongRowUi(
-                        key = "cloud:${track.id}",
-                        title = track.title,
-                        artist = track.artist,
-                        playUriString = track.fileUrl,
-                        isRemote = true,
-                        isDownloaded = track.isDownloaded,
-                        downloadedLocalUriString = track.downloadedLocalUriString
-                    )
-                }
+                songRows.cloudRows(state.selectedCloudCategoryId, tracks)
             }
 
-            MusicSection.LOCAL -> {
-                state.libraryIndex.values
-                    .filter { item ->
-                        val scheme = item.uri.scheme.orEmpty().lowercase()
-                        val isRemote = scheme == "http" || scheme == "https"
-                        !isRemote && !item.isDownloaded
-                    }
-                    .map { item ->
-                        val uriString = item.uri.toString()
-                        SongRowUi(
-                            key = "local:$uriString",
-                            title = item.title,
-                            artist = item.artist,
-                            playUriString = uriString,
-                            isRemote = false,
-                            isDownloaded = item.isDownloaded,
-                            downloadedLocalUriString = null
-                        )
-                    }
-            }
+            MusicSection.LOCAL -> songRows.localRows(state.libraryIndex)
 
             MusicSection.MY_LIST -> {
                 val playlistId = state.selectedPlaylistId ?: return emptyList()
-                val playlist = state.playlists.firstOrNull { it.id == playlistId } ?: return emptyList()
-                playlist.trackUris.mapNotNull { uriString ->
-                    val item = state.libraryIndex[uriString] ?: return@mapNotNull null
-                    val scheme = item.uri.scheme.orEmpty().lowercase()
-                    val isRemote = scheme == "http" || scheme == "https"
-                    SongRowUi(
-                        key = "local:$uriString",
-                        title = item.title,
-                        artist = item.artist,
-                        playUriString = item.uri.toString(),
-                        isRemote = isRemote,
-                        isDownloaded = item.isDownloaded,
-                        downloadedLocalUriString = null
-                    )
-                }
+                songRows.playlistRows(state.playlists, playlistId, state.libraryIndex)
             }
         }
     }
-}
 
-private suspend fun buildLibraryIndex(
-    contentResolver: ContentResolver,
-    downloadedRepository: DownloadedMusicRepository
-): Map<String, MusicItem> = withContext(Dispatchers.IO) {
-    val result = mutableMapOf<String, MusicItem>()
-
-    val collection = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-        MediaStore.Audio.Media.getContentUri(MediaStore.VOLUME_EXTERNAL)
-    } else {
-        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
-    }
-
-    val projection = arrayOf(
-        MediaStore.Audio.Media._ID,
-        MediaStore.Audio.Media.TITLE,
-        MediaStore.Audio.Media.ARTIST,
-        MediaStore.Audio.Media.DATA
-    )
-
-    val sortOrder = "${MediaStore.Audio.Media.TITLE} ASC"
-
-    contentResolver.query(collection, projection, null, null, sortOrder)?.use { cursor ->
-        val idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
-        val titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE)
-        val artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST)
-        val dataColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA)
-
-        while (cursor.moveToNext()) {
-            val id = cursor.getLong(idColumn)
-            val title = cursor.getString(titleColumn)
-            val artist = cursor.getString(artistColumn)
-            val contentUri: Uri = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                Uri.withAppendedPath(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id.toString())
-            } else {
-                cursor.getString(dataColumn).toUri()
-            }
-
-            if (title != null && artist != null && !title.startsWith(".")) {
-                val item = MusicItem(title, artist, contentUri, isDownloaded = false)
-                result[contentUri.toString()] = item
+    private fun searchSongs(state: MusicDialogUiState): List<SongRowUi> {
+        val keys = MusicLibrarySearch.search(state.searchQuery)
+        if (keys.isEmpty()) return emptyList()
+        val cloudById by lazy(LazyThreadSafetyMode.NONE) {
+            state.cachedCloudTracksByCategory.values.flatten().associateBy { it.id }
+        }
+        return keys.mapNotNull { key ->
+            when {
+                key.startsWith(CLOUD_KEY_PREFIX) ->
+                    key.removePrefix(CLOUD_KEY_PREFIX).toLongOrNull()
+                        ?.let { cloudById[it] }
+                        ?.let { songRows.cloudRow(it) }
+                else -> songRows.libraryRow(state.libraryIndex, key.removePrefix(LOCAL_KEY_PREFIX))
             }
         }
     }
+}
 
-    val downloadedMusic = downloadedRepository.loadDownloadedMusic()
-    val validDownloads = mutableListOf<DownloadedMusicItem>()
-    downloadedMusic.forEach { downloadedItem ->
-        val localItem = downloadedItem.toMusicItem()
-        if (localItem != null) {
-            result[localItem.uri.toString()] = localItem
-            validDownloads.add(downloadedItem)
+/**
+ * 已加载云端曲目的搜索条目，key 与 [SongRowUi.key] 一致。已下载的云端曲目只保留本地那一条。
+ */
+private fun cloudSearchEntries(state: MusicDialogUiState): List<MusicSearchIndex.Entry> {
+    val entries = ArrayList<MusicSearchIndex.Entry>()
+    val seenCloudIds = HashSet<Long>()
+    state.cachedCloudTracksByCategory.values.forEach { tracks ->
+        tracks.forEach { track ->
+            val downloaded = track.downloadedLocalUriString?.let { state.libraryIndex.containsKey(it) } == true
+            if (!downloaded && seenCloudIds.add(track.id)) {
+                entries.add(MusicSearchIndex.Entry(CLOUD_KEY_PREFIX + track.id, track.title, track.artist))
+            }
         }
     }
-    if (validDownloads.size != downloadedMusic.size) {
-        downloadedRepository.saveDownloadedMusic(validDownloads)
-    }
+    return entries
+}
 
-    result.toMap()
+/**
+ * 本地曲目来自 [MediaLibraryIndex] 的缓存索引，再叠加应用内已下载的曲目（文件已不存在的跳过）。
+ */
+private fun buildLibraryIndex(
+    localTracks: List<MusicItem>,
+    downloadedRepository: DownloadedMusicRepository
+): Map<String, MusicItem> {
+    val result = LinkedHashMap<String, MusicItem>()
+    localTracks.forEach { item -> result[item.uri.toString()] = item }
+    downloadedRepository.loadDownloadedMusic().forEach { downloadedItem ->
+        downloadedItem.toMusicItem()?.let { localItem -> result[localItem.uri.toString()] = localItem }
+    }
+    return result
 }
 
 private fun localUriString(downloadedItem: DownloadedMusicItem): String? {
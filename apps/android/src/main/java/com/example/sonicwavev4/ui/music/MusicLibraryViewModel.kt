@@ -7,6 +7,7 @@ import com.example.sonicwavev4.MusicItem
 import com.example.sonicwavev4.domain.model.CloudMusicCategory
 import com.example.sonicwavev4.domain.model.CloudMusicTrack
 import com.example.sonicwavev4.musiclibrary.LocalPlaylist as LegacyLocalPlaylist
+import com.example.sonicwavev4.musiclibrary.MusicLibrarySearch
 import com.example.sonicwavev4.repository.LocalPlaylist
 import com.example.sonicwavev4.repository.LocalPlaylistRepository
 import com.example.sonicwavev4.repository.MusicCategory
@@ -14,9 +15,11 @@ import com.example.sonicwavev4.repository.MusicCategoryRepository
 import com.example.sonicwavev4.repository.MusicCategoryResult
 import com.example.sonicwavev4.repository.MusicRepository
 import com.example.sonicwavev4.repository.MusicRepositoryImpl
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.catch
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 
@@ -26,6 +29,7 @@ data class MusicLibraryUiState(
     val playlists: List<LocalPlaylist> = emptyList(),
     val selectedPlaylistId: String? = null,
     val showingLocalOnly: Boolean = false,
+    val searchQuery: String = "",
     val isLoadingPlaylists: Boolean = false,
     val playlistErrorMessage: String? = null,
     val isLoadingCategories: Boolean = false,
@@ -39,6 +43,8 @@ class MusicLibraryViewModel(application: Application) : AndroidViewModel(applica
     private val categoryRepository = MusicCategoryRepository()
     private val musicRepository: MusicRepository = MusicRepositoryImpl(application.applicationContext)
 
+    private var playlistsJob: Job? = null
+
     private val _playlists = MutableStateFlow<List<LegacyLocalPlaylist>>(emptyList())
     val playlists: StateFlow<List<LegacyLocalPlaylist>> = _playlists.asStateFlow()
 
@@ -66,6 +72,12 @@ class MusicLibraryViewModel(application: Application) : AndroidViewModel(applica
 
     init {
         loadPlaylists()
+        viewModelScope.launch {
+            // 共享索引更新后刷新搜索结果
+            MusicLibrarySearch.updates.collect {
+                if (_uiState.value.searchQuery.isNotBlank()) refreshVisibleSongs()
+            }
+        }
     }
 
     fun setAllSongs(songs: List<MusicItem>) {
@@ -78,6 +90,15 @@ class MusicLibraryViewModel(application: Application) : AndroidViewModel(applica
         refreshVisibleSongs()
     }
 
+    /**
+     * 搜索词非空时在本机和已下载曲目的搜索结果上应用当前的筛选，清空后回到全部曲目。
+     */
+    fun onSearchQueryChanged(query: String) {
+        if (query == _uiState.value.searchQuery) return
+        _uiState.update { it.copy(searchQuery = query) }
+        refreshVisibleSongs()
+    }
+
     fun selectPlaylist(playlistId: String?) {
         _uiState.update { it.copy(selectedPlaylistId = playlistId) }
         refreshVisibleSongs()
@@ -89,8 +110,7 @@ class MusicLibraryViewModel(application: Application) : AndroidViewModel(applica
 
         viewModelScope.launch {
             try {
-                val updated = playlistRepository.createPlaylist(trimmed)
-                updatePlaylistsState(updated)
+                playlistRepository.createPlaylist(trimmed)
             } catch (e: Exception) {
                 _uiState.update { it.copy(playlistErrorMessage = e.message) }
             }
@@ -101,11 +121,7 @@ class MusicLibraryViewModel(application: Application) : AndroidViewModel(applica
         if (track.isDownloaded) return
         viewModelScope.launch {
             try {
-                val updated = playlistRepository.addTrackToPlaylist(playlistId, track)
-                updatePlaylistsState(updated)
-                if (_uiState.value.selectedPlaylistId == playlistId) {
-                    refreshVisibleSongs()
-                }
+                playlistRepository.addTrackToPlaylist(playlistId, track)
             } catch (e: Exception) {
                 _uiState.update { it.copy(playlistErrorMessage = e.message) }
             }
@@ -115,29 +131,30 @@ class MusicLibraryViewModel(application: Application) : AndroidViewModel(applica
     fun removeTrackFromPlaylist(playlistId: String, track: MusicItem) {
         viewModelScope.launch {
             try {
-                val updated = playlistRepository.removeTrackFromPlaylist(playlistId, track)
-                updatePlaylistsState(updated)
-                if (_uiState.value.selectedPlaylistId == playlistId) {
-                    refreshVisibleSongs()
-                }
+                playlistRepository.removeTrackFromPlaylist(playlistId, track)
             } catch (e: Exception) {
                 _uiState.update { it.copy(playlistErrorMessage = e.message) }
             }
         }
     }
 
+    /**
+     * 订阅歌单变化；增删改之后由 Room 推送新的列表，不需要手动刷新。
+     */
     fun loadPlaylists() {
-        viewModelScope.launch {
-            _uiState.update { it.copy(isLoadingPlaylists = true, playlistErrorMessage = null) }
-            try {
-                val loaded = playlistRepository.loadPlaylists()
-                updatePlaylistsState(loaded)
-                _uiState.update { it.copy(isLoadingPlaylists = false) }
-            } catch (e: Exception) {
-                _uiState.update {
-                    it.copy(isLoadingPlaylists = false, playlistErrorMessage = e.message)
+        if (playlistsJob?.isActive == true) return
+        _uiState.update { it.copy(isLoadingPlaylists = true, playlistErrorMessage = null) }
+        playlistsJob = viewModelScope.launch {
+            playlistRepository.observePlaylists()
+                .catch { e ->
+                    _uiState.update {
+                        it.copy(isLoadingPlaylists = false, playlistErrorMessage = e.message)
+                    }
+                }
+                .collect { playlists ->
+                    _uiState.update { it.copy(isLoadingPlaylists = false) }
+                    updatePlaylistsState(playlists)
                 }
-            }
         }
     }
 
@@ -230,23 +247,28 @@ class MusicLibraryViewModel(application: Application) : AndroidViewModel(applica
     private fun refreshVisibleSongs() {
         val state = _uiState.value
         val playlistId = state.selectedPlaylistId
+        val songs = if (state.searchQuery.isBlank()) {
+            state.allSongs
+        } else {
+            MusicLibrarySearch.searchLibrary(state.searchQuery)
+        }
         val filtered = when {
             state.showingLocalOnly && playlistId == null -> {
-                state.allSongs.filter { !it.isDownloaded }
+                songs.filter { !it.isDownloaded }
             }
 
             state.showingLocalOnly && playlistId != null -> {
                 val playlist = state.playlists.firstOrNull { it.id == playlistId }
                 if (playlist != null) {
                     val allowedUris = playlist.trackUris.toSet()
-                    state.allSongs.filter { !it.isDownloaded && it.uri.toString() in allowedUris }
+                    songs.filter { !it.isDownloaded && it.uri.toString() in allowedUris }
                 } else {
                     emptyList()
                 }
             }
 
             else -> {
-                state.allSongs.filter { it.isDownloaded }
+                songs.filter { it.isDownloaded }
             }
         }
 
@@ -1,12 +1,16 @@
 package com.example.sonicwavev4.ui.music
 
 import android.app.Application
+import android.media.MediaDataSource
 import android.media.MediaPlayer
 import android.os.Handler
 import android.os.Looper
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.viewModelScope
+import com.example.sonicwavev4.CloudTrackCache
 import com.example.sonicwavev4.MusicItem
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
@@ -15,6 +19,7 @@ import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 data class MiniPlayerUiState(
     val title: String,
@@ -26,6 +31,8 @@ data class MiniPlayerUiState(
     val remainingMs: Int get() = (durationMs - positionMs).coerceAtLeast(0)
 }
 
+private const val PREFETCH_BYTES = 2L * 1024 * 1024
+
 class MusicPlayerViewModel(application: Application) : AndroidViewModel(application) {
 
     private val _playlist = MutableStateFlow<List<MusicItem>>(emptyList())
@@ -62,6 +69,13 @@ class MusicPlayerViewModel(application: Application) : AndroidViewModel(applicat
 
     private var mediaPlayer: MediaPlayer? = null
 
+    // 预先准备好的下一首
+    private var nextPlayer: MediaPlayer? = null
+    private var nextIndex = -1
+    private var isNextPrepared = false
+    private var nextGeneration = 0
+    private var prefetchJob: Job? = null
+
     init {
         val initial = MiniPlayerUiState(
             title = "",
@@ -93,11 +107,14 @@ class MusicPlayerViewModel(application: Application) : AndroidViewModel(applicat
     }
 
     fun setPlaylist(list: List<MusicItem>) {
+        if (list == _playlist.value) return
         _playlist.value = list
         if (_currentIndex.value !in list.indices) {
             _currentIndex.value = -1
             _currentTrack.value = null
         }
+        // 下一首可能变了
+        if (mediaPlayer != null) prepareNext()
     }
 
     fun playAt(index: Int) {
@@ -165,39 +182,122 @@ class MusicPlayerViewModel(application: Application) : AndroidViewModel(applicat
 
     private fun startPlayback(track: MusicItem, index: Int) {
         releasePlayer()
+        val player = createPlayer(track) ?: return
+        player.setOnPreparedListener { prepared ->
+            _duration.value = prepared.duration
+            _position.value = prepared.currentPosition
+            prepared.start()
+            _isPlaying.value = true
+            startProgressUpdates()
+            prepareNext()
+        }
+        player.setOnErrorListener { mp, _, _ ->
+            mp?.release()
+            if (mediaPlayer === mp) mediaPlayer = null
+            releaseNextPlayer()
+            _isPlaying.value = false
+            _position.value = 0
+            _duration.value = 0
+            stopProgressUpdates()
+            true
+        }
+        player.prepareAsync()
+        mediaPlayer = player
+        _currentIndex.value = index
+        _currentTrack.value = track
+    }
+
+    private fun createPlayer(track: MusicItem): MediaPlayer? {
         val player = MediaPlayer()
-        try {
-            player.setDataSource(getApplication(), track.uri)
-            player.setOnPreparedListener { prepared ->
-                _duration.value = prepared.duration
-                _position.value = prepared.currentPosition
-                prepared.start()
-                _isPlaying.value = true
-                startProgressUpdates()
+        var cachedSource: MediaDataSource? = null
+        return try {
+            // 云端曲目边播边缓存，其余按 URI 直接播放
+            cachedSource = CloudTrackCache.openDataSource(track)
+            if (cachedSource != null) {
+                player.setDataSource(cachedSource)
+                // 交给播放器后由 release() 负责关闭
+                cachedSource = null
+            } else {
+                player.setDataSource(getApplication(), track.uri)
             }
-            player.setOnCompletionListener {
-                _isPlaying.value = false
-                _position.value = 0
-                stopProgressUpdates()
+            player.setOnCompletionListener { onTrackCompleted(it) }
+            player
+        } catch (e: Exception) {
+            player.release()
+            // setDataSource 失败时播放器不会接管数据源，这里自己关闭，释放缓存的打开计数
+            cachedSource?.let { runCatching { it.close() } }
+            null
+        }
+    }
+
+    /**
+     * 预取并准备播放列表中的下一首，准备好后挂到当前播放器的 setNextMediaPlayer 上，
+     * 当前曲目结束时由系统无缝切换。
+     */
+    private fun prepareNext() {
+        releaseNextPlayer()
+        val list = _playlist.value
+        val current = _currentIndex.value
+        if (list.size < 2 || current !in list.indices) return
+        val index = (current + 1) % list.size
+        val track = list[index]
+        val generation = ++nextGeneration
+        prefetchJob = viewModelScope.launch {
+            withContext(Dispatchers.IO) { CloudTrackCache.prefetch(track, PREFETCH_BYTES) }
+            if (generation != nextGeneration) return@launch
+            val next = createPlayer(track) ?: return@launch
+            next.setOnPreparedListener { prepared ->
+                if (prepared !== nextPlayer) return@setOnPreparedListener
+                isNextPrepared = true
+                mediaPlayer?.setNextMediaPlayer(prepared)
             }
-            player.setOnErrorListener { mp, _, _ ->
-                mp?.release()
-                mediaPlayer = null
-                _isPlaying.value = false
-                _position.value = 0
-                _duration.value = 0
-                stopProgressUpdates()
+            next.setOnErrorListener { mp, _, _ ->
+                if (mp === nextPlayer) releaseNextPlayer() else mp?.release()
                 true
             }
-            player.prepareAsync()
-            mediaPlayer = player
-            _currentIndex.value = index
-            _currentTrack.value = track
-        } catch (e: Exception) {
-            player.release()
+            nextPlayer = next
+            nextIndex = index
+            next.prepareAsync()
         }
     }
 
+    private fun onTrackCompleted(finished: MediaPlayer) {
+        if (finished !== mediaPlayer) return
+        val next = nextPlayer
+        val list = _playlist.value
+        if (next != null && isNextPrepared && nextIndex in list.indices) {
+            // 系统已经开始播放下一首，这里只交接状态
+            finished.release()
+            mediaPlayer = next
+            nextPlayer = null
+            isNextPrepared = false
+            _currentIndex.value = nextIndex
+            _currentTrack.value = list[nextIndex]
+            _duration.value = next.duration
+            _position.value = next.currentPosition
+            _isPlaying.value = true
+            startProgressUpdates()
+            prepareNext()
+        } else if (list.size > 1) {
+            playNext()
+        } else {
+            _isPlaying.value = false
+            _position.value = 0
+            stopProgressUpdates()
+        }
+    }
+
+    private fun releaseNextPlayer() {
+        nextGeneration++
+        prefetchJob?.cancel()
+        prefetchJob = null
+        mediaPlayer?.let { current -> runCatching { current.setNextMediaPlayer(null) } }
+        nextPlayer?.release()
+        nextPlayer = null
+        nextIndex = -1
+        isNextPrepared = false
+    }
+
     private fun startProgressUpdates() {
         handler.removeCallbacks(progressRunnable)
         handler.post(progressRunnable)
@@ -208,6 +308,7 @@ class MusicPlayerViewModel(application: Application) : AndroidViewModel(applicat
     }
 
     private fun releasePlayer() {
+        releaseNextPlayer()
         mediaPlayer?.release()
         mediaPlayer = null
         stopProgressUpdates()
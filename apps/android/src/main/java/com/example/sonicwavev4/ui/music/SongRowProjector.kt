@@ -0,0 +1,150 @@
+package com.example.sonicwavev4.ui.music
+
+import com.example.sonicwavev4.MusicItem
+import com.example.sonicwavev4.musiclibrary.MusicLibrarySearch
+import com.example.sonicwavev4.repository.LocalPlaylist
+
+internal const val CLOUD_KEY_PREFIX = MusicLibrarySearch.CLOUD_KEY_PREFIX
+internal const val LOCAL_KEY_PREFIX = MusicLibrarySearch.LIBRARY_KEY_PREFIX
+
+/**
+ * 把曲库、云端缓存和歌单投影成右侧列表的 [SongRowUi]。
+ *
+ * 每个来源按输入对象的引用缓存结果：切换分组或歌单只是取出已有列表；来源变化时只为
+ * 变化的曲目新建行，其余沿用旧实例，内容没变的列表直接返回原来的 List，
+ * 界面据此跳过 submitList，DiffUtil 比较时也先命中引用相等。
+ */
+internal class SongRowProjector {
+
+    private var libraryInput: Map<String, MusicItem> = emptyMap()
+    private var libraryRows: Map<String, SongRowUi> = emptyMap()
+    private var localSectionRows: List<SongRowUi> = emptyList()
+
+    private val cloudInputs = HashMap<Long?, List<CloudTrackUi>>()
+    private val cloudSectionRows = HashMap<Long?, List<SongRowUi>>()
+    private val cloudRowsById = HashMap<Long, SongRowUi>()
+
+    private var playlistsInput: List<LocalPlaylist> = emptyList()
+    private var playlistsById: Map<String, LocalPlaylist> = emptyMap()
+    private val playlistRows = HashMap<String, PlaylistProjection>()
+
+    private class PlaylistProjection(
+        val trackUris: List<String>,
+        val libraryRows: Map<String, SongRowUi>,
+        val rows: List<SongRowUi>
+    )
+
+    /**
+     * 本地分组：排除网络地址和应用内下载的曲目。
+     */
+    @Synchronized
+    fun localRows(library: Map<String, MusicItem>): List<SongRowUi> {
+        syncLibrary(library)
+        return localSectionRows
+    }
+
+    @Synchronized
+    fun cloudRows(categoryId: Long?, tracks: List<CloudTrackUi>): List<SongRowUi> {
+        val cached = cloudSectionRows[categoryId]
+        if (cached != null && cloudInputs[categoryId] === tracks) return cached
+        val rows = reuseIfSame(cached, tracks.map { cloudRow(it) })
+        cloudInputs[categoryId] = tracks
+        cloudSectionRows[categoryId] = rows
+        return rows
+    }
+
+    @Synchronized
+    fun playlistRows(
+        playlists: List<LocalPlaylist>,
+        playlistId: String,
+        library: Map<String, MusicItem>
+    ): List<SongRowUi> {
+        syncLibrary(library)
+        if (playlists !== playlistsInput) {
+            playlistsInput = playlists
+            playlistsById = playlists.associateBy { it.id }
+            playlistRows.keys.retainAll(playlistsById.keys)
+        }
+        val playlist = playlistsById[playlistId] ?: return emptyList()
+        val cached = playlistRows[playlistId]
+        if (cached != null && cached.trackUris == playlist.trackUris && cached.libraryRows === libraryRows) {
+            return cached.rows
+        }
+        val rows = reuseIfSame(cached?.rows, playlist.trackUris.mapNotNull { libraryRows[it] })
+        playlistRows[playlistId] = PlaylistProjection(playlist.trackUris, libraryRows, rows)
+        return rows
+    }
+
+    @Synchronized
+    fun libraryRow(library: Map<String, MusicItem>, uriString: String): SongRowUi? {
+        syncLibrary(library)
+        return libraryRows[uriString]
+    }
+
+    @Synchronized
+    fun cloudRow(track: CloudTrackUi): SongRowUi {
+        val fresh = track.toSongRow()
+        val cached = cloudRowsById[track.id]
+        if (cached == fresh) return cached
+        cloudRowsById[track.id] = fresh
+        return fresh
+    }
+
+    private fun syncLibrary(library: Map<String, MusicItem>) {
+        if (library === libraryInput) return
+        val previousInput = libraryInput
+        val previousRows = libraryRows
+        val rows = LinkedHashMap<String, SongRowUi>(library.size * 2)
+        library.forEach { (uriString, item) ->
+            val reused = previousRows[uriString]?.takeIf { previousInput[uriString] == item }
+            rows[uriString] = reused ?: item.toSongRow(uriString)
+        }
+        libraryInput = library
+        libraryRows = rows
+        localSectionRows = reuseIfSame(
+            localSectionRows,
+            library.mapNotNull { (uriString, item) ->
+                if (item.isRemoteUri() || item.isDownloaded) null else rows[uriString]
+            }
+        )
+    }
+
+    /**
+     * 新列表与旧列表逐项引用相同时返回旧列表。
+     */
+    private fun reuseIfSame(previous: List<SongRowUi>?, next: List<SongRowUi>): List<SongRowUi> {
+        if (previous == null || previous.size != next.size) return next
+        for (i in next.indices) {
+            if (previous[i] !== next[i]) return next
+        }
+        return previous
+    }
+}
+
+private fun MusicItem.isRemoteUri(): Boolean {
+    val scheme = uri.scheme.orEmpty().lowercase()
+    return scheme == "http" || scheme == "https"
+}
+
+private fun CloudTrackUi.toSongRow(): SongRowUi =
+    SongRowUi(
+        key = CLOUD_KEY_PREFIX + id,
+        title = title,
+        artist = artist,
+        playUriString = fileUrl,
+        isRemote = true,
+        isDownloaded = isDownloaded,
+        downloadedLocalUriString = downloadedLocalUriString,
+        cloudTrackId = id
+    )
+
+private fun MusicItem.toSongRow(uriString: String): SongRowUi =
+    SongRowUi(
+        key = LOCAL_KEY_PREFIX + uriString,
+        title = title,
+        artist = artist,
+        playUriString = uri.toString(),
+        isRemote = isRemoteUri(),
+        isDownloaded = isDownloaded,
+        downloadedLocalUriString = null
+    )
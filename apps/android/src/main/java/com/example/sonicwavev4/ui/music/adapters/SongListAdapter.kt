@@ -38,8 +38,11 @@ class SongListAdapter(
 
     var currentPlayingUriString: String? = null
         set(value) {
+            if (field == value) return
+            val previous = field
             field = value
-            notifyDataSetChanged()
+            notifyPlayingChanged(previous)
+            notifyPlayingChanged(value)
         }
     var isMyListMode: Boolean = false
         set(value) {
@@ -48,6 +51,16 @@ class SongListAdapter(
             notifyDataSetChanged()
         }
 
+    /**
+     * 只重绑播放状态变化的行，不触发整表刷新。
+     */
+    private fun notifyPlayingChanged(uriString: String?) {
+        if (uriString == null) return
+        currentList.forEachIndexed { index, row ->
+            if (row.playUriString == uriString) notifyItemChanged(index, PAYLOAD_PLAYING)
+        }
+    }
+
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): SongViewHolder {
         val view = LayoutInflater.from(parent.context)
             .inflate(R.layout.item_song, parent, false)
@@ -60,6 +73,14 @@ class SongListAdapter(
         holder.bind(item, isPlaying, isMyListMode)
     }
 
+    override fun onBindViewHolder(holder: SongViewHolder, position: Int, payloads: MutableList<Any>) {
+        if (payloads.isNotEmpty() && payloads.all { it == PAYLOAD_PLAYING }) {
+            holder.bindPlaying(getItem(position).playUriString == currentPlayingUriString)
+        } else {
+            onBindViewHolder(holder, position)
+        }
+    }
+
     class SongViewHolder(
         itemView: View,
         private val onSongClick: (SongRowUi) -> Unit,
@@ -103,7 +124,7 @@ class SongListAdapter(
             val baseColor = if (item.isDownloaded || !item.isRemote) downloadedColor else pendingDownloadColor
             title.setTextColor(baseColor)
 
-            itemView.background = if (playing) selectedBackground else normalBackground
+            bindPlaying(playing)
 
             if (item.isRemote) {
                 downloadIcon.visibility = View.VISIBLE
@@ -175,6 +196,10 @@ class SongListAdapter(
             }
         }
 
+        fun bindPlaying(playing: Boolean) {
+            itemView.background = if (playing) selectedBackground else normalBackground
+        }
+
         private fun startDragIfAllowed(view: View, item: SongRowUi): Boolean {
             if (item.isRemote && !item.isDownloaded) {
                 Toast.makeText(view.context, "请先下载后再添加到歌单", Toast.LENGTH_SHORT).show()
@@ -248,6 +273,10 @@ class SongListAdapter(
         }
     }
 
+    private companion object {
+        const val PAYLOAD_PLAYING = "playing"
+    }
+
     private object DiffCallback : DiffUtil.ItemCallback<SongRowUi>() {
         override fun areItemsTheSame(oldItem: SongRowUi, newItem: SongRowUi): Boolean =
             oldItem.key == newItem.key
@@ -23,7 +23,6 @@ import com.example.sonicwavev4.data.custompreset.CustomPresetRepositoryImpl
 import com.example.sonicwavev4.data.home.HomeHardwareRepository
 import com.example.sonicwavev4.data.home.HomeSessionRepository
 import com.example.sonicwavev4.databinding.FragmentPersetmodeBinding
-import com.example.sonicwavev4.network.RetrofitClient
 import com.example.sonicwavev4.ui.common.SoftResumeUi
 import com.example.sonicwavev4.ui.common.TouchHitTest
 import com.example.sonicwavev4.ui.common.UiEvent
@@ -32,7 +31,6 @@ import com.example.sonicwavev4.ui.custompreset.CustomPresetEditorFragment
 import com.example.sonicwavev4.ui.persetmode.PresetCategory.BUILT_IN
 import com.example.sonicwavev4.ui.customer.CustomerViewModel
 import com.example.sonicwavev4.ui.login.LoginViewModel
-import com.example.sonicwavev4.utils.SessionManager
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.launch
@@ -51,10 +49,7 @@ class PersetmodeFragment : Fragment() {
     private val viewModel: PersetmodeViewModel by activityViewModels {
         val application = requireActivity().application
         val hardwareRepository = HomeHardwareRepository.getInstance(application)
-        val sessionRepository = HomeSessionRepository(
-            SessionManager(application.applicationContext),
-            RetrofitClient.api
-        )
+        val sessionRepository = HomeSessionRepository.create(application)
         val customPresetRepository = CustomPresetRepositoryImpl.getInstance(application)
         PersetmodeViewModelFactory(
             application,
@@ -48,16 +48,15 @@ enum class PresetCategory {
     CUSTOM
 }
 
+// 只用汇总字段，列表刷新不会解码步骤
 private fun CustomPreset.toUiModel(selectedId: String?): CustomPresetUiModel {
-    val orderedSteps = steps.sortedBy { it.order }
-    val totalDuration = orderedSteps.sumOf { it.durationSec }
-    val summary = "共${orderedSteps.size}步 · ${totalDuration}秒"
+    val summary = "共${stepCount}步 · ${totalDurationSec}秒"
     return CustomPresetUiModel(
         id = id,
         name = name,
         summary = summary,
-        stepCount = orderedSteps.size,
-        totalDurationSec = totalDuration,
+        stepCount = stepCount,
+        totalDurationSec = totalDurationSec,
         isSelected = selectedId == id
     )
 }
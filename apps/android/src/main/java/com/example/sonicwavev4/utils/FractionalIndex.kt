@@ -0,0 +1,38 @@
+package com.example.sonicwavev4.utils
+
+import kotlin.math.abs
+
+/**
+ * 浮点排序键：插入或移动一项时只需要给它取相邻两项之间的值，不用改动其他行。
+ *
+ * 同一个位置反复插入会让间隔不断减半，[needsRebalance] 为 true 时调用方应把整组
+ * 重新编号为 `index * STEP`（很少发生）。
+ */
+object FractionalIndex {
+
+    const val STEP = 1024.0
+
+    // double 约有 52 位尾数，间隔小于这个比例时再二分就会与邻居重合
+    private const val MIN_RELATIVE_GAP = 1e-9
+
+    /**
+     * 返回位于 [before] 与 [after] 之间的键；null 表示该侧没有相邻项。
+     */
+    fun between(before: Double?, after: Double?): Double = when {
+        before == null && after == null -> 0.0
+        before == null -> after!! - STEP
+        after == null -> before + STEP
+        else -> before + (after - before) / 2
+    }
+
+    fun needsRebalance(before: Double?, after: Double?): Boolean {
+        if (before == null || after == null) return false
+        val scale = maxOf(1.0, abs(before), abs(after))
+        return after - before < scale * MIN_RELATIVE_GAP
+    }
+
+    /**
+     * 重新编号时第 [index] 项的键。
+     */
+    fun at(index: Int): Double = index * STEP
+}
@@ -1,23 +1,62 @@
 package com.example.sonicwavev4.utils
 
 import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import com.example.sonicwavev4.core.vibration.VibrationRunObserver
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlin.random.Random
 
 /**
- * Central coordinator ensuring that only one heartbeat stream is active at a time.
- * Device heartbeat runs when there is no active user heartbeat (e.g., logged out or
- * offline test mode). Once user heartbeat starts, it replaces device heartbeat until
- * the user signs out or the app leaves the foreground.
+ * Single heartbeat scheduler for the whole app.
+ *
+ * - While a user session is online it sends the combined user + device heartbeat
+ *   ([HeartbeatManager]); otherwise (logged out or offline test mode) it sends the
+ *   device heartbeat ([DeviceHeartbeatManager]).
+ * - Any authenticated request that reached the backend already refreshes the user's
+ *   online status server-side, and (via the X-Device-Id header) the device's last_seen_at,
+ *   so the user heartbeat is skipped when such traffic was seen within the current
+ *   interval. Skipping stops once [MAX_PIGGYBACK_MS] have passed since the last real
+ *   heartbeat, i.e. at most one idle beat is skipped in a row, so the device registry
+ *   never relies on traffic alone for longer than the admin console's online window.
+ * - Intervals adapt: short while a vibration session is running, longer when idle,
+ *   with random jitter so a fleet of devices does not wake up in lockstep.
  */
-object HeartbeatOrchestrator {
+object HeartbeatOrchestrator : VibrationRunObserver {
+
+    private const val TAG = "HeartbeatOrchestrator"
+    private const val SESSION_INTERVAL_MS = 15_000L
+    private const val IDLE_INTERVAL_MS = 60_000L
+    private const val DEVICE_ONLINE_WINDOW_MS = 90_000L
+    private const val MAX_PIGGYBACK_MS = DEVICE_ONLINE_WINDOW_MS
+    private const val JITTER_RATIO = 0.15
 
     private lateinit var appContext: Context
     private lateinit var sessionManager: SessionManager
     private var isAppInForeground: Boolean = false
 
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val lock = Any()
+    private var loopJob: Job? = null
+    private val activeRuns = HashSet<Long>()
+
+    @Volatile
+    private var lastAuthenticatedTrafficAt = 0L
+
+    @Volatile
+    private var lastUserHeartbeatAt = 0L
+
     fun initialize(context: Context) {
         if (::appContext.isInitialized) return
         appContext = context.applicationContext
         sessionManager = SessionManager(appContext)
+        DeviceIdentityProvider.initialize(appContext)
     }
 
     fun onAppForeground(context: Context) {
@@ -29,38 +68,102 @@ object HeartbeatOrchestrator {
     fun onAppBackground() {
         if (!::appContext.isInitialized) return
         isAppInForeground = false
-        stopAllHeartbeats()
+        stopLoop()
     }
 
     fun onLogin(context: Context) {
         initialize(context)
-        refreshHeartbeats()
+        restartLoop()
     }
 
     fun onLogout(context: Context) {
         initialize(context)
-        HeartbeatManager.stop()
-        if (isAppInForeground) {
-            DeviceHeartbeatManager.start(appContext)
-        } else {
-            DeviceHeartbeatManager.stop()
-        }
+        synchronized(lock) { activeRuns.clear() }
+        restartLoop()
     }
 
+    /**
+     * Re-evaluates which heartbeat applies; the next beat is sent immediately.
+     */
     fun refreshHeartbeats() {
+        restartLoop()
+    }
+
+    /**
+     * Called for every authenticated response that actually reached the backend
+     * (not served from the local cache).
+     */
+    fun onAuthenticatedTraffic() {
+        lastAuthenticatedTrafficAt = SystemClock.elapsedRealtime()
+    }
+
+    override fun onVibrationSessionStarted(runId: Long) {
+        val changed = synchronized(lock) {
+            val wasIdle = activeRuns.isEmpty()
+            activeRuns.add(runId)
+            wasIdle
+        }
+        // Tell the backend about the shorter interval right away.
+        if (changed) restartLoop()
+    }
+
+    override fun onVibrationSessionStopped(runId: Long) {
+        val changed = synchronized(lock) { activeRuns.remove(runId) && activeRuns.isEmpty() }
+        if (changed) restartLoop()
+    }
+
+    private fun restartLoop() {
         if (!::appContext.isInitialized) return
-        if (!isAppInForeground) {
-            stopAllHeartbeats()
-            return
+        synchronized(lock) {
+            loopJob?.cancel()
+            loopJob = null
+            if (!isAppInForeground) return
+            loopJob = scope.launch {
+                var forceSend = true
+                while (isActive) {
+                    val interval = currentInterval()
+                    try {
+                        beat(interval, forceSend)
+                    } catch (e: Exception) {
+                        Log.w(TAG, "Failed to send heartbeat", e)
+                    }
+                    forceSend = false
+                    delay(jittered(interval))
+                }
+            }
         }
+    }
 
-        if (shouldSendUserHeartbeat()) {
-            DeviceHeartbeatManager.stop()
-            HeartbeatManager.start(appContext)
-        } else {
-            HeartbeatManager.stop()
-            DeviceHeartbeatManager.start(appContext)
+    private fun stopLoop() {
+        synchronized(lock) {
+            loopJob?.cancel()
+            loopJob = null
+        }
+    }
+
+    private suspend fun beat(intervalMs: Long, force: Boolean) {
+        if (!shouldSendUserHeartbeat()) {
+            DeviceHeartbeatManager.send()
+            return
+        }
+        val now = SystemClock.elapsedRealtime()
+        val recentTraffic = now - lastAuthenticatedTrafficAt < intervalMs
+        val piggybackExpired = now - lastUserHeartbeatAt >= MAX_PIGGYBACK_MS
+        if (!force && recentTraffic && !piggybackExpired) {
+            return
         }
+        HeartbeatManager.send(sessionManager.fetchSessionId(), intervalMs)
+        lastUserHeartbeatAt = now
+    }
+
+    private fun currentInterval(): Long {
+        val inSession = synchronized(lock) { activeRuns.isNotEmpty() }
+        return if (inSession) SESSION_INTERVAL_MS else IDLE_INTERVAL_MS
+    }
+
+    private fun jittered(intervalMs: Long): Long {
+        val factor = 1.0 + Random.nextDouble(-JITTER_RATIO, JITTER_RATIO)
+        return (intervalMs * factor).toLong()
     }
 
     private fun shouldSendUserHeartbeat(): Boolean {
@@ -68,9 +171,4 @@ object HeartbeatOrchestrator {
         if (!sessionManager.hasActiveSession()) return false
         return sessionManager.fetchSessionId() != -1L
     }
-
-    private fun stopAllHeartbeats() {
-        HeartbeatManager.stop()
-        DeviceHeartbeatManager.stop()
-    }
 }
@@ -1,11 +1,9 @@
 package com.example.sonicwavev4.utils
 
 import android.content.Context
-import android.content.SharedPreferences
 import android.util.Log
-import androidx.security.crypto.EncryptedSharedPreferences
-import androidx.security.crypto.MasterKey
 import com.example.sonicwavev4.network.RetrofitClient
+import com.example.sonicwavev4.repository.CustomerRepository
 import kotlinx.coroutines.runBlocking
 
 // Sealed class for defining logout reasons, allowing for future expansion.
@@ -15,27 +13,13 @@ sealed class LogoutReason {
     object ReAuthenticationRequired : LogoutReason() // Future use case
 }
 
+/**
+ * 会话读写入口。实例本身不持有状态，可以随处创建；数据统一由进程内的 [SessionStore] 缓存。
+ */
 class SessionManager(context: Context) {
 
-    private lateinit var prefs: SharedPreferences
-
     init {
-        try {
-            val masterKey = MasterKey.Builder(context)
-                .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
-                .build()
-
-            prefs = EncryptedSharedPreferences.create(
-                context,
-                "SecureAppPrefs",
-                masterKey,
-                EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-                EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
-            )
-        } catch (e: Exception) {
-            Log.e("SessionManager", "Failed to create EncryptedSharedPreferences, falling back to standard SharedPreferences.", e)
-            prefs = context.getSharedPreferences("AppPrefs_Fallback", Context.MODE_PRIVATE)
-        }
+        SessionStore.initialize(context)
     }
 
     companion object {
@@ -50,10 +34,9 @@ class SessionManager(context: Context) {
     }
 
     fun saveTokens(accessToken: String, refreshToken: String) {
-        prefs.edit().apply {
+        SessionStore.update({ it.copy(accessToken = accessToken, refreshToken = refreshToken) }) {
             putString(ACCESS_TOKEN, accessToken)
             putString(REFRESH_TOKEN, refreshToken)
-            apply()
         }
     }
 
@@ -62,47 +45,48 @@ class SessionManager(context: Context) {
         userName: String,
         email: String
     ) {
-        prefs.edit().apply {
+        SessionStore.update({ it.copy(userId = userId, userName = userName, userEmail = email) }) {
             putString(USER_ID, userId)
             putString(USER_NAME, userName)
             putString(USER_EMAIL, email)
-            apply()
         }
     }
 
     fun saveSessionId(sessionId: Long) {
-        prefs.edit().apply {
+        SessionStore.update({ it.copy(sessionId = sessionId) }) {
             putLong(SESSION_ID, sessionId)
-            apply()
         }
     }
 
     fun setOfflineTestMode(enabled: Boolean) {
-        prefs.edit().putBoolean(OFFLINE_TEST_MODE, enabled).apply()
+        SessionStore.update({ it.copy(offlineTestMode = enabled) }) {
+            putBoolean(OFFLINE_TEST_MODE, enabled)
+        }
     }
 
-    fun isOfflineTestMode(): Boolean = prefs.getBoolean(OFFLINE_TEST_MODE, false)
+    fun isOfflineTestMode(): Boolean = SessionStore.current().offlineTestMode
 
     fun setOfflineModeAllowed(allowed: Boolean) {
-        prefs.edit().putBoolean(OFFLINE_MODE_ALLOWED, allowed).apply()
+        SessionStore.update({ it.copy(offlineModeAllowed = allowed) }) {
+            putBoolean(OFFLINE_MODE_ALLOWED, allowed)
+        }
     }
 
-    fun isOfflineModeAllowed(): Boolean = prefs.getBoolean(OFFLINE_MODE_ALLOWED, true)
+    fun isOfflineModeAllowed(): Boolean = SessionStore.current().offlineModeAllowed
 
-    fun fetchAccessToken(): String? = prefs.getString(ACCESS_TOKEN, null)
-    fun fetchRefreshToken(): String? = prefs.getString(REFRESH_TOKEN, null)
-    fun fetchUserId(): String? = prefs.getString(USER_ID, null)
-    fun fetchUserName(): String? = prefs.getString(USER_NAME, null)
-    fun fetchUserEmail(): String? = prefs.getString(USER_EMAIL, null)
-    fun fetchSessionId(): Long = prefs.getLong(SESSION_ID, -1L)
+    fun fetchAccessToken(): String? = SessionStore.current().accessToken
+    fun fetchRefreshToken(): String? = SessionStore.current().refreshToken
+    fun fetchUserId(): String? = SessionStore.current().userId
+    fun fetchUserName(): String? = SessionStore.current().userName
+    fun fetchUserEmail(): String? = SessionStore.current().userEmail
+    fun fetchSessionId(): Long = SessionStore.current().sessionId
 
     fun hasActiveSession(): Boolean {
-        if (isOfflineTestMode()) {
+        val session = SessionStore.current()
+        if (session.offlineTestMode) {
             return true
         }
-        val accessToken = fetchAccessToken()
-        val userId = fetchUserId()
-        return !accessToken.isNullOrBlank() && !userId.isNullOrBlank()
+        return !session.accessToken.isNullOrBlank() && !session.userId.isNullOrBlank()
     }
 
     fun initiateLogout(reason: LogoutReason) {
@@ -122,11 +106,17 @@ class SessionManager(context: Context) {
             GlobalLogoutManager.logout()
         }
         val offlineAllowed = isOfflineModeAllowed()
-        prefs.edit().clear().apply()
-        prefs.edit().putBoolean(OFFLINE_MODE_ALLOWED, offlineAllowed).apply()
+        SessionStore.update({ SessionSnapshot(offlineModeAllowed = offlineAllowed) }) {
+            clear()
+            putBoolean(OFFLINE_MODE_ALLOWED, offlineAllowed)
+        }
         OfflineTestModeManager.setOfflineTestMode(false)
         OfflineCapabilityManager.setOfflineAllowed(offlineAllowed)
         OfflineForceExitManager.cancelCountdown()
         RetrofitClient.updateToken(null)
+        RetrofitClient.clearResponseCache()
+        runBlocking {
+            CustomerRepository.clearCache()
+        }
     }
 }
@@ -0,0 +1,136 @@
+package com.example.sonicwavev4.utils
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import androidx.security.crypto.EncryptedSharedPreferences
+import androidx.security.crypto.MasterKey
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+/**
+ * 会话数据的不可变快照，所有读取都直接返回这里的字段，不再逐次解密。
+ */
+data class SessionSnapshot(
+    val accessToken: String? = null,
+    val refreshToken: String? = null,
+    val userId: String? = null,
+    val userName: String? = null,
+    val userEmail: String? = null,
+    val sessionId: Long = -1L,
+    val offlineTestMode: Boolean = false,
+    val offlineModeAllowed: Boolean = true
+)
+
+/**
+ * 进程内唯一的会话存储。
+ *
+ * [initialize] 在后台线程创建 MasterKey / EncryptedSharedPreferences 并读出快照；
+ * 读取在加载完成前会等待，之后只读内存中的 [SessionSnapshot]。
+ * 写入先原子地替换快照，再在同一个后台线程上按顺序写回加密存储。
+ */
+object SessionStore {
+
+    private const val TAG = "SessionStore"
+    private const val PREFS_NAME = "SecureAppPrefs"
+    private const val FALLBACK_PREFS_NAME = "AppPrefs_Fallback"
+
+    // 单线程：保证加载先于所有写入，且写入按提交顺序落盘
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "session-store").apply { isDaemon = true }
+    }
+    private val loaded = CountDownLatch(1)
+    private val lock = Any()
+
+    @Volatile
+    private var initialized = false
+
+    @Volatile
+    private var snapshot = SessionSnapshot()
+
+    private var prefs: SharedPreferences? = null
+
+    fun initialize(context: Context) {
+        if (initialized) return
+        val appContext = context.applicationContext
+        synchronized(lock) {
+            if (initialized) return
+            initialized = true
+            // 在锁内提交，保证加载任务排在任何写入之前
+            executor.execute {
+                try {
+                    val opened = openPreferences(appContext)
+                    prefs = opened
+                    snapshot = readSnapshot(opened)
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to load session", e)
+                } finally {
+                    loaded.countDown()
+                }
+            }
+        }
+    }
+
+    fun current(): SessionSnapshot {
+        awaitLoaded()
+        return snapshot
+    }
+
+    /**
+     * 原子地更新快照，[persist] 在后台线程把同样的改动写入加密存储。
+     */
+    fun update(transform: (SessionSnapshot) -> SessionSnapshot, persist: SharedPreferences.Editor.() -> Unit) {
+        awaitLoaded()
+        synchronized(lock) {
+            snapshot = transform(snapshot)
+            // 与快照替换在同一把锁内提交，落盘顺序与快照更新顺序一致
+            executor.execute {
+                try {
+                    prefs?.edit()?.apply {
+                        persist()
+                        apply()
+                    }
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to persist session", e)
+                }
+            }
+        }
+    }
+
+    private fun awaitLoaded() {
+        check(initialized) { "SessionStore must be initialized before use." }
+        loaded.await()
+    }
+
+    private fun openPreferences(context: Context): SharedPreferences {
+        return try {
+            val masterKey = MasterKey.Builder(context)
+                .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
+                .build()
+
+            EncryptedSharedPreferences.create(
+                context,
+                PREFS_NAME,
+                masterKey,
+                EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
+                EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
+            )
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to create EncryptedSharedPreferences, falling back to standard SharedPreferences.", e)
+            context.getSharedPreferences(FALLBACK_PREFS_NAME, Context.MODE_PRIVATE)
+        }
+    }
+
+    private fun readSnapshot(prefs: SharedPreferences): SessionSnapshot {
+        return SessionSnapshot(
+            accessToken = prefs.getString(SessionManager.ACCESS_TOKEN, null),
+            refreshToken = prefs.getString(SessionManager.REFRESH_TOKEN, null),
+            userId = prefs.getString(SessionManager.USER_ID, null),
+            userName = prefs.getString(SessionManager.USER_NAME, null),
+            userEmail = prefs.getString(SessionManager.USER_EMAIL, null),
+            sessionId = prefs.getLong(SessionManager.SESSION_ID, -1L),
+            offlineTestMode = prefs.getBoolean(SessionManager.OFFLINE_TEST_MODE, false),
+            offlineModeAllowed = prefs.getBoolean(SessionManager.OFFLINE_MODE_ALLOWED, true)
+        )
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.sonicwavev4
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ByteRangeSetTest {
+
+    @Test
+    fun `overlapping and adjacent ranges are merged`() {
+        val ranges = ByteRangeSet()
+        ranges.add(100, 200)
+        ranges.add(0, 50)
+        ranges.add(50, 120)
+        ranges.add(300, 400)
+
+        assertEquals(listOf(listOf(0L, 200L), listOf(300L, 400L)), ranges.toList())
+        assertEquals(300L, ranges.coveredBytes)
+    }
+
+    @Test
+    fun `coveredFrom reports the contiguous cached run`() {
+        val ranges = ByteRangeSet(listOf(listOf(0L, 100L), listOf(200L, 300L)))
+
+        assertEquals(60L, ranges.coveredFrom(40))
+        assertEquals(0L, ranges.coveredFrom(100))
+        assertEquals(0L, ranges.coveredFrom(150))
+        assertEquals(200L, ranges.nextCoveredStart(150))
+        assertNull(ranges.nextCoveredStart(250))
+    }
+
+    @Test
+    fun `covers is true only when there is no gap`() {
+        val ranges = ByteRangeSet()
+        ranges.add(0, 100)
+        ranges.add(101, 200)
+        assertFalse(ranges.covers(0, 200))
+
+        ranges.add(100, 101)
+        assertTrue(ranges.covers(0, 200))
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.sonicwavev4.data.custompreset
+
+import com.example.sonicwavev4.data.custompreset.db.PresetSortKey
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CustomPresetSortKeysTest {
+
+    private val spaced = listOf(
+        PresetSortKey("a", 0),
+        PresetSortKey("b", 1024),
+        PresetSortKey("c", 2048),
+        PresetSortKey("d", 3072)
+    )
+
+    @Test
+    fun `moving one preset rewrites only that preset`() {
+        assertEquals(mapOf("a" to 2560), CustomPresetSortKeys.plan(spaced, listOf("b", "c", "a", "d")))
+        assertEquals(mapOf("d" to -1024), CustomPresetSortKeys.plan(spaced, listOf("d", "a", "b", "c")))
+        assertEquals(mapOf("a" to 4096), CustomPresetSortKeys.plan(spaced, listOf("b", "c", "d", "a")))
+    }
+
+    @Test
+    fun `unchanged order needs no writes`() {
+        assertTrue(CustomPresetSortKeys.plan(spaced, listOf("a", "b", "c", "d")).isEmpty())
+    }
+
+    @Test
+    fun `consecutive legacy keys are renumbered with gaps`() {
+        val legacy = listOf(
+            PresetSortKey("a", 0),
+            PresetSortKey("b", 1),
+            PresetSortKey("c", 2)
+        )
+
+        assertEquals(
+            mapOf("c" to 1024, "b" to 2048),
+            CustomPresetSortKeys.plan(legacy, listOf("a", "c", "b"))
+        )
+    }
+
+    @Test
+    fun `new presets go after the current maximum`() {
+        assertEquals(0, CustomPresetSortKeys.after(null))
+        assertEquals(2048, CustomPresetSortKeys.after(1024))
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.sonicwavev4.data.custompreset.db
+
+import com.example.sonicwavev4.data.custompreset.model.CustomPresetStep
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CustomPresetStepCodecTest {
+
+    @Test
+    fun `steps survive an encode-decode round trip`() {
+        val steps = listOf(
+            CustomPresetStep(id = "a", frequencyHz = 40, intensity01V = 120, durationSec = 30, order = 0),
+            CustomPresetStep(id = "步骤-b", frequencyHz = 100, intensity01V = 0, durationSec = 600, order = 1)
+        )
+
+        assertEquals(steps, CustomPresetStepCodec.decode(CustomPresetStepCodec.encode(steps)))
+    }
+
+    @Test
+    fun `empty list and empty blob decode to no steps`() {
+        assertTrue(CustomPresetStepCodec.decode(CustomPresetStepCodec.encode(emptyList())).isEmpty())
+        assertTrue(CustomPresetStepCodec.decode(ByteArray(0)).isEmpty())
+    }
+}
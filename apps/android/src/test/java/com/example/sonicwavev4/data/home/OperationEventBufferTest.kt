@@ -0,0 +1,134 @@
+package com.example.sonicwavev4.data.home
+
+import com.example.sonicwavev4.network.QueuedOperationEvent
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class OperationEventBufferTest {
+
+    private val buffer = OperationEventBuffer(
+        maxPending = 5,
+        coalesceWindowMs = 1_500L,
+        coalescibleTypes = setOf("adjust_frequency", "adjust_intensity")
+    )
+
+    private fun adjust(operationId: Long, at: Long, frequency: Int, type: String = "adjust_frequency") =
+        QueuedOperationEvent(operationId = operationId, eventType = type, frequency = frequency, occurredAt = at)
+
+    @Test
+    fun `rapid adjustments of the same kind collapse into the last value`() {
+        buffer.add(adjust(1, 0, 10))
+        buffer.add(adjust(1, 1_000, 11))
+        buffer.add(adjust(1, 2_000, 12))
+
+        val events = buffer.snapshot()
+        assertEquals(1, events.size)
+        assertEquals(12, events[0].frequency)
+        assertEquals(0L, events[0].occurredAt)
+        assertEquals(2_000L, events[0].lastOccurredAt)
+        assertEquals(3, events[0].coalescedCount)
+    }
+
+    @Test
+    fun `events with extra detail are never coalesced`() {
+        buffer.add(adjust(1, 0, 10).copy(extraDetail = "preset"))
+        buffer.add(adjust(1, 500, 11))
+        buffer.add(adjust(1, 1_000, 12).copy(extraDetail = "preset"))
+
+        val events = buffer.snapshot()
+        assertEquals(listOf(10, 11, 12), events.map { it.frequency })
+        assertEquals(listOf("preset", null, "preset"), events.map { it.extraDetail })
+        assertNull(events[1].lastOccurredAt)
+    }
+
+    @Test
+    fun `events outside the window or of another kind stay separate`() {
+        buffer.add(adjust(1, 0, 10))
+        buffer.add(adjust(1, 5_000, 11))
+        buffer.add(adjust(1, 5_100, 20, type = "adjust_intensity"))
+        buffer.add(QueuedOperationEvent(operationId = 2, eventType = "pause", occurredAt = 5_300))
+        buffer.add(QueuedOperationEvent(operationId = 2, eventType = "pause", occurredAt = 5_400))
+
+        assertEquals(5, buffer.size)
+    }
+
+    @Test
+    fun `events already taken for upload are not coalesced into`() {
+        buffer.add(adjust(1, 0, 10))
+        val batch = buffer.takeBatch(10) { true }
+        buffer.add(adjust(1, 500, 11))
+
+        assertEquals(10, batch.single().frequency)
+        assertEquals(listOf(10, 11), buffer.snapshot().map { it.frequency })
+    }
+
+    @Test
+    fun `restored events go before new ones and are not coalesced into`() {
+        buffer.add(adjust(1, 1_000, 20))
+        buffer.restore(listOf(adjust(1, 900, 10)))
+        buffer.add(adjust(1, 1_200, 21))
+
+        assertEquals(listOf(10, 21), buffer.snapshot().map { it.frequency })
+
+        val restoredOnly = OperationEventBuffer(5, 1_500L, setOf("adjust_frequency"))
+        restoredOnly.restore(listOf(adjust(1, 900, 10)))
+        restoredOnly.add(adjust(1, 1_000, 11))
+        assertEquals(listOf(10, 11), restoredOnly.snapshot().map { it.frequency })
+    }
+
+    @Test
+    fun `completing a batch removes exactly the sent events`() {
+        buffer.add(adjust(1, 0, 10))
+        buffer.add(adjust(2, 100, 20))
+        val batch = buffer.takeBatch(10) { true }
+        // 上报期间恢复的事件插到队首，新事件追加到队尾
+        buffer.restore(listOf(adjust(3, -100, 30)))
+        buffer.add(adjust(4, 200, 40))
+
+        buffer.complete(batch)
+
+        assertEquals(listOf(30, 40), buffer.snapshot().map { it.frequency })
+    }
+
+    @Test
+    fun `completion removes by identity rather than by value`() {
+        val sent = adjust(1, 0, 10)
+        val twin = sent.copy()
+        buffer.add(sent)
+        val batch = buffer.takeBatch(10) { true }
+        buffer.add(QueuedOperationEvent(operationId = 1, eventType = "pause", occurredAt = 50))
+        buffer.add(twin)
+
+        buffer.complete(batch)
+
+        val remaining = buffer.snapshot()
+        assertEquals(2, remaining.size)
+        assertSame(twin, remaining[1])
+    }
+
+    @Test
+    fun `batch stops at the first event that is not ready`() {
+        buffer.add(adjust(1, 0, 10))
+        buffer.add(adjust(-5, 100, 20))
+        buffer.add(adjust(2, 200, 30))
+
+        val batch = buffer.takeBatch(10) { it > 0 }
+
+        assertEquals(listOf(10), batch.map { it.frequency })
+        assertEquals(listOf(10), buffer.takeBatch(1) { true }.map { it.frequency })
+    }
+
+    @Test
+    fun `overflow drops the oldest events that are not being uploaded`() {
+        buffer.add(QueuedOperationEvent(operationId = 1, eventType = "start", occurredAt = 0))
+        val batch = buffer.takeBatch(1) { true }
+        (1..6).forEach { buffer.add(QueuedOperationEvent(operationId = 1, eventType = "e$it", occurredAt = it.toLong())) }
+
+        val events = buffer.snapshot()
+        assertEquals(5, events.size)
+        assertSame(batch.single(), events[0])
+        assertEquals(listOf("start", "e3", "e4", "e5", "e6"), events.map { it.eventType })
+    }
+}
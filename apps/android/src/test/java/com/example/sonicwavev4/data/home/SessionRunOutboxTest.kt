@@ -0,0 +1,128 @@
+package com.example.sonicwavev4.data.home
+
+import com.example.sonicwavev4.network.ApiService
+import com.example.sonicwavev4.network.StartOperationRequest
+import com.example.sonicwavev4.network.StartOperationResponse
+import com.example.sonicwavev4.network.StopOperationRequest
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import retrofit2.HttpException
+import retrofit2.Response
+import java.io.IOException
+import java.lang.reflect.Proxy
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class SessionRunOutboxTest {
+
+    private val api = FakeApi()
+
+    private fun TestScope.outbox(): SessionRunOutbox =
+        SessionRunOutbox(
+            api = api,
+            file = null,
+            scope = backgroundScope,
+            beforeStop = { api.calls.add("flush events") }
+        )
+
+    private fun start(user: String) = StartOperationRequest(
+        userId = user,
+        userName = null,
+        user_email = null,
+        customer_id = null,
+        customer_name = null,
+        frequency = 10,
+        intensity = 20,
+        operationTime = 5
+    )
+
+    private val stop = StopOperationRequest(reason = "manual")
+
+    @Test
+    fun `stop is sent with the server id after the start is delivered`() = runTest {
+        val outbox = outbox()
+        api.serverIds["a"] = 100L
+
+        val localId = outbox.startOperation(start("a"))
+        assertTrue(outbox.isLocalId(localId))
+        assertEquals(SessionRunOutbox.Resolution.Pending, outbox.resolve(localId))
+
+        outbox.stopOperation(localId, stop)
+        runCurrent()
+
+        assertEquals(SessionRunOutbox.Resolution.Resolved(100L), outbox.resolve(localId))
+        assertEquals(listOf("start a", "flush events", "stop 100"), api.calls)
+        assertEquals(0, outbox.pendingCount())
+    }
+
+    @Test
+    fun `rejected start drops the stop of the same run`() = runTest {
+        val outbox = outbox()
+        api.startErrors["a"] = HttpException(Response.error<Any>(400, "".toResponseBody()))
+
+        val localId = outbox.startOperation(start("a"))
+        outbox.stopOperation(localId, stop)
+        runCurrent()
+
+        assertEquals(SessionRunOutbox.Resolution.Abandoned, outbox.resolve(localId))
+        assertEquals(listOf("start a"), api.calls)
+        assertEquals(0, outbox.pendingCount())
+    }
+
+    @Test
+    fun `a run waiting for retry does not hold back other runs`() = runTest {
+        val outbox = outbox()
+        api.startErrors["a"] = IOException("offline")
+        api.serverIds["b"] = 200L
+
+        val runA = outbox.startOperation(start("a"))
+        outbox.stopOperation(runA, stop)
+        runCurrent()
+        // A 正在等待重试，B 不必等这段间隔；提前的这一轮也会顺带重试 A
+        val runB = outbox.startOperation(start("b"))
+        outbox.stopOperation(runB, stop)
+        runCurrent()
+
+        assertEquals(SessionRunOutbox.Resolution.Pending, outbox.resolve(runA))
+        assertEquals(SessionRunOutbox.Resolution.Resolved(200L), outbox.resolve(runB))
+        assertEquals(listOf("start a", "start a", "start b", "flush events", "stop 200"), api.calls)
+        assertEquals(2, outbox.pendingCount())
+
+        api.startErrors.remove("a")
+        api.serverIds["a"] = 100L
+        advanceTimeBy(30_001L)
+
+        assertEquals(SessionRunOutbox.Resolution.Resolved(100L), outbox.resolve(runA))
+        assertEquals(listOf("start a", "flush events", "stop 100"), api.calls.takeLast(3))
+        assertEquals(0, outbox.pendingCount())
+    }
+
+    private class FakeApi : ApiService by unsupportedApi() {
+        val calls = mutableListOf<String>()
+        val serverIds = HashMap<String, Long>()
+        val startErrors = HashMap<String, Exception>()
+
+        override suspend fun startOperation(request: StartOperationRequest): StartOperationResponse {
+            calls.add("start ${request.userId}")
+            startErrors[request.userId]?.let { throw it }
+            return StartOperationResponse(message = "ok", operationId = serverIds.getValue(request.userId))
+        }
+
+        override suspend fun stopOperation(id: Long, request: StopOperationRequest): Response<Unit> {
+            calls.add("stop $id")
+            return Response.success(Unit)
+        }
+    }
+}
+
+// 测试只用到少数几个接口，其余方法一律抛异常
+private fun unsupportedApi(): ApiService =
+    Proxy.newProxyInstance(ApiService::class.java.classLoader, arrayOf(ApiService::class.java)) { _, method, _ ->
+        throw UnsupportedOperationException(method.name)
+    } as ApiService
@@ -0,0 +1,86 @@
+package com.example.sonicwavev4.logging
+
+import okio.Buffer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LogRecordCodecTest {
+
+    private val deviceInfo = DeviceInfo(model = "SM-T220", os_version = "13")
+
+    @Test
+    fun `entries round trip through a shared dictionary`() {
+        val entries = listOf(
+            entry("http://10.0.2.2:3000/api/v1/operations/42/events", code = 201),
+            entry("http://10.0.2.2:3000/api/v1/operations/43/events?source=home", code = null, error = "timeout"),
+            entry("http://10.0.2.2:3000/api/v1/music/007", code = 200)
+        )
+        val buffer = Buffer()
+        val writeDictionary = LogRecordCodec.Dictionary()
+        entries.forEach { LogRecordCodec.encode(it, writeDictionary, buffer) }
+
+        val readDictionary = LogRecordCodec.Dictionary()
+        val decoded = mutableListOf<LogEntry>()
+        while (true) {
+            val frame = LogRecordCodec.readFrame(buffer) ?: break
+            LogRecordCodec.decode(frame.payload, readDictionary)?.let { decoded.add(it) }
+        }
+
+        assertEquals(entries, decoded)
+    }
+
+    @Test
+    fun `repeated entries are much smaller than json`() {
+        val entry = entry("http://10.0.2.2:3000/api/v1/operations/42/events", code = 201)
+        val buffer = Buffer()
+        val dictionary = LogRecordCodec.Dictionary()
+        LogRecordCodec.encode(entry, dictionary, buffer)
+        val first = buffer.size
+        LogRecordCodec.encode(entry.copy(request_url = "http://10.0.2.2:3000/api/v1/operations/43/events"), dictionary, buffer)
+        val second = buffer.size - first
+
+        val json = com.google.gson.Gson().toJson(entry).length
+        assertTrue("second record took $second bytes", second * 10 < json)
+    }
+
+    @Test
+    fun `truncated frame is ignored`() {
+        val buffer = Buffer()
+        LogRecordCodec.encode(entry("http://host/api/v1/heartbeat", code = 200), LogRecordCodec.Dictionary(), buffer)
+        val bytes = buffer.readByteArray()
+        val truncated = Buffer().write(bytes, 0, bytes.size - 1)
+
+        val dictionary = LogRecordCodec.Dictionary()
+        var entries = 0
+        while (true) {
+            val frame = LogRecordCodec.readFrame(truncated) ?: break
+            if (LogRecordCodec.decode(frame.payload, dictionary) != null) entries++
+        }
+
+        assertEquals(0, entries)
+    }
+
+    @Test
+    fun `numeric path segments become placeholders`() {
+        val parts = LogRecordCodec.splitUrl("http://host/api/v1/operations/42/events?x=1")
+
+        assertEquals("http://host/api/v1/operations/{}/events", parts.template)
+        assertEquals(listOf(42L), parts.ids)
+        assertEquals("x=1", parts.query)
+        assertEquals("http://host/api/v1/operations/42/events?x=1", LogRecordCodec.joinUrl(parts))
+        assertNull(LogRecordCodec.splitUrl("http://host/a").query)
+    }
+
+    private fun entry(url: String, code: Int?, error: String? = null) = LogEntry(
+        log_level = if (error == null) "INFO" else "ERROR",
+        request_url = url,
+        request_method = "POST",
+        response_code = code,
+        is_successful = error == null,
+        duration_ms = 123,
+        error_message = error,
+        device_info = deviceInfo
+    )
+}
@@ -0,0 +1,38 @@
+package com.example.sonicwavev4.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class RouteLatencyAggregatorTest {
+
+    @Test
+    fun `ids in paths are replaced with placeholders`() {
+        assertEquals(
+            "api/v1/operations/{id}/events",
+            RouteLatencyAggregator.normalizeRoute("/api/v1/operations/42/events")
+        )
+        assertEquals(
+            "api/v1/devices/{id}",
+            RouteLatencyAggregator.normalizeRoute("/api/v1/devices/3f2b8c1e-9a4d-4e5f-8b6a-1c2d3e4f5a6b")
+        )
+        assertEquals("api/v1/heartbeat", RouteLatencyAggregator.normalizeRoute("/api/v1/heartbeat"))
+    }
+
+    @Test
+    fun `percentiles come from histogram buckets`() {
+        val histogram = LatencyHistogram()
+        repeat(90) { histogram.record(durationMs = 40, isError = false) }
+        repeat(9) { histogram.record(durationMs = 180, isError = false) }
+        histogram.record(durationMs = 2_400, isError = true)
+
+        val rollup = histogram.toRollup(minuteStart = 0L)
+
+        assertEquals(100, rollup.count)
+        assertEquals(1, rollup.error_count)
+        assertEquals(40L, rollup.p50_ms)
+        assertEquals(200L, rollup.p95_ms)
+        assertEquals(200L, rollup.p99_ms)
+        assertEquals(2_400L, rollup.max_ms)
+        assertEquals(mapOf("40" to 90, "200" to 9, "3000" to 1), rollup.histogram)
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.sonicwavev4.musiclibrary
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MusicSearchIndexTest {
+
+    private val pinyin = mapOf('晴' to "qing", '天' to "tian", '周' to "zhou", '杰' to "jie", '伦' to "lun")
+
+    private fun newIndex() = MusicSearchIndex { ch -> pinyin[ch] }
+
+    private val sunny = MusicSearchIndex.Entry("local:1", "晴天", "周杰伦")
+    private val yesterday = MusicSearchIndex.Entry("cloud:2", "Yesterday Once More", "Carpenters")
+
+    @Test
+    fun `matches original text, full pinyin and initials`() {
+        val index = newIndex()
+        index.sync(listOf(sunny, yesterday))
+
+        listOf("晴天", "天", "qingtian", "tian", "qt", "zjl", "jielun").forEach { query ->
+            assertEquals(query, listOf("local:1"), index.search(query))
+        }
+        assertEquals(listOf("cloud:2"), index.search("once"))
+        assertTrue(index.search("nce").isEmpty())
+    }
+
+    @Test
+    fun `every word of the query has to match`() {
+        val index = newIndex()
+        index.sync(listOf(sunny, yesterday))
+
+        assertEquals(listOf("cloud:2"), index.search("yes carp"))
+        assertTrue(index.search("yes zhou").isEmpty())
+    }
+
+    @Test
+    fun `title prefix ranks above artist match`() {
+        val index = newIndex()
+        val byArtist = MusicSearchIndex.Entry("local:3", "Hello", "Tian Tian")
+        index.sync(listOf(byArtist, sunny))
+
+        assertEquals(listOf("local:1", "local:3"), index.search("tian"))
+    }
+
+    @Test
+    fun `sync replaces renamed tracks and drops missing ones`() {
+        val index = newIndex()
+        index.sync(listOf(sunny, yesterday))
+        index.sync(listOf(sunny.copy(title = "Rainy Day")))
+
+        assertEquals(1, index.size)
+        assertTrue(index.search("qt").isEmpty())
+        assertTrue(index.search("yesterday").isEmpty())
+        assertEquals(listOf("local:1"), index.search("rainy"))
+    }
+
+    @Test
+    fun `sources with different key prefixes are synced and searched separately`() {
+        val index = newIndex()
+        index.sync(listOf(sunny), keyPrefix = "local:")
+        index.sync(listOf(yesterday), keyPrefix = "cloud:")
+        index.sync(emptyList(), keyPrefix = "cloud:")
+
+        assertEquals(1, index.size)
+        assertEquals(listOf("local:1"), index.search("qt", keyPrefix = "local:"))
+
+        index.sync(listOf(yesterday.copy(title = "Tian Mi Mi")), keyPrefix = "cloud:")
+        assertEquals(listOf("cloud:2", "local:1"), index.search("tian"))
+        assertEquals(listOf("cloud:2"), index.search("tian", keyPrefix = "cloud:"))
+    }
+}
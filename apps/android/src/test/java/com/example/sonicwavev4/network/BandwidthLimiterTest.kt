@@ -0,0 +1,34 @@
+package com.example.sonicwavev4.network
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class BandwidthLimiterTest {
+
+    @Test
+    fun `burst up to one second of budget passes without waiting`() = runTest {
+        val limiter = BandwidthLimiter(bytesPerSecond = 1_000, clock = { currentTime })
+
+        limiter.acquire(1_000)
+
+        assertEquals(0L, currentTime)
+    }
+
+    @Test
+    fun `shared limiter caps combined throughput`() = runTest {
+        val limiter = BandwidthLimiter(bytesPerSecond = 1_000, clock = { currentTime })
+
+        // 两个下载共 5000 字节：第一秒的 1000 字节来自初始额度，其余按 1000 B/s 放行
+        val jobs = List(2) {
+            launch { repeat(5) { limiter.acquire(500) } }
+        }
+        jobs.forEach { it.join() }
+
+        assertEquals(4_000L, currentTime)
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.sonicwavev4.network
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RequestCompressionPolicyTest {
+
+    @Test
+    fun `small bodies are never compressed`() {
+        assertFalse(RequestCompressionPolicy.shouldCompress("POST api/v1/heartbeat", 120))
+        assertTrue(RequestCompressionPolicy.shouldCompress("POST api/v1/heartbeat", -1))
+    }
+
+    @Test
+    fun `routes that do not compress well are skipped and probed again later`() {
+        val route = "POST api/v1/test/incompressible"
+        repeat(8) { RequestCompressionPolicy.recordCompressed(route, original = 4_000, compressed = 3_950) }
+
+        val decisions = List(50) { RequestCompressionPolicy.shouldCompress(route, 4_000) }
+
+        assertEquals(1, decisions.count { it })
+        assertTrue(decisions.last())
+    }
+
+    @Test
+    fun `routes that compress well keep compressing`() {
+        val route = "POST api/v1/test/compressible"
+        repeat(8) { RequestCompressionPolicy.recordCompressed(route, original = 4_000, compressed = 800) }
+
+        assertTrue(RequestCompressionPolicy.shouldCompress(route, 4_000))
+    }
+
+    @Test
+    fun `compressed and skipped bytes are counted per route and globally`() {
+        val route = "POST api/v1/test/counted"
+        val before = RequestCompressionPolicy.snapshot()
+
+        RequestCompressionPolicy.recordCompressed(route, original = 4_000, compressed = 1_000)
+        RequestCompressionPolicy.recordCompressed(route, original = 2_000, compressed = 2_100)
+        RequestCompressionPolicy.recordSkipped(route, contentLength = 300)
+        RequestCompressionPolicy.recordSkipped(route, contentLength = -1)
+
+        val expected = CompressionStats(
+            compressedRequests = 2,
+            skippedRequests = 2,
+            originalBytes = 6_000,
+            sentBytes = 3_000,
+            skippedBytes = 300
+        )
+        assertEquals(expected, RequestCompressionPolicy.drainRouteStats()[route])
+        assertEquals(3_000L, expected.savedBytes)
+        assertNull(RequestCompressionPolicy.drainRouteStats()[route])
+
+        val after = RequestCompressionPolicy.snapshot()
+        assertEquals(2L, after.compressedRequests - before.compressedRequests)
+        assertEquals(2L, after.skippedRequests - before.skippedRequests)
+        assertEquals(6_000L, after.originalBytes - before.originalBytes)
+        assertEquals(3_000L, after.sentBytes - before.sentBytes)
+        assertEquals(300L, after.skippedBytes - before.skippedBytes)
+    }
+}
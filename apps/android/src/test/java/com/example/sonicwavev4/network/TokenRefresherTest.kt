@@ -0,0 +1,30 @@
+package com.example.sonicwavev4.network
+
+import okio.ByteString.Companion.encodeUtf8
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class TokenRefresherTest {
+
+    private fun jwt(payload: String): String {
+        val header = """{"alg":"HS256","typ":"JWT"}""".encodeUtf8().base64Url().trimEnd('=')
+        val body = payload.encodeUtf8().base64Url().trimEnd('=')
+        return "$header.$body.signature"
+    }
+
+    @Test
+    fun `expiry is read from the jwt payload in milliseconds`() {
+        val token = jwt("""{"id":42,"iat":1760000000,"exp":1760000900}""")
+
+        assertEquals(1_760_000_900_000L, TokenRefresher.expiryMillisOf(token))
+    }
+
+    @Test
+    fun `tokens without a readable exp have no expiry`() {
+        assertNull(TokenRefresher.expiryMillisOf("not-a-jwt"))
+        assertNull(TokenRefresher.expiryMillisOf(jwt("""{"id":42}""")))
+        assertNull(TokenRefresher.expiryMillisOf(jwt("""{"exp":"soon"}""")))
+        assertNull(TokenRefresher.expiryMillisOf("a.%%%.c"))
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.sonicwavev4.repository
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class SingleFlightCacheTest {
+
+    @Test
+    fun `concurrent callers share one load`() = runBlocking {
+        val cache = SingleFlightCache<String, Int>(ttlMs = 60_000)
+        val loads = AtomicInteger()
+        val gate = CompletableDeferred<Unit>()
+
+        val results = List(5) {
+            async {
+                cache.get("categories") {
+                    loads.incrementAndGet()
+                    gate.await()
+                    42
+                }
+            }
+        }
+        gate.complete(Unit)
+
+        assertEquals(List(5) { 42 }, results.awaitAll())
+        assertEquals(1, loads.get())
+    }
+
+    @Test
+    fun `results expire after the ttl`() = runBlocking {
+        var now = 0L
+        val cache = SingleFlightCache<String, Int>(ttlMs = 1_000, clock = { now })
+        val loads = AtomicInteger()
+
+        cache.get("tracks") { loads.incrementAndGet() }
+        now = 999
+        cache.get("tracks") { loads.incrementAndGet() }
+        now = 1_000
+        val refreshed = cache.get("tracks") { loads.incrementAndGet() }
+
+        assertEquals(2, refreshed)
+        assertEquals(2, loads.get())
+    }
+
+    @Test
+    fun `failures and rejected results are not cached`() = runBlocking {
+        val cache = SingleFlightCache<String, Int>(ttlMs = 60_000, cacheIf = { it > 0 })
+        val loads = AtomicInteger()
+
+        val failure = runCatching { cache.get("customers") { loads.incrementAndGet(); error("offline") } }
+        cache.get("customers") { loads.incrementAndGet(); -1 }
+        cache.get("customers") { loads.incrementAndGet(); 7 }
+        val cached = cache.get("customers") { loads.incrementAndGet(); 8 }
+
+        assertTrue(failure.isFailure)
+        assertEquals(7, cached)
+        assertEquals(3, loads.get())
+    }
+}
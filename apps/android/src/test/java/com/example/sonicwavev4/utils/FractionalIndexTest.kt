@@ -0,0 +1,39 @@
+package com.example.sonicwavev4.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FractionalIndexTest {
+
+    @Test
+    fun `keys at the ends step away from the neighbour`() {
+        assertEquals(0.0, FractionalIndex.between(null, null), 0.0)
+        assertEquals(2048.0, FractionalIndex.between(1024.0, null), 0.0)
+        assertEquals(-1024.0, FractionalIndex.between(null, 0.0), 0.0)
+    }
+
+    @Test
+    fun `key between two neighbours stays strictly inside`() {
+        val key = FractionalIndex.between(1024.0, 2048.0)
+
+        assertTrue(key > 1024.0 && key < 2048.0)
+    }
+
+    @Test
+    fun `repeated inserts at the same spot eventually ask for a rebalance`() {
+        val before = 0.0
+        var after = FractionalIndex.STEP
+        var inserts = 0
+        while (!FractionalIndex.needsRebalance(before, after)) {
+            val key = FractionalIndex.between(before, after)
+            assertTrue(key > before && key < after)
+            after = key
+            inserts++
+        }
+
+        assertTrue(inserts > 30)
+        assertFalse(FractionalIndex.needsRebalance(FractionalIndex.at(0), FractionalIndex.at(1)))
+    }
+}
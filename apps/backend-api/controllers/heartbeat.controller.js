@@ -1,14 +1,13 @@
 // heartbeat.controller.js
-const { updateUser } = require('../onlineStatusManager');
 const logger = require('../logger'); // 引入 logger
-const deviceService = require('../services/device.service');
+const { recordHeartbeat } = require('../services/heartbeat.service');
 const resolveClientIp = req =>
   req.headers['x-forwarded-for']?.split(',')[0]?.trim() || req.connection?.remoteAddress || req.ip || null;
 
 const handleHeartbeat = (req, res) => {
   const userId = req.user?.id || req.user?.userId || null;
   logger.info(`[Heartbeat Controller] Received request for userId: ${userId}`);
-  const { sessionId, deviceId } = req.body;
+  const { sessionId, deviceId, ipAddress, deviceModel, osVersion, appVersion, intervalMs } = req.body;
 
   if (!sessionId) {
     // [新增日志] 增加对缺少 sessionId 的情况的日志记录
@@ -16,22 +15,16 @@ const handleHeartbeat = (req, res) => {
     return res.status(400).json({ message: 'Session ID is required for heartbeat' });
   }
 
-  // 为了高性能，只更新内存中的map。
-  updateUser(userId, sessionId);
-
-  if (deviceId) {
-    deviceService
-      .touchDevice({
-        deviceId,
-        userId: userId ? String(userId) : null,
-        userEmail: req.user?.email || null,
-        userName: req.user?.username || null,
-        ipAddress: resolveClientIp(req)
-      })
-      .catch(err => {
-        logger.warn('[Heartbeat Controller] Failed to update device heartbeat', { error: err.message });
-      });
-  }
+  recordHeartbeat({
+    user: req.user,
+    sessionId,
+    deviceId,
+    ipAddress: ipAddress || resolveClientIp(req),
+    deviceModel,
+    osVersion,
+    appVersion,
+    intervalMs
+  });
 
   res.status(200).json({ message: 'Heartbeat received' });
 };
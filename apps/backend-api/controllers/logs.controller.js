@@ -1,8 +1,57 @@
 const { dbPool } = require('../config/db');
 const logger = require('../logger');
 
+const toInt = (value) => (Number.isFinite(Number(value)) ? Math.round(Number(value)) : null);
+
+const insertLatencyRollups = async (connection, rollups) => {
+  const sql = 'INSERT INTO client_latency_rollups (route, request_method, minute_start, request_count, error_count, p50_ms, p95_ms, p99_ms, max_ms, histogram, device_info) VALUES ?';
+
+  const values = rollups.map(log => {
+    const latency = log.latency;
+    return [
+      log.request_url || '',
+      log.request_method || '',
+      new Date(toInt(latency.minute_start) || Date.now()),
+      toInt(latency.count) || 0,
+      toInt(latency.error_count) || 0,
+      toInt(latency.p50_ms),
+      toInt(latency.p95_ms),
+      toInt(latency.p99_ms),
+      toInt(latency.max_ms),
+      JSON.stringify(latency.histogram || {}),
+      JSON.stringify(log.device_info)
+    ];
+  });
+
+  logger.debug('Preparing to insert latency rollups into DB:', { count: values.length });
+  await connection.query(sql, [values]);
+};
+
+const insertCompressionRollups = async (connection, rollups) => {
+  const sql = 'INSERT INTO client_compression_rollups (route, request_method, reported_at, compressed_requests, skipped_requests, original_bytes, sent_bytes, skipped_bytes, device_info) VALUES ?';
+
+  const values = rollups.map(log => {
+    const compression = log.compression;
+    return [
+      log.request_url || '',
+      log.request_method || '',
+      new Date(toInt(compression.reported_at) || Date.now()),
+      toInt(compression.compressed_requests) || 0,
+      toInt(compression.skipped_requests) || 0,
+      toInt(compression.original_bytes) || 0,
+      toInt(compression.sent_bytes) || 0,
+      toInt(compression.skipped_bytes) || 0,
+      JSON.stringify(log.device_info)
+    ];
+  });
+
+  logger.debug('Preparing to insert compression rollups into DB:', { count: values.length });
+  await connection.query(sql, [values]);
+};
+
 // Create client logs
 const createClientLogs = async (req, res) => {
+  let connection;
   try {
     let logs = req.body;
 
@@ -15,6 +64,11 @@ const createClientLogs = async (req, res) => {
       return res.status(400).json({ message: 'Log data cannot be empty.' });
     }
 
+    // METRIC entries carry per-route latency or request compression roll-ups and go to their own tables.
+    const rollups = logs.filter(log => log && log.latency);
+    const compressionRollups = logs.filter(log => log && !log.latency && log.compression);
+    logs = logs.filter(log => !(log && (log.latency || log.compression)));
+
     const sql = 'INSERT INTO client_logs (log_level, request_url, request_method, response_code, is_successful, duration_ms, error_message, device_info) VALUES ?';
     
     const values = logs.map(log => {
@@ -34,14 +88,38 @@ const createClientLogs = async (req, res) => {
       ];
     });
 
-    logger.debug('Preparing to insert into DB:', { sql, values });
-    await dbPool.query(sql, [values]);
+    // Roll-ups and plain logs go in together: a failed batch is retried whole by the client,
+    // so a partial insert would duplicate the roll-ups.
+    connection = await dbPool.getConnection();
+    await connection.beginTransaction();
+
+    if (rollups.length > 0) {
+      await insertLatencyRollups(connection, rollups);
+    }
+
+    if (compressionRollups.length > 0) {
+      await insertCompressionRollups(connection, compressionRollups);
+    }
+
+    if (values.length > 0) {
+      logger.debug('Preparing to insert into DB:', { sql, values });
+      await connection.query(sql, [values]);
+    }
+
+    await connection.commit();
 
     res.status(201).json({ message: 'Logs created successfully!' });
 
   } catch (error) {
+    if (connection) {
+      await connection.rollback().catch(() => {});
+    }
     logger.error('Error during client log creation:', { error: error.message, requestBody: req.body });
     res.status(500).json({ message: 'Internal server error.' });
+  } finally {
+    if (connection) {
+      connection.release();
+    }
   }
 };
 
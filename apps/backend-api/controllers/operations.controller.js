@@ -1,5 +1,6 @@
 const { dbPool } = require('../config/db');
 const logger = require('../logger');
+const operationEventsService = require('../services/operationEvents.service');
 
 const STOP_REASONS = new Set(['manual', 'logout', 'countdown_complete', 'hardware_error', 'unknown']);
 
@@ -98,6 +99,21 @@ const logOperationEvent = async (req, res) => {
   }
 };
 
+// 批量记录事件（客户端本地合并后的调节事件）
+const logOperationEventsBatch = async (req, res) => {
+  try {
+    const { events } = req.body || {};
+    const count = await operationEventsService.recordEventBatch(events);
+    res.status(201).json({ message: 'Events recorded successfully.', count });
+  } catch (error) {
+    if (error.code === 'INVALID_BATCH' || error.code === 'INVALID_EVENT') {
+      return res.status(400).json({ message: error.message });
+    }
+    logger.error('Error recording operation events batch:', { error: error.message });
+    res.status(500).json({ message: 'Internal server error.' });
+  }
+};
+
 // 停止一个操作
 const stopOperation = async (req, res) => {
   try {
@@ -128,5 +144,6 @@ const stopOperation = async (req, res) => {
 module.exports = {
   startOperation,
   logOperationEvent,
+  logOperationEventsBatch,
   stopOperation
 };
@@ -0,0 +1,30 @@
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.up = async function up(knex) {
+  await knex.schema.createTable('client_latency_rollups', function (table) {
+    table.increments('id').primary();
+    table.string('route', 255).notNullable();
+    table.string('request_method', 10).notNullable();
+    table.dateTime('minute_start').notNullable();
+    table.integer('request_count').notNullable();
+    table.integer('error_count').notNullable().defaultTo(0);
+    table.integer('p50_ms');
+    table.integer('p95_ms');
+    table.integer('p99_ms');
+    table.integer('max_ms');
+    table.text('histogram');
+    table.text('device_info');
+    table.timestamp('created_at').defaultTo(knex.fn.now());
+    table.index(['route', 'minute_start']);
+  });
+};
+
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.down = async function down(knex) {
+  await knex.schema.dropTableIfExists('client_latency_rollups');
+};
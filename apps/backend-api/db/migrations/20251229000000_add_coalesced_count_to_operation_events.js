@@ -0,0 +1,19 @@
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.up = async function up(knex) {
+  await knex.schema.alterTable('user_operation_events', function (table) {
+    table.integer('coalesced_count').notNullable().defaultTo(1);
+  });
+};
+
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.down = async function down(knex) {
+  await knex.schema.alterTable('user_operation_events', function (table) {
+    table.dropColumn('coalesced_count');
+  });
+};
@@ -0,0 +1,22 @@
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.up = async function up(knex) {
+  await knex.schema.alterTable('user_operation_events', function (table) {
+    // 客户端生成的事件 ID，实时通道超时后回退 HTTP 重发同一批事件时据此去重
+    table.string('client_event_id', 64).nullable();
+    table.unique(['client_event_id'], 'uq_user_operation_events_client_event_id');
+  });
+};
+
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.down = async function down(knex) {
+  await knex.schema.alterTable('user_operation_events', function (table) {
+    table.dropUnique(['client_event_id'], 'uq_user_operation_events_client_event_id');
+    table.dropColumn('client_event_id');
+  });
+};
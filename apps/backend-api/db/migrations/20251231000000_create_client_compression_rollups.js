@@ -0,0 +1,28 @@
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.up = async function up(knex) {
+  await knex.schema.createTable('client_compression_rollups', function (table) {
+    table.increments('id').primary();
+    table.string('route', 255).notNullable();
+    table.string('request_method', 10).notNullable();
+    table.dateTime('reported_at').notNullable();
+    table.integer('compressed_requests').notNullable().defaultTo(0);
+    table.integer('skipped_requests').notNullable().defaultTo(0);
+    table.bigInteger('original_bytes').notNullable().defaultTo(0);
+    table.bigInteger('sent_bytes').notNullable().defaultTo(0);
+    table.bigInteger('skipped_bytes').notNullable().defaultTo(0);
+    table.text('device_info');
+    table.timestamp('created_at').defaultTo(knex.fn.now());
+    table.index(['route', 'reported_at']);
+  });
+};
+
+/**
+ * @param { import("knex").Knex } knex
+ * @returns { Promise<void> }
+ */
+exports.down = async function down(knex) {
+  await knex.schema.dropTableIfExists('client_compression_rollups');
+};
@@ -87,7 +87,7 @@ wss.on('connection', (ws, req) => {
   const { token, channel } = parsed.query || {};
 
   if (channel === 'control') {
-    offlineControlChannel.registerControlClient(ws);
+    offlineControlChannel.registerControlClient(ws, parsed.query || {});
     return;
   }
 
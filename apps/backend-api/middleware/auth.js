@@ -1,6 +1,7 @@
 const jwt = require('jsonwebtoken');
 const crypto = require('crypto');
 const logger = require('../logger');
+const { touchUser } = require('../onlineStatusManager');
 
 const buildError = (code, message) => ({
   error: {
@@ -32,6 +33,7 @@ function authenticateToken(req, res, next) {
 
     logger.info(`[Auth Middleware] Token verified for userId: ${user.id || user.userId}. Granting access to '${req.originalUrl}'.`);
     req.user = user;
+    touchUser(user.id || user.userId || null, req.headers['x-device-id']);
     next();
   });
 }
@@ -1,16 +1,54 @@
 // onlineStatusManager.js
 const logger = require('./logger');
 const { dbPool } = require('./config/db');
+const { touchDeviceLastSeen } = require('./repositories/deviceRegistry.repository');
 
-const onlineUsers = new Map(); // 存储 { userId: { timestamp, sessionId } }
-const TIMEOUT_MS = 45 * 1000; // 45秒
+const onlineUsers = new Map(); // 存储 { userId: { timestamp, sessionId, timeoutMs } }
+const TIMEOUT_MS = 45 * 1000; // 45秒（未上报心跳间隔的旧客户端）
+const MAX_TIMEOUT_MS = 3 * 60 * 1000;
+const MISSED_INTERVALS_BEFORE_TIMEOUT = 2.5;
 const BATCH_UPDATE_INTERVAL_MS = 5 * 60 * 1000; // 5分钟
+const DEVICE_TOUCH_INTERVAL_MS = 30 * 1000; // 同一设备 30 秒内最多写一次 last_seen_at，远小于后台 90 秒的在线窗口
+const MAX_DEVICE_ID_LENGTH = 191;
 
-function updateUser(userId, sessionId) {
-  onlineUsers.set(userId, { timestamp: Date.now(), sessionId });
+const deviceTouchedAt = new Map(); // 存储 { deviceId: 上次写入 last_seen_at 的时间 }
+
+// 客户端上报下一次心跳的间隔时，超时放宽到 2.5 个间隔（45 秒 ~ 3 分钟）
+function resolveTimeout(intervalMs) {
+  const interval = Number(intervalMs);
+  if (!Number.isFinite(interval) || interval <= 0) {
+    return TIMEOUT_MS;
+  }
+  return Math.min(MAX_TIMEOUT_MS, Math.max(TIMEOUT_MS, Math.round(interval * MISSED_INTERVALS_BEFORE_TIMEOUT)));
+}
+
+function updateUser(userId, sessionId, intervalMs) {
+  onlineUsers.set(userId, { timestamp: Date.now(), sessionId, timeoutMs: resolveTimeout(intervalMs) });
   logger.info(`[Heartbeat] Received from user: ${userId}, session: ${sessionId}`); // ADDED LOG
 }
 
+// 已在线用户的任意认证请求都视为一次心跳，客户端据此省略多余的心跳请求；
+// 请求带了设备号时同时刷新设备的 last_seen_at（按设备节流）
+function touchUser(userId, deviceId) {
+  if (userId == null) return;
+  const entry = onlineUsers.get(userId);
+  if (entry) {
+    entry.timestamp = Date.now();
+  }
+  touchDevice(userId, deviceId);
+}
+
+function touchDevice(userId, deviceId) {
+  if (typeof deviceId !== 'string' || deviceId === '' || deviceId.length > MAX_DEVICE_ID_LENGTH) return;
+  const now = Date.now();
+  const last = deviceTouchedAt.get(deviceId);
+  if (last !== undefined && now - last < DEVICE_TOUCH_INTERVAL_MS) return;
+  deviceTouchedAt.set(deviceId, now);
+  touchDeviceLastSeen(deviceId, userId).catch(error => {
+    logger.error('刷新设备 last_seen_at 时出错:', { deviceId, error: error.message });
+  });
+}
+
 function startManagerIntervals() {
   logger.info('✅ Online user status manager starting intervals...');
 
@@ -19,8 +57,14 @@ function startManagerIntervals() {
     const now = Date.now();
     const timedOutSessionIds = [];
 
+    for (const [deviceId, touchedAt] of deviceTouchedAt.entries()) {
+      if (now - touchedAt >= DEVICE_TOUCH_INTERVAL_MS) {
+        deviceTouchedAt.delete(deviceId);
+      }
+    }
+
     for (const [userId, data] of onlineUsers.entries()) {
-      if (now - data.timestamp > TIMEOUT_MS) {
+      if (now - data.timestamp > (data.timeoutMs || TIMEOUT_MS)) {
         timedOutSessionIds.push(data.sessionId);
         onlineUsers.delete(userId); // 立即从内存中移除
       }
@@ -62,6 +106,7 @@ function startManagerIntervals() {
 
 module.exports = {
   updateUser,
+  touchUser,
   startManagerIntervals, // 确保在 index.js 中调用这个新的启动函数
   onlineUsers
 };
\ No newline at end of file
@@ -1,16 +1,43 @@
 const WebSocket = require('ws');
+const jwt = require('jsonwebtoken');
 const logger = require('../logger');
+const { touchUser } = require('../onlineStatusManager');
+
+/**
+ * /ws?channel=control
+ *
+ * 旧客户端：只接收原始 JSON 控制消息（{ type: 'offline_mode', ... }）。
+ * v=2 客户端：多路复用的帧协议，每帧为 JSON 对象，`ch` 字段区分通道：
+ *   下行  { ch: 'control', seq, epoch, msg }    控制消息，按 seq 递增，可断线续传
+ *         { ch: 'hello', epoch, seq }           连接建立后告知当前序号
+ *         { ch: 'auth', ok }                    认证结果
+ *         { ch: 'ack' | 'nack', id, error? }    对上行请求的确认
+ *   上行  { ch: 'auth', token }                 绑定用户（JWT），之后可发送心跳与操作事件
+ *         { ch: 'heartbeat', id, sessionId, deviceId?, ipAddress?, deviceModel?, osVersion?, appVersion?, intervalMs? }
+ *         { ch: 'events', id, events: [...] }   与 POST /api/v1/operations/events/batch 相同
+ *
+ * 连接时携带 `lastSeq` 与 `epoch`，服务端补发缓冲区中更新的控制消息；进程重启后 epoch 改变，客户端从头计数。
+ */
+
+const PROTOCOL_VERSION = 2;
+const REPLAY_BUFFER_SIZE = 200;
+const EPOCH = Date.now();
 
 const controlClients = new Set();
+const replayBuffer = [];
+let nextSeq = 1;
 let userSocketMap = null;
 
 function registerUserSocketMap(map) {
   userSocketMap = map;
 }
 
-function registerControlClient(ws) {
+function registerControlClient(ws, query = {}) {
+  const version = Number(query.v) || 1;
+  ws.protocolVersion = version;
+  ws.realtimeUser = null;
   controlClients.add(ws);
-  logger.info('[ControlChannel] Control client connected. total=%d', controlClients.size);
+  logger.info('[ControlChannel] Control client connected (v%d). total=%d', version, controlClients.size);
   ws.on('close', () => {
     controlClients.delete(ws);
     logger.info('[ControlChannel] Control client disconnected. total=%d', controlClients.size);
@@ -19,10 +46,144 @@ function registerControlClient(ws) {
     controlClients.delete(ws);
     logger.warn('[ControlChannel] Control client error: %s', error?.message);
   });
+
+  if (version < PROTOCOL_VERSION) {
+    return;
+  }
+
+  ws.on('message', data => {
+    handleFrame(ws, data).catch(error => {
+      logger.warn('[ControlChannel] Failed to handle frame: %s', error?.message);
+    });
+  });
+
+  sendFrame(ws, { ch: 'hello', epoch: EPOCH, seq: nextSeq - 1 });
+  replayControlMessages(ws, query);
+}
+
+function replayControlMessages(ws, query) {
+  if (Number(query.epoch) !== EPOCH) {
+    return;
+  }
+  const lastSeq = Number(query.lastSeq);
+  if (!Number.isInteger(lastSeq)) {
+    return;
+  }
+  for (const frame of replayBuffer) {
+    if (frame.seq > lastSeq) {
+      sendFrame(ws, frame);
+    }
+  }
+}
+
+function sendFrame(ws, frame) {
+  if (ws?.readyState === WebSocket.OPEN) {
+    ws.send(JSON.stringify(frame));
+    return true;
+  }
+  return false;
+}
+
+async function handleFrame(ws, data) {
+  let frame;
+  try {
+    frame = JSON.parse(data.toString());
+  } catch (error) {
+    return;
+  }
+  if (!frame || typeof frame !== 'object') {
+    return;
+  }
+
+  switch (frame.ch) {
+    case 'auth':
+      return handleAuth(ws, frame);
+    case 'heartbeat':
+      return handleHeartbeatFrame(ws, frame);
+    case 'events':
+      return handleEventsFrame(ws, frame);
+    default:
+      if (frame.id != null) {
+        sendFrame(ws, { ch: 'nack', id: frame.id, error: 'UNKNOWN_CHANNEL' });
+      }
+  }
+}
+
+function handleAuth(ws, frame) {
+  if (!frame.token) {
+    ws.realtimeUser = null;
+    sendFrame(ws, { ch: 'auth', ok: false });
+    return;
+  }
+  jwt.verify(frame.token, process.env.JWT_SECRET, (err, user) => {
+    ws.realtimeUser = err ? null : user;
+    sendFrame(ws, { ch: 'auth', ok: !err });
+  });
+}
+
+function requireUser(ws, frame) {
+  if (!ws.realtimeUser) {
+    sendFrame(ws, { ch: 'nack', id: frame.id, error: 'UNAUTHENTICATED' });
+    return null;
+  }
+  const user = ws.realtimeUser;
+  // 令牌过期后要求客户端重新认证
+  if (user.exp && user.exp * 1000 < Date.now()) {
+    ws.realtimeUser = null;
+    sendFrame(ws, { ch: 'nack', id: frame.id, error: 'TOKEN_EXPIRED' });
+    return null;
+  }
+  touchUser(user.id || user.userId || null);
+  return user;
+}
+
+function handleHeartbeatFrame(ws, frame) {
+  const user = requireUser(ws, frame);
+  if (!user) return;
+  if (!frame.sessionId) {
+    sendFrame(ws, { ch: 'nack', id: frame.id, error: 'SESSION_ID_REQUIRED' });
+    return;
+  }
+  // 延迟加载：heartbeat.service 依赖 device.service，而后者依赖本模块
+  const { recordHeartbeat } = require('../services/heartbeat.service');
+  recordHeartbeat({
+    user,
+    sessionId: frame.sessionId,
+    deviceId: frame.deviceId,
+    ipAddress: frame.ipAddress || ws._socket?.remoteAddress || null,
+    deviceModel: frame.deviceModel,
+    osVersion: frame.osVersion,
+    appVersion: frame.appVersion,
+    intervalMs: frame.intervalMs
+  });
+  sendFrame(ws, { ch: 'ack', id: frame.id });
+}
+
+async function handleEventsFrame(ws, frame) {
+  const user = requireUser(ws, frame);
+  if (!user) return;
+  const { recordEventBatch } = require('../services/operationEvents.service');
+  try {
+    await recordEventBatch(frame.events);
+    sendFrame(ws, { ch: 'ack', id: frame.id });
+  } catch (error) {
+    const invalid = error.code === 'INVALID_BATCH' || error.code === 'INVALID_EVENT';
+    if (!invalid) {
+      logger.error('[ControlChannel] Failed to record operation events', { error: error.message });
+    }
+    sendFrame(ws, { ch: 'nack', id: frame.id, error: invalid ? error.code : 'INTERNAL_ERROR' });
+  }
 }
 
 function broadcast(message) {
   const serialized = JSON.stringify(message);
+  const frame = { ch: 'control', seq: nextSeq++, epoch: EPOCH, msg: message };
+  replayBuffer.push(frame);
+  if (replayBuffer.length > REPLAY_BUFFER_SIZE) {
+    replayBuffer.shift();
+  }
+  const serializedFrame = JSON.stringify(frame);
+
   let delivered = 0;
   if (userSocketMap) {
     for (const [, socket] of userSocketMap.entries()) {
@@ -34,7 +195,7 @@ function broadcast(message) {
   }
   for (const socket of controlClients) {
     if (socket?.readyState === WebSocket.OPEN) {
-      socket.send(serialized);
+      socket.send(socket.protocolVersion >= PROTOCOL_VERSION ? serializedFrame : serialized);
       delivered += 1;
     }
   }
@@ -143,6 +143,19 @@ async function findDeviceById(deviceId) {
   return mapDeviceRow(rows[0]);
 }
 
+// 只刷新已登记且最近由该用户上报过心跳的设备，避免请求头里的设备号刷新别人的设备
+async function touchDeviceLastSeen(deviceId, userId) {
+  const [result] = await dbPool.execute(
+    `
+      UPDATE device_registry
+      SET last_seen_at = NOW()
+      WHERE device_id = ? AND last_user_id = ?
+    `,
+    [deviceId, String(userId)]
+  );
+  return result.affectedRows;
+}
+
 async function setDeviceOfflineAllowed(deviceId, offlineAllowed) {
   const [result] = await dbPool.execute(
     `
@@ -270,6 +283,7 @@ async function listDevices({
 module.exports = {
   upsertDeviceRecord,
   findDeviceById,
+  touchDeviceLastSeen,
   setDeviceOfflineAllowed,
   setAllDevicesOfflineAllowed,
   listDevices
@@ -9,6 +9,9 @@ router.use(authMiddleware);
 // 开始一个新操作
 router.post('/start', operationsController.startOperation);
 
+// 批量记录事件（需注册在 /:id/events 之前）
+router.post('/events/batch', operationsController.logOperationEventsBatch);
+
 // 记录实时事件
 router.post('/:id/events', operationsController.logOperationEvent);
 
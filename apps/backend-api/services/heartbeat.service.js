@@ -0,0 +1,32 @@
+const { updateUser } = require('../onlineStatusManager');
+const logger = require('../logger');
+const deviceService = require('./device.service');
+
+// 记录一次用户心跳（HTTP 接口与实时通道共用），设备信息随心跳一并更新
+function recordHeartbeat({ user, sessionId, deviceId, ipAddress, deviceModel, osVersion, appVersion, intervalMs }) {
+  const userId = user?.id || user?.userId || null;
+
+  // 为了高性能，只更新内存中的map。
+  updateUser(userId, sessionId, intervalMs);
+
+  if (deviceId) {
+    deviceService
+      .touchDevice({
+        deviceId,
+        userId: userId ? String(userId) : null,
+        userEmail: user?.email || null,
+        userName: user?.username || null,
+        ipAddress,
+        deviceModel,
+        osVersion,
+        appVersion
+      })
+      .catch(err => {
+        logger.warn('[Heartbeat] Failed to update device heartbeat', { error: err.message });
+      });
+  }
+}
+
+module.exports = {
+  recordHeartbeat
+};
@@ -0,0 +1,62 @@
+const { dbPool } = require('../config/db');
+
+const MAX_EVENT_BATCH_SIZE = 500;
+const MAX_CLIENT_EVENT_ID_LENGTH = 64;
+
+const OperationEventsServiceError = (code, message) => {
+  const err = new Error(message);
+  err.code = code;
+  return err;
+};
+
+function toRow(event) {
+  const operationId = Number(event && event.operationId);
+  if (!Number.isInteger(operationId) || operationId <= 0 || !event.eventType) {
+    throw OperationEventsServiceError('INVALID_EVENT', 'Each event requires operationId and eventType.');
+  }
+  const occurredAt = Number(event.occurredAt);
+  const coalescedCount = Number(event.coalescedCount);
+  // 合并事件的 occurredAt 为首次调节时间，lastOccurredAt 为最后一次
+  const lastOccurredAt = Number(event.lastOccurredAt);
+  const clientEventId = typeof event.clientEventId === 'string' ? event.clientEventId.trim() : '';
+  if (clientEventId.length > MAX_CLIENT_EVENT_ID_LENGTH) {
+    throw OperationEventsServiceError('INVALID_EVENT', 'clientEventId is too long.');
+  }
+  return [
+    operationId,
+    event.eventType,
+    event.frequency ?? null,
+    event.intensity ?? null,
+    event.timeRemaining ?? null,
+    event.extraDetail ?? null,
+    Number.isFinite(occurredAt) && occurredAt > 0 ? new Date(occurredAt) : new Date(),
+    Number.isInteger(coalescedCount) && coalescedCount > 0 ? coalescedCount : 1,
+    Number.isFinite(lastOccurredAt) && lastOccurredAt > 0 ? new Date(lastOccurredAt) : null,
+    clientEventId || null
+  ];
+}
+
+// 批量写入客户端合并后的操作事件；HTTP 接口与实时通道共用。
+// 同一批事件可能先经实时通道送达、客户端等不到确认又经 HTTP 重发，
+// 已写入过的 client_event_id 直接跳过。
+async function recordEventBatch(events) {
+  if (!Array.isArray(events) || events.length === 0) {
+    throw OperationEventsServiceError('INVALID_BATCH', 'events must be a non-empty array.');
+  }
+  if (events.length > MAX_EVENT_BATCH_SIZE) {
+    throw OperationEventsServiceError('INVALID_BATCH', `At most ${MAX_EVENT_BATCH_SIZE} events per batch.`);
+  }
+  const rows = events.map(toRow);
+
+  const insertSql = `INSERT INTO user_operation_events
+    (operation_id, event_type, frequency, intensity, time_remaining, extra_detail, created_at, coalesced_count,
+     last_occurred_at, client_event_id)
+    VALUES ?
+    ON DUPLICATE KEY UPDATE client_event_id = client_event_id`;
+  await dbPool.query(insertSql, [rows]);
+  return rows.length;
+}
+
+module.exports = {
+  recordEventBatch
+};